@@ -44,7 +44,9 @@ public abstract class AbstractIndexStore {
   public abstract void close() throws IOException;
 
   /**
-   * Index a given document.
+   * Index a given document. The context is reused by the writer for the
+   * subsequent documents, hence it is not to be referred to once the call
+   * returns.
    * 
    * @param key
    * @param documentIndexContext
@@ -54,4 +56,33 @@ public abstract class AbstractIndexStore {
   public abstract SegmentInfo indexDocument(final String key,
       final DocumentIndexContext documentIndexContext) throws IOException;
 
+  /**
+   * Index a batch of documents, in the given order. The contexts are reused
+   * by the writer for the subsequent batches, hence they are not to be
+   * referred to once the call returns.
+   * 
+   * @param keys
+   * @param documentIndexContexts
+   * @param count
+   *          Number of documents in the batch.
+   * @throws IOException
+   */
+  public void indexDocuments(final String[] keys,
+      final DocumentIndexContext[] documentIndexContexts, final int count)
+      throws IOException {
+    for (int i = 0; i < count; ++i) {
+      this.indexDocument(keys[i], documentIndexContexts[i]);
+    }
+  }
+
+  /**
+   * Delete the documents of the given keys, as of now. Documents of the keys
+   * indexed subsequently are not affected.
+   * 
+   * @param keys
+   * @throws IOException
+   */
+  public abstract void deleteDocuments(final String... keys)
+      throws IOException;
+
 }
@@ -23,9 +23,74 @@ import java.util.List;
 
 /**
  * Encode the term positions as bytes.
+ * <p>
+ * Every encoder has a format byte, recorded with the segments it encodes the
+ * positions of (see HBaseSegmentInfos#getPositionsFormat ), so that the
+ * positions of a segment are decoded by the same encoder whatever the encoder
+ * configured since.
+ * </p>
  */
 public abstract class AbstractTermPositionsEncoder {
 
+  /**
+   * Format of {@link AlphaTermPositionsEncoder}, and of the segments without
+   * a format.
+   */
+  static final byte FORMAT_ALPHA = 0;
+
+  /**
+   * Format of {@link VIntTermPositionsEncoder}.
+   */
+  static final byte FORMAT_VINT = 1;
+
+  private static final AbstractTermPositionsEncoder ALPHA = new AlphaTermPositionsEncoder();
+
+  private static final AbstractTermPositionsEncoder VINT = new VIntTermPositionsEncoder();
+
+  /**
+   * Retrieve the encoder of the given format. The encoders are stateless,
+   * hence shared.
+   * 
+   * @param format
+   * @return
+   */
+  static AbstractTermPositionsEncoder forFormat(final byte format) {
+    switch (format) {
+    case FORMAT_ALPHA:
+      return ALPHA;
+    case FORMAT_VINT:
+      return VINT;
+    default:
+      throw new IllegalArgumentException("Unknown term positions format "
+          + format);
+    }
+  }
+
+  /**
+   * Retrieve the encoder of the given name, as configured by
+   * HBaseneConstants#CONF_POSITIONS_ENCODING .
+   * 
+   * @param name
+   *          alpha or vint.
+   * @return
+   */
+  static AbstractTermPositionsEncoder forName(final String name) {
+    if ("alpha".equals(name)) {
+      return ALPHA;
+    } else if ("vint".equals(name)) {
+      return VINT;
+    }
+    throw new IllegalArgumentException("Unknown term positions encoding "
+        + name);
+  }
+
+  /**
+   * Format byte of the encoder.
+   * 
+   * @return
+   */
+  abstract byte getFormat();
+
   /**
    * Encode the given term positions as a byte array.
    * 
@@ -34,6 +99,17 @@ public abstract class AbstractTermPositionsEncoder {
    */
   abstract byte[] encode(final List<Integer> termPositions);
 
+  /**
+   * Encode the given range of term positions as a byte array.
+   * 
+   * @param termPositions
+   * @param offset
+   * @param length
+   * @return
+   */
+  abstract byte[] encode(final int[] termPositions, final int offset,
+      final int length);
+
   /**
    * Decode the byte string represented by term positions and retrieve the
    * individual list.
@@ -43,6 +119,32 @@ public abstract class AbstractTermPositionsEncoder {
    */
   abstract int[] decode(final byte[] value);
 
+  /**
+   * Decode the term positions encoded in the given range of the byte array.
+   * 
+   * @param value
+   * @param offset
+   * @param length
+   * @return
+   */
+  abstract int[] decode(final byte[] value, final int offset, final int length);
+
+  /**
+   * Decode the term positions encoded in the given range of the byte array
+   * into the given buffer, if large enough.
+   * 
+   * @param value
+   * @param offset
+   * @param length
+   * @param buffer
+   *          Buffer to reuse, may be null.
+   * @return the buffer, or a larger array if the buffer is not large enough.
+   */
+  int[] decode(final byte[] value, final int offset, final int length,
+      final int[] buffer) {
+    return this.decode(value, offset, length);
+  }
+
   /**
    * Retrieve the frequency of the terms in the current document.
    * 
@@ -50,4 +152,16 @@ public abstract class AbstractTermPositionsEncoder {
    * @return
    */
   abstract int getTermFrequency(byte[] termFreqRepresentation);
+
+  /**
+   * Retrieve the frequency of the terms, from the term positions encoded in
+   * the given range of the byte array.
+   * 
+   * @param termFreqRepresentation
+   * @param offset
+   * @param length
+   * @return
+   */
+  abstract int getTermFrequency(byte[] termFreqRepresentation, int offset,
+      int length);
 }
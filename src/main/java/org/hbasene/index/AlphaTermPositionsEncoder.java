@@ -29,12 +29,33 @@ import org.apache.hadoop.hbase.util.Bytes;
  */
 public class AlphaTermPositionsEncoder extends AbstractTermPositionsEncoder {
 
+  @Override
+  byte getFormat() {
+    return FORMAT_ALPHA;
+  }
+
   @Override
   int[] decode(byte[] value) {
-    int length = (value.length / Bytes.SIZEOF_INT);
-    int [] result = new int[length];
-    for (int i = 0 ; i < length ; ++i) {
-      result[i] = Bytes.toInt(value, i * Bytes.SIZEOF_INT);
+    return decode(value, 0, value.length);
+  }
+
+  @Override
+  int[] decode(byte[] value, int offset, int length) {
+    int numPositions = (length / Bytes.SIZEOF_INT);
+    int [] result = new int[numPositions];
+    for (int i = 0 ; i < numPositions ; ++i) {
+      result[i] = Bytes.toInt(value, offset + i * Bytes.SIZEOF_INT);
+    }
+    return result;
+  }
+
+  @Override
+  int[] decode(byte[] value, int offset, int length, int[] buffer) {
+    int numPositions = (length / Bytes.SIZEOF_INT);
+    int[] result = (buffer != null && buffer.length >= numPositions) ? buffer
+        : new int[numPositions];
+    for (int i = 0 ; i < numPositions ; ++i) {
+      result[i] = Bytes.toInt(value, offset + i * Bytes.SIZEOF_INT);
     }
     return result;
   }
@@ -48,9 +69,23 @@ public class AlphaTermPositionsEncoder extends AbstractTermPositionsEncoder {
     return encoded;
   }
 
+  @Override
+  byte[] encode(int[] termPositions, int offset, int length) {
+    byte[] encoded = new byte[length * Bytes.SIZEOF_INT];
+    for (int i = 0 ; i < length ; ++i) {
+      Bytes.putInt(encoded, i * Bytes.SIZEOF_INT, termPositions[offset + i]);
+    }
+    return encoded;
+  }
+
   @Override
   int getTermFrequency(byte[] termPositions) {
     return (termPositions.length / Bytes.SIZEOF_INT);
   }
 
+  @Override
+  int getTermFrequency(byte[] termPositions, int offset, int length) {
+    return (length / Bytes.SIZEOF_INT);
+  }
+
 }
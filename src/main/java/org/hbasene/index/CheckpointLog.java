@@ -0,0 +1,268 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Client side log of the segments of a store, used to find the segments to
+ * be re-indexed after a crash.
+ * <p>
+ * A segment is logged, along with the keys of its documents, when it is
+ * handed over to be flushed, and again once it is committed to the table.
+ * A segment begun, but not committed, did not make it to the table in full,
+ * either because the writer crashed or because the flush failed. A segment
+ * committed with the WAL turned off for some of the families (see
+ * HBaseneConstants#CONF_WAL_TERMVECTOR and the like) may still be lost if a
+ * region server crashes before flushing its memstore.
+ * </p>
+ * {@link #sync()} marks all the committed segments as persisted and starts
+ * the log afresh. It is to be called once the table is known to be flushed,
+ * hence the log only ever holds the segments since the last sync.
+ * <p>
+ * Each store writes a log file of its own, in the directory given by
+ * HBaseneConstants#CONF_CHECKPOINT_DIR . {@link #recover(FileSystem, Path)}
+ * reads all the log files in the directory.
+ * </p>
+ */
+public class CheckpointLog {
+
+  private static final Log LOG = LogFactory.getLog(CheckpointLog.class);
+
+  static final byte BEGIN = 1;
+
+  static final byte COMMIT = 2;
+
+  private final FileSystem fs;
+
+  private final Path dir;
+
+  private final String name;
+
+  private Path path;
+
+  private FSDataOutputStream out;
+
+  /**
+   * 
+   * @param fs
+   * @param dir
+   *          Directory of the log files.
+   * @param name
+   *          Prefix of the name of the log file.
+   * @throws IOException
+   */
+  public CheckpointLog(final FileSystem fs, final Path dir, final String name)
+      throws IOException {
+    this.fs = fs;
+    this.dir = dir;
+    this.name = name;
+    this.doRoll();
+  }
+
+  /**
+   * Log the segment, with the keys of its documents, as handed over to be
+   * committed.
+   * 
+   * @param segmentId
+   * @param keys
+   * @throws IOException
+   */
+  public synchronized void begin(final long segmentId,
+      final Collection<String> keys) throws IOException {
+    this.out.writeByte(BEGIN);
+    this.out.writeLong(segmentId);
+    this.out.writeInt(keys.size());
+    for (final String key : keys) {
+      this.out.writeUTF(key);
+    }
+    this.out.sync();
+  }
+
+  /**
+   * Log the segment as committed to the table.
+   * 
+   * @param segmentId
+   * @throws IOException
+   */
+  public synchronized void commit(final long segmentId) throws IOException {
+    this.out.writeByte(COMMIT);
+    this.out.writeLong(segmentId);
+    this.out.sync();
+  }
+
+  /**
+   * Mark the segments committed so far as persisted, discarding the log. To be
+   * called with no segment in flight.
+   * 
+   * @throws IOException
+   */
+  public synchronized void sync() throws IOException {
+    final Path oldPath = this.path;
+    this.out.close();
+    this.doRoll();
+    this.fs.delete(oldPath, false);
+  }
+
+  public synchronized void close() throws IOException {
+    this.out.close();
+  }
+
+  private void doRoll() throws IOException {
+    this.path = new Path(this.dir, this.name + "-"
+        + System.currentTimeMillis() + "-" + UUID.randomUUID());
+    this.out = this.fs.create(this.path, false);
+  }
+
+  /**
+   * Read the log files in the given directory.
+   * 
+   * @param fs
+   * @param dir
+   * @return
+   * @throws IOException
+   */
+  public static Recovery recover(final FileSystem fs, final Path dir)
+      throws IOException {
+    final Recovery recovery = new Recovery();
+    final FileStatus[] files = fs.listStatus(dir);
+    if (files == null) {
+      return recovery;
+    }
+    for (final FileStatus file : files) {
+      final DataInputStream in = fs.open(file.getPath());
+      try {
+        while (true) {
+          final byte type = in.readByte();
+          final long segmentId = in.readLong();
+          if (type == BEGIN) {
+            final int numKeys = in.readInt();
+            final List<String> keys = new ArrayList<String>(numKeys);
+            for (int i = 0; i < numKeys; ++i) {
+              keys.add(in.readUTF());
+            }
+            recovery.uncommittedSegments.put(segmentId, keys);
+          } else if (type == COMMIT) {
+            final List<String> keys = recovery.uncommittedSegments
+                .remove(segmentId);
+            if (keys != null) {
+              recovery.unsyncedSegments.put(segmentId, keys);
+            }
+          } else {
+            throw new IOException("Unknown record " + type + " in "
+                + file.getPath());
+          }
+        }
+      } catch (EOFException ex) {
+        // end of the log, possibly a record cut short by a crash.
+      } finally {
+        in.close();
+      }
+    }
+    LOG.info("CheckpointLog#Recovered " + recovery.uncommittedSegments.size()
+        + " uncommitted and " + recovery.unsyncedSegments.size()
+        + " unsynced segments from " + dir);
+    return recovery;
+  }
+
+  /**
+   * Delete the log files in the given directory, once the segments found by
+   * {@link #recover(FileSystem, Path)} are re-indexed.
+   * 
+   * @param fs
+   * @param dir
+   * @throws IOException
+   */
+  public static void clear(final FileSystem fs, final Path dir)
+      throws IOException {
+    fs.delete(dir, true);
+  }
+
+  /**
+   * Segments found in the logs, along with the keys of their documents.
+   */
+  public static final class Recovery {
+
+    private final Map<Long, List<String>> uncommittedSegments = new TreeMap<Long, List<String>>();
+
+    private final Map<Long, List<String>> unsyncedSegments = new TreeMap<Long, List<String>>();
+
+    /**
+     * Segments begun, but not committed. Their documents need to be
+     * re-indexed.
+     * 
+     * @return
+     */
+    public Map<Long, List<String>> getUncommittedSegments() {
+      return this.uncommittedSegments;
+    }
+
+    /**
+     * Segments committed, but not synced. Their documents need to be
+     * re-indexed, only if a region server crashed while the WAL was turned
+     * off for some of the families.
+     * 
+     * @return
+     */
+    public Map<Long, List<String>> getUnsyncedSegments() {
+      return this.unsyncedSegments;
+    }
+
+    /**
+     * Hide the given segments from the readers, by removing them from the
+     * segment infos of the index.
+     * 
+     * @param table
+     * @param segmentIds
+     * @throws IOException
+     */
+    public void hideSegments(final HTable table,
+        final Collection<Long> segmentIds) throws IOException {
+      if (segmentIds.isEmpty()) {
+        return;
+      }
+      Delete delete = new Delete(HBaseneConstants.ROW_SEGMENT_INFOS);
+      for (final Long segmentId : segmentIds) {
+        delete.deleteColumns(HBaseneConstants.FAMILY_SEQUENCE, Bytes
+            .toBytes(segmentId.longValue()));
+      }
+      table.delete(delete);
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTablePool;
+
+/**
+ * An index store that accepts documents from multiple threads at the same
+ * time.
+ * <p>
+ * Documents are striped across a fixed number of {@link HBaseIndexStore}
+ * instances. Each stripe has its own segment buffer and its own segment id,
+ * and commits independently of the others. The segment ids are leased by a
+ * single {@link SegmentIdAllocator} shared by the stripes. A thread is pinned
+ * to a stripe the first time it indexes a document, so that threads only
+ * contend with each other when there are more threads than stripes. A batch
+ * of documents ( see {@link #indexDocuments(String[], DocumentIndexContext[], int)} )
+ * is rather split across the stripes, and indexed by them in parallel.
+ * </p>
+ * The number of stripes is configured by
+ * {@link HBaseneConstants#CONF_INDEX_STRIPES}. Every stripe borrows up to
+ * HBaseneConstants#CONF_FLUSH_THREADS + 1 tables from the pool while flushing
+ * a segment, hence the pool needs to be at least as large as the number of
+ * stripes times the same.
+ */
+public class ConcurrentHBaseIndexStore extends AbstractIndexStore implements
+    HBaseneConstants {
+
+  private static final Log LOG = LogFactory
+      .getLog(ConcurrentHBaseIndexStore.class);
+
+  private final HBaseIndexStore[] stripes;
+
+  /**
+   * Round-robin counter used to pin the threads to the stripes.
+   */
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  /**
+   * Indexes the parts of the batches on the stripes, but the last part, which
+   * is indexed by the calling thread.
+   */
+  private final ExecutorService batchExecutor;
+
+  /**
+   * Held shared by the indexing threads, and exclusively by the deletes, so
+   * that a delete resolves the keys against the documents indexed before it,
+   * and never against a document of the same key indexed meanwhile.
+   */
+  private final ReadWriteLock deleteLock = new ReentrantReadWriteLock();
+
+  private final ThreadLocal<HBaseIndexStore> currentStripe = new ThreadLocal<HBaseIndexStore>() {
+
+    @Override
+    protected HBaseIndexStore initialValue() {
+      final int index = (nextStripe.getAndIncrement() & Integer.MAX_VALUE)
+          % stripes.length;
+      return stripes[index];
+    }
+
+  };
+
+  public ConcurrentHBaseIndexStore(final HTablePool tablePool,
+      final Configuration configuration, final String indexName)
+      throws IOException {
+    final int numStripes = configuration.getInt(CONF_INDEX_STRIPES, Runtime
+        .getRuntime().availableProcessors());
+    if (numStripes <= 0) {
+      throw new IllegalArgumentException(CONF_INDEX_STRIPES
+          + " should be positive, but was " + numStripes);
+    }
+    final SegmentIdAllocator segmentIdAllocator = new SegmentIdAllocator(
+        tablePool, indexName, configuration.getInt(CONF_SEGMENT_ID_BLOCK_SIZE,
+            DEFAULT_SEGMENT_ID_BLOCK_SIZE));
+    this.stripes = new HBaseIndexStore[numStripes];
+    for (int i = 0; i < numStripes; ++i) {
+      this.stripes[i] = new HBaseIndexStore(tablePool, configuration,
+          indexName, segmentIdAllocator);
+    }
+    this.batchExecutor = Executors.newFixedThreadPool(Math.max(1,
+        numStripes - 1), new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ConcurrentHBaseIndexStore-batch-"
+            + indexName);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    LOG.info("ConcurrentHBaseIndexStore#Created " + numStripes
+        + " stripes for " + indexName);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.batchExecutor.shutdown();
+    IOException firstError = null;
+    for (final HBaseIndexStore stripe : this.stripes) {
+      try {
+        stripe.close();
+      } catch (IOException ex) {
+        LOG.error("Error closing the stripe of segment "
+            + stripe.getSegmentId(), ex);
+        if (firstError == null) {
+          firstError = ex;
+        }
+      }
+    }
+    if (firstError != null) {
+      throw firstError;
+    }
+  }
+
+  @Override
+  public void commit() throws IOException {
+    for (final HBaseIndexStore stripe : this.stripes) {
+      stripe.commit();
+    }
+  }
+
+  /**
+   * See {@link HBaseIndexStore#checkpoint()}.
+   */
+  public void checkpoint() throws IOException {
+    for (final HBaseIndexStore stripe : this.stripes) {
+      stripe.checkpoint();
+    }
+  }
+
+  @Override
+  public SegmentInfo indexDocument(final String key,
+      final DocumentIndexContext documentIndexContext) throws IOException {
+    this.deleteLock.readLock().lock();
+    try {
+      return this.currentStripe.get().indexDocument(key, documentIndexContext);
+    } finally {
+      this.deleteLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Split the batch across the stripes, and index the parts in parallel. The
+   * batches are usually handed over by a single thread ( see
+   * HBaseIndexWriter#addDocuments ), which pinned to a stripe would leave the
+   * other stripes idle.
+   */
+  @Override
+  public void indexDocuments(final String[] keys,
+      final DocumentIndexContext[] documentIndexContexts, final int count)
+      throws IOException {
+    this.deleteLock.readLock().lock();
+    try {
+      this.doIndexDocuments(keys, documentIndexContexts, count);
+    } finally {
+      this.deleteLock.readLock().unlock();
+    }
+  }
+
+  private void doIndexDocuments(final String[] keys,
+      final DocumentIndexContext[] documentIndexContexts, final int count)
+      throws IOException {
+    final int numParts = Math.min(this.stripes.length, count);
+    if (numParts <= 1) {
+      this.currentStripe.get().indexDocuments(keys, documentIndexContexts,
+          count);
+      return;
+    }
+    // the first stripe rotates, so that small batches spread as well.
+    final int first = this.nextStripe.getAndIncrement() & Integer.MAX_VALUE;
+    final List<Future<Void>> parts = new ArrayList<Future<Void>>(numParts - 1);
+    IOException firstError = null;
+    for (int part = 0; part < numParts; ++part) {
+      final int from = (int) ((long) count * part / numParts);
+      final int to = (int) ((long) count * (part + 1) / numParts);
+      final HBaseIndexStore stripe = this.stripes[(first + part)
+          % this.stripes.length];
+      final String[] partKeys = Arrays.copyOfRange(keys, from, to);
+      final DocumentIndexContext[] partContexts = Arrays.copyOfRange(
+          documentIndexContexts, from, to);
+      if (part < numParts - 1) {
+        parts.add(this.batchExecutor.submit(new Callable<Void>() {
+
+          @Override
+          public Void call() throws IOException {
+            stripe.indexDocuments(partKeys, partContexts, partKeys.length);
+            return null;
+          }
+        }));
+      } else {
+        try {
+          stripe.indexDocuments(partKeys, partContexts, partKeys.length);
+        } catch (IOException ex) {
+          firstError = ex;
+        }
+      }
+    }
+    // the contexts are reused by the caller, once the batch is indexed.
+    boolean interrupted = false;
+    for (final Future<Void> part : parts) {
+      while (true) {
+        try {
+          part.get();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          LOG.error("Error indexing a part of the batch", ex.getCause());
+          if (firstError == null) {
+            firstError = (ex.getCause() instanceof IOException) ? (IOException) ex
+                .getCause()
+                : new IOException("Error indexing the batch " + ex.getCause());
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      if (firstError == null) {
+        firstError = new InterruptedIOException(
+            "Interrupted while indexing the batch");
+      }
+    }
+    if (firstError != null) {
+      throw firstError;
+    }
+  }
+
+  /**
+   * Delete the documents of the given keys from the current segments of all
+   * the stripes, and then from the committed segments. No document is
+   * indexed until the delete is done.
+   */
+  @Override
+  public void deleteDocuments(final String... keys) throws IOException {
+    this.deleteLock.writeLock().lock();
+    try {
+      for (final HBaseIndexStore stripe : this.stripes) {
+        stripe.deleteBufferedDocuments(keys);
+      }
+      this.stripes[0].deleteCommittedDocuments(keys);
+    } finally {
+      this.deleteLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Number of stripes the documents are distributed across.
+   *
+   * @return
+   */
+  public int getNumStripes() {
+    return this.stripes.length;
+  }
+}
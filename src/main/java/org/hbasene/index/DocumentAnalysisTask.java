@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+
+import jsr166y.RecursiveAction;
+
+import org.apache.lucene.analysis.Analyzer;
+
+/**
+ * Analyzes a range of the documents of a batch, splitting the range across
+ * the fork-join pool.
+ */
+class DocumentAnalysisTask extends RecursiveAction {
+
+  /**
+   * Number of documents below which a range is analyzed by a single task.
+   */
+  static final int THRESHOLD = 8;
+
+  private final HBaseIndexWriter writer;
+
+  private final Analyzer analyzer;
+
+  private final HBaseIndexWriter.DocumentBatch batch;
+
+  private final int low;
+
+  private final int high;
+
+  DocumentAnalysisTask(final HBaseIndexWriter writer, final Analyzer analyzer,
+      final HBaseIndexWriter.DocumentBatch batch, final int low, final int high) {
+    this.writer = writer;
+    this.analyzer = analyzer;
+    this.batch = batch;
+    this.low = low;
+    this.high = high;
+  }
+
+  @Override
+  protected void compute() {
+    if ((high - low) <= THRESHOLD) {
+      for (int i = low; i < high; ++i) {
+        try {
+          this.writer.doAnalyze(this.batch, i, this.analyzer);
+        } catch (IOException ex) {
+          this.batch.error.compareAndSet(null, ex);
+          return;
+        } catch (RuntimeException ex) {
+          // reported by the writer, once the pending batch is stored.
+          this.batch.error.compareAndSet(null, new IOException(
+              "Error analyzing the document " + i + " of the batch", ex));
+          return;
+        }
+      }
+    } else {
+      int mid = (low + high) >>> 1;
+      invokeAll(new DocumentAnalysisTask(this.writer, this.analyzer,
+          this.batch, low, mid), new DocumentAnalysisTask(this.writer,
+          this.analyzer, this.batch, mid, high));
+    }
+  }
+}
@@ -20,22 +20,316 @@
  */
 package org.hbasene.index;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.search.Similarity;
 
 /**
  * Context needed for document indexing.
+ * <p>
+ * Terms are identified by their UTF-8 encoded keys ( field/term ), as
+ * interned by the writer. The positions of every term are kept in primitive
+ * arrays, with a term without any position ( an untokenized field ) having a
+ * frequency of 0.
+ * </p>
+ * A context may be reused across documents, see {@link #clear()}.
  */
 public class DocumentIndexContext {
 
-  final Map<String, List<Integer>> termPositionVectors;
+  private static final int INITIAL_TERMS = 16;
+
+  private static final int INITIAL_FIELDS = 4;
+
+  /**
+   * Keys ( field/term ) of the terms of the document.
+   */
+  byte[][] termKeys = new byte[INITIAL_TERMS][];
+
+  /**
+   * Hashes of {@link #termKeys}, see TermKeyArena#hash .
+   */
+  int[] termHashes = new int[INITIAL_TERMS];
+
+  /**
+   * Positions of the terms, with the first termFreqs[i] elements of
+   * termPositions[i] being valid.
+   */
+  int[][] termPositions = new int[INITIAL_TERMS][];
+
+  int[] termFreqs = new int[INITIAL_TERMS];
+
+  /**
+   * Payloads of the positions of the terms. The first termPayloadCounts[i]
+   * elements of termPayloadLengths[i] are the lengths of the payloads of the
+   * positions of the term, in order, with the payloads concatenated in the
+   * first termPayloadBytes[i] bytes of termPayloads[i]. Positions beyond
+   * termPayloadCounts[i] have no payload. The arrays are allocated the first
+   * time a term has a payload, and retained across the documents.
+   */
+  int[][] termPayloadLengths = new int[INITIAL_TERMS][];
+
+  byte[][] termPayloads = new byte[INITIAL_TERMS][];
+
+  int[] termPayloadCounts = new int[INITIAL_TERMS];
+
+  int[] termPayloadBytes = new int[INITIAL_TERMS];
+
+  int numTerms;
+
+  /**
+   * Open-addressing index of the terms by their hash, with every slot being
+   * the index of the term + 1, or 0 if empty.
+   */
+  private int[] termTable = new int[INITIAL_TERMS << 1];
 
   final Map<String, byte[]> storeFields;
 
+  /**
+   * Fields of the document stored with term vectors.
+   */
+  final Set<String> termVectorFields = new HashSet<String>();
+
+  /**
+   * Fields of the document indexed without the term frequencies and the
+   * positions.
+   */
+  final Set<String> omitPositionsFields = new HashSet<String>();
+
+  /**
+   * Indexed fields of the document with norms, along with the number of their
+   * tokens, their boosts and their encoded norms.
+   */
+  String[] normFields = new String[INITIAL_FIELDS];
+
+  int[] normLengths = new int[INITIAL_FIELDS];
+
+  float[] normBoosts = new float[INITIAL_FIELDS];
+
+  byte[] norms = new byte[INITIAL_FIELDS];
+
+  int numNorms;
+
+  public DocumentIndexContext() {
+    this(new HashMap<String, byte[]>());
+  }
+
+  DocumentIndexContext(final Map<String, byte[]> storeFields) {
+    this.storeFields = storeFields;
+  }
+
+  /**
+   * @param termPositionVectors
+   *          Term positions of every term ( field/term ), with a single
+   *          position of 0 for a term without any positions.
+   * @param storeFields
+   */
   public DocumentIndexContext(
       final Map<String, List<Integer>> termPositionVectors,
       final Map<String, byte[]> storeFields) {
-    this.termPositionVectors = termPositionVectors;
-    this.storeFields = storeFields;
+    this(storeFields);
+    for (final Map.Entry<String, List<Integer>> entry : termPositionVectors
+        .entrySet()) {
+      final byte[] key = Bytes.toBytes(entry.getKey());
+      final int term = this.addTerm(key, TermKeyArena.hash(key, 0,
+          key.length));
+      final List<Integer> positions = entry.getValue();
+      if (positions.size() == 1 && positions.get(0) == 0) {
+        continue;
+      }
+      for (final Integer position : positions) {
+        this.addPosition(term, position);
+      }
+    }
+  }
+
+  /**
+   * Add a term to the document, if not present already.
+   *
+   * @param key
+   *          Key of the term ( field/term ).
+   * @param hash
+   *          Hash of the key.
+   * @return index of the term in the document.
+   */
+  int addTerm(final byte[] key, final int hash) {
+    final int mask = this.termTable.length - 1;
+    int slot = hash & mask;
+    while (this.termTable[slot] != 0) {
+      final int term = this.termTable[slot] - 1;
+      final byte[] existing = this.termKeys[term];
+      if (this.termHashes[term] == hash
+          && (existing == key || Bytes.equals(existing, key))) {
+        return term;
+      }
+      slot = (slot + 1) & mask;
+    }
+    final int term = this.numTerms++;
+    if (term == this.termKeys.length) {
+      final int capacity = term << 1;
+      this.termKeys = Arrays.copyOf(this.termKeys, capacity);
+      this.termHashes = Arrays.copyOf(this.termHashes, capacity);
+      this.termPositions = Arrays.copyOf(this.termPositions, capacity);
+      this.termFreqs = Arrays.copyOf(this.termFreqs, capacity);
+      this.termPayloadLengths = Arrays.copyOf(this.termPayloadLengths,
+          capacity);
+      this.termPayloads = Arrays.copyOf(this.termPayloads, capacity);
+      this.termPayloadCounts = Arrays.copyOf(this.termPayloadCounts, capacity);
+      this.termPayloadBytes = Arrays.copyOf(this.termPayloadBytes, capacity);
+    }
+    this.termKeys[term] = key;
+    this.termHashes[term] = hash;
+    this.termFreqs[term] = 0;
+    this.termPayloadCounts[term] = 0;
+    this.termPayloadBytes[term] = 0;
+    this.termTable[slot] = term + 1;
+    if (this.numTerms > (this.termTable.length >> 1)) {
+      this.rehash();
+    }
+    return term;
+  }
+
+  /**
+   * Add a position of the given term.
+   *
+   * @param term
+   *          As returned by {@link #addTerm(byte[], int)}.
+   * @param position
+   */
+  void addPosition(final int term, final int position) {
+    int[] positions = this.termPositions[term];
+    final int freq = this.termFreqs[term];
+    if (positions == null) {
+      positions = new int[4];
+      this.termPositions[term] = positions;
+    } else if (freq == positions.length) {
+      positions = Arrays.copyOf(positions, freq << 1);
+      this.termPositions[term] = positions;
+    }
+    positions[freq] = position;
+    this.termFreqs[term] = freq + 1;
+  }
+
+  /**
+   * Add the payload of the last position of the given term, see
+   * {@link #addPosition(int, int)}.
+   *
+   * @param term
+   * @param payload
+   * @param offset
+   * @param length
+   *          Length of the payload, positive.
+   */
+  void addPayload(final int term, final byte[] payload, final int offset,
+      final int length) {
+    final int freq = this.termFreqs[term];
+    int[] lengths = this.termPayloadLengths[term];
+    if (lengths == null || lengths.length < freq) {
+      lengths = lengths == null ? new int[Math.max(4, freq)] : Arrays.copyOf(
+          lengths, Math.max(freq, lengths.length << 1));
+      this.termPayloadLengths[term] = lengths;
+    }
+    // positions without a payload, since the last payload.
+    Arrays.fill(lengths, this.termPayloadCounts[term], freq - 1, 0);
+    lengths[freq - 1] = length;
+    this.termPayloadCounts[term] = freq;
+
+    final int bytes = this.termPayloadBytes[term];
+    byte[] payloads = this.termPayloads[term];
+    if (payloads == null || payloads.length < bytes + length) {
+      payloads = payloads == null ? new byte[Math.max(16, length)] : Arrays
+          .copyOf(payloads, Math.max(bytes + length, payloads.length << 1));
+      this.termPayloads[term] = payloads;
+    }
+    System.arraycopy(payload, offset, payloads, bytes, length);
+    this.termPayloadBytes[term] = bytes + length;
+  }
+
+  /**
+   * Account the tokens of an instance of the given field, for its norm. The
+   * lengths of multiple instances of the same field add up and their boosts
+   * multiply.
+   *
+   * @param field
+   * @param length
+   *          Number of tokens of the instance.
+   * @param boost
+   */
+  void addFieldLength(final String field, final int length, final float boost) {
+    for (int i = 0; i < this.numNorms; ++i) {
+      if (this.normFields[i].equals(field)) {
+        this.normLengths[i] += length;
+        this.normBoosts[i] *= boost;
+        return;
+      }
+    }
+    if (this.numNorms == this.normFields.length) {
+      final int capacity = this.numNorms << 1;
+      this.normFields = Arrays.copyOf(this.normFields, capacity);
+      this.normLengths = Arrays.copyOf(this.normLengths, capacity);
+      this.normBoosts = Arrays.copyOf(this.normBoosts, capacity);
+      this.norms = Arrays.copyOf(this.norms, capacity);
+    }
+    this.normFields[this.numNorms] = field;
+    this.normLengths[this.numNorms] = length;
+    this.normBoosts[this.numNorms] = boost;
+    this.numNorms++;
+  }
+
+  /**
+   * Encode the norms of the fields, once all the fields are accounted.
+   *
+   * @param similarity
+   * @param documentBoost
+   */
+  void computeNorms(final Similarity similarity, final float documentBoost) {
+    for (int i = 0; i < this.numNorms; ++i) {
+      this.norms[i] = Similarity.encodeNorm(documentBoost * this.normBoosts[i]
+          * similarity.lengthNorm(this.normFields[i], this.normLengths[i]));
+    }
+  }
+
+  /**
+   * Clear the context, to be reused for another document. The arrays are
+   * retained, along with their capacity.
+   */
+  public void clear() {
+    if (this.numTerms > 0) {
+      Arrays.fill(this.termTable, 0);
+      this.numTerms = 0;
+    }
+    if (this.numNorms > 0) {
+      Arrays.fill(this.normFields, 0, this.numNorms, null);
+      this.numNorms = 0;
+    }
+    this.storeFields.clear();
+    this.termVectorFields.clear();
+    this.omitPositionsFields.clear();
+  }
+
+  /**
+   * Number of unique terms in the document.
+   *
+   * @return
+   */
+  public int getNumTerms() {
+    return this.numTerms;
+  }
+
+  private void rehash() {
+    this.termTable = new int[this.termTable.length << 1];
+    final int mask = this.termTable.length - 1;
+    for (int term = 0; term < this.numTerms; ++term) {
+      int slot = this.termHashes[term] & mask;
+      while (this.termTable[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      this.termTable[slot] = term + 1;
+    }
   }
 }
@@ -24,11 +24,13 @@ package org.hbasene.index;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTablePool;
@@ -37,6 +39,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
@@ -46,6 +49,8 @@ import org.apache.lucene.index.TermFreqVector;
 import org.apache.lucene.index.TermPositions;
 import org.apache.lucene.index.TermVectorMapper;
 import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.util.OpenBitSet;
+import org.hbasene.index.util.HBaseneUtil;
 
 /**
  * Index Reader specific to HBase
@@ -53,8 +58,6 @@ import org.apache.lucene.search.DefaultSimilarity;
  */
 public class HBaseIndexReader extends IndexReader {
 
-  private static final Log LOG = LogFactory.getLog(HBaseIndexReader.class);
-
   /**
    * The indexName represents the tableName as well.
    */
@@ -72,16 +75,43 @@ public class HBaseIndexReader extends IndexReader {
   static final byte DEFAULT_NORM = DefaultSimilarity.encodeNorm(1.0f);
 
   /**
-   * Encoder of termPositions
+   * Encoder of the term positions of the segments written before the formats
+   * were recorded. Other segments are decoded by the encoders of the formats
+   * recorded with them, see HBaseSegmentInfos#getPositionsFormat .
    */
-  private final AbstractTermPositionsEncoder termPositionEncoder = new AlphaTermPositionsEncoder();
-  //TODO: Use HBaseIndexStore to do this 
+  private final AbstractTermPositionsEncoder termPositionEncoder = AbstractTermPositionsEncoder
+      .forFormat(AbstractTermPositionsEncoder.FORMAT_ALPHA);
   
   /**
-   * Primary Key Field
+   * Segments committed at the time the reader was opened. Segments committed
+   * later are not visible to the reader.
    */
-  private final byte[] primaryKeyField;
-  
+  private final HBaseSegmentInfos segmentInfos;
+
+  /**
+   * Deleted documents, loaded at the time the reader was opened, along with
+   * the documents deleted through the reader.
+   */
+  private final OpenBitSet deletedDocs;
+
+  private int numDeletedDocs;
+
+  /**
+   * Fields indexed without the term frequencies and the positions, see
+   * HBaseneConstants#ROW_FIELD_INFOS .
+   */
+  private final Set<String> omitPositionsFields;
+
+  /**
+   * Norms of the fields, read the first time they are asked for and shared
+   * by the searches thereafter.
+   */
+  private final Map<String, byte[]> normsCache = new ConcurrentHashMap<String, byte[]>();
+
+  /**
+   * Norms of the fields without any norms, created on demand.
+   */
+  private byte[] defaultNorms;
   
   /**
    * 
@@ -89,11 +119,23 @@ public class HBaseIndexReader extends IndexReader {
    *    TablePool to be used by the index reader
    * @param indexName
    *    Name of the index to be read from.  
+   * @param primaryKeyField
+   *    Not used, the stored fields of a document include its primary key.
+   * @throws IOException
    */
-  public HBaseIndexReader(final HTablePool tablePool, final String indexName, final String primaryKeyField) {
+  public HBaseIndexReader(final HTablePool tablePool, final String indexName,
+      final String primaryKeyField) throws IOException {
     this.tablePool = tablePool;
     this.indexName = indexName;
-    this.primaryKeyField = Bytes.toBytes(primaryKeyField);
+    HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      this.segmentInfos = HBaseSegmentInfos.read(table);
+      this.deletedDocs = readDeletions(table, this.segmentInfos);
+      this.numDeletedDocs = (int) this.deletedDocs.cardinality();
+      this.omitPositionsFields = readOmitPositionsFields(table);
+    } finally {
+      this.tablePool.putTable(table);
+    }
   }
 
   @Override
@@ -114,8 +156,22 @@ public class HBaseIndexReader extends IndexReader {
 
   @Override
   protected void doDelete(int docNum) throws CorruptIndexException, IOException {
-    // TODO Auto-generated method stub
-
+    if (this.deletedDocs.get(docNum)) {
+      return;
+    }
+    final int segment = this.segmentInfos.segmentOf(docNum);
+    final int documentId = docNum - this.segmentInfos.getDocBase(segment);
+    final OpenBitSet deletions = new OpenBitSet(documentId + 1);
+    deletions.set(documentId);
+    HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      HBaseIndexStore.mergeDeletions(table, this.segmentInfos
+          .getSegmentId(segment), deletions);
+    } finally {
+      this.tablePool.putTable(table);
+    }
+    this.deletedDocs.set(docNum);
+    ++this.numDeletedDocs;
   }
 
   @Override
@@ -127,142 +183,276 @@ public class HBaseIndexReader extends IndexReader {
 
   @Override
   protected void doUndeleteAll() throws CorruptIndexException, IOException {
-    // TODO Auto-generated method stub
-
+    // Only the segments of the reader, the segments committed since keep
+    // their deletions.
+    HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      for (int i = 0; i < this.segmentInfos.size(); ++i) {
+        HBaseIndexStore.clearDeletions(table, this.segmentInfos
+            .getSegmentId(i));
+      }
+    } finally {
+      this.tablePool.putTable(table);
+    }
+    this.deletedDocs.clear(0, this.deletedDocs.size());
+    this.numDeletedDocs = 0;
   }
 
   @Override
   public int docFreq(Term t) throws IOException {
-    // same as in TermEnum. Avoid duplication.
-    final String rowKey = t.field() + "/" + t.text();
-    Get get = new Get(Bytes.toBytes(rowKey));
-    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
     HTable table = this.getTablePool().getTable(this.indexName);
     try {
-      Result result = table.get(get);
-      if (result == null) {
-        return 0;
-      }
-      NavigableMap<byte[], byte[]> map = result
-          .getFamilyMap(HBaseneConstants.FAMILY_TERMVECTOR);
-      if (map == null) {
-        return 0;
-      }
-      return map.size();
+      return docFreq(table, this.segmentInfos, t);
     } finally {
       this.getTablePool().putTable(table);
     }
   }
 
+  /**
+   * Number of the documents containing the term, summed over its docsets in
+   * the given segments. Shared with HBaseTermEnum.
+   */
+  static int docFreq(final HTable table, final HBaseSegmentInfos segmentInfos,
+      final Term t) throws IOException {
+    Get get = new Get(Bytes.toBytes(t.field() + "/" + t.text()));
+    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
+    final KeyValue[] kvs = table.get(get).raw();
+    if (kvs == null) {
+      return 0;
+    }
+    int docFreq = 0;
+    for (final KeyValue kv : kvs) {
+      if (segmentInfos.indexOf(Bytes.toLong(kv.getBuffer(), kv
+          .getQualifierOffset())) >= 0) {
+        docFreq += HBaseneUtil.numDocs(kv.getBuffer(), kv.getValueOffset(), kv
+            .getValueLength());
+      }
+    }
+    return docFreq;
+  }
+
+  /**
+   * Retrieve the stored fields of the document, with a single Get of the row
+   * of the document. Both the packed ( see
+   * HBaseneConstants#QUALIFIER_PACKED_FIELDS ) and the cell-per-field
+   * formats are read.
+   */
   @Override
   public Document document(int n, FieldSelector fieldSelector)
       throws CorruptIndexException, IOException {
-    final long index = (long) n; // internally, all row keys are long.
-    Document doc = null;
-    HTable table = this.getTablePool().getTable(this.indexName);
-    try {
-      Get get = new Get(Bytes.toBytes(index));
-      get.addColumn(HBaseneConstants.FAMILY_FIELDS,
-          this.primaryKeyField);
-      doc = new Document();
-
-      Result result = table.get(get);
-      byte[] docId = result.getValue(HBaseneConstants.FAMILY_FIELDS,
-          this.primaryKeyField);
-      // TODO: Get the document schema, for the given document.
-      // Change the HBaseIndexWriter appropriately to enable easy
-      // reconstruction.
-
-      // For now, only the id is available for assertion back.
-      doc.add(new Field("id", Bytes.toString(docId), Field.Store.YES,
-          Field.Index.NO));
-
-    } finally {
-      this.getTablePool().putTable(table);
+    Get get = new Get(this.getDocumentRow(n));
+    get.addFamily(HBaseneConstants.FAMILY_FIELDS);
+    final Result result = this.getRow(get);
+    final Document doc = new Document();
+    final NavigableMap<byte[], byte[]> map = result
+        .getFamilyMap(HBaseneConstants.FAMILY_FIELDS);
+    if (map == null) {
+      return doc;
+    }
+    for (final Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+      if (Bytes.equals(entry.getKey(),
+          HBaseneConstants.QUALIFIER_PACKED_FIELDS)) {
+        for (final Map.Entry<String, byte[]> field : StoredFieldsRecord
+            .decode(entry.getValue()).entrySet()) {
+          addField(doc, field.getKey(), field.getValue(), fieldSelector);
+        }
+      } else {
+        addField(doc, Bytes.toString(entry.getKey()), entry.getValue(),
+            fieldSelector);
+      }
     }
     return doc;
   }
 
+  /**
+   * Add the stored field to the document, unless rejected by the selector.
+   * 
+   * @param value
+   *          Value of the field, following the binary / text flag.
+   */
+  private static void addField(final Document doc, final String name,
+      final byte[] value, final FieldSelector fieldSelector) {
+    if (fieldSelector != null
+        && fieldSelector.accept(name) == FieldSelectorResult.NO_LOAD) {
+      return;
+    }
+    final int offset = Bytes.SIZEOF_INT;
+    if (Bytes.toInt(value, 0) == 'B') {
+      doc.add(new Field(name, Arrays.copyOfRange(value, offset, value.length),
+          Field.Store.YES));
+    } else {
+      doc.add(new Field(name, Bytes.toString(value, offset, value.length
+          - offset), Field.Store.YES, Field.Index.NO));
+    }
+  }
+
   @Override
   public Collection<String> getFieldNames(FieldOption fldOption) {
     return Arrays.asList(new String[] {});
   }
 
+  /**
+   * Term vector of the field of the document, read from the forward index (
+   * see HBaseneConstants#FAMILY_FORWARD ), with a single Get. null, if the
+   * field is not stored with term vectors.
+   */
   @Override
   public TermFreqVector getTermFreqVector(int docNumber, String field)
       throws IOException {
-
-    return null;
+    Get get = new Get(this.getDocumentRow(docNumber));
+    get.addColumn(HBaseneConstants.FAMILY_FORWARD, Bytes.toBytes(field));
+    final byte[] value = this.getRow(get).getValue(
+        HBaseneConstants.FAMILY_FORWARD, Bytes.toBytes(field));
+    return value != null ? new HBaseTermFreqVector(field, value) : null;
   }
 
   @Override
   public void getTermFreqVector(int docNumber, TermVectorMapper mapper)
       throws IOException {
-    // TODO Auto-generated method stub
-
+    final TermFreqVector[] vectors = this.getTermFreqVectors(docNumber);
+    if (vectors != null) {
+      for (final TermFreqVector vector : vectors) {
+        mapTermFreqVector(vector, mapper);
+      }
+    }
   }
 
   @Override
   public void getTermFreqVector(int docNumber, String field,
       TermVectorMapper mapper) throws IOException {
-    // TODO Auto-generated method stub
-
+    final TermFreqVector vector = this.getTermFreqVector(docNumber, field);
+    if (vector != null) {
+      mapTermFreqVector(vector, mapper);
+    }
   }
 
+  /**
+   * Term vectors of all the fields of the document stored with term vectors,
+   * with a single Get. null, if none.
+   */
   @Override
   public TermFreqVector[] getTermFreqVectors(int docNumber) throws IOException {
-    // TODO Auto-generated method stub
-    return null;
+    Get get = new Get(this.getDocumentRow(docNumber));
+    get.addFamily(HBaseneConstants.FAMILY_FORWARD);
+    final NavigableMap<byte[], byte[]> map = this.getRow(get).getFamilyMap(
+        HBaseneConstants.FAMILY_FORWARD);
+    if (map == null || map.isEmpty()) {
+      return null;
+    }
+    final TermFreqVector[] vectors = new TermFreqVector[map.size()];
+    int i = 0;
+    for (final Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+      vectors[i++] = new HBaseTermFreqVector(Bytes.toString(entry.getKey()),
+          entry.getValue());
+    }
+    return vectors;
+  }
+
+  private static void mapTermFreqVector(final TermFreqVector vector,
+      final TermVectorMapper mapper) {
+    final String[] terms = vector.getTerms();
+    final int[] termFreqs = vector.getTermFrequencies();
+    mapper.setExpectations(vector.getField(), terms.length, false, false);
+    for (int i = 0; i < terms.length; ++i) {
+      mapper.map(terms[i], termFreqs[i], null, null);
+    }
+  }
+
+  /**
+   * Row of the stored fields ( and the term vectors ) of the document.
+   */
+  private byte[] getDocumentRow(final int n) {
+    final int segment = this.segmentInfos.segmentOf(n);
+    return HBaseIndexStore.getDocumentRow(this.segmentInfos
+        .getSegmentId(segment), n - this.segmentInfos.getDocBase(segment));
+  }
+
+  private Result getRow(final Get get) throws IOException {
+    HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      return table.get(get);
+    } finally {
+      this.tablePool.putTable(table);
+    }
   }
 
   @Override
   public boolean hasDeletions() {
-    // TODO Auto-generated method stub
-    return false;
+    return this.numDeletedDocs > 0;
   }
 
   @Override
   public boolean isDeleted(int n) {
-    // TODO Auto-generated method stub
-    return false;
+    return this.deletedDocs.get(n);
   }
 
   @Override
   public int maxDoc() {
-    return this.numDocs() + 1;
+    return this.segmentInfos.maxDoc();
   }
 
+  /**
+   * Norms of the field, as computed by the writer. A field without norms (
+   * omitted, or not indexed ) has the default norm for all the documents.
+   * The returned array is shared and must not be modified.
+   */
   @Override
   public byte[] norms(String field) throws IOException {
-    byte[] result = new byte[this.maxDoc()];
-    Arrays.fill(result, DEFAULT_NORM);
-    return result;
+    byte[] norms = this.normsCache.get(field);
+    if (norms == null) {
+      synchronized (this.normsCache) {
+        norms = this.normsCache.get(field);
+        if (norms == null) {
+          norms = this.readNorms(field);
+          this.normsCache.put(field, norms);
+        }
+      }
+    }
+    return norms;
   }
 
   @Override
   public void norms(String field, byte[] bytes, int offset) throws IOException {
-    // TODO Auto-generated method stub
-
+    System.arraycopy(this.norms(field), 0, bytes, offset, this.maxDoc());
   }
 
-  @Override
-  public int numDocs() {
-    HTable table = this.getTablePool().getTable(this.indexName);
-    int numDocs = 0;
+  /**
+   * Read the norms of the field, of all the segments, with a single Get.
+   */
+  private byte[] readNorms(final String field) throws IOException {
+    Get get = new Get(Bytes.toBytes(field));
+    get.addFamily(HBaseneConstants.FAMILY_NORMS);
+    NavigableMap<byte[], byte[]> map;
+    HTable table = this.tablePool.getTable(this.indexName);
     try {
-      Get get = new Get(HBaseneConstants.ROW_SEQUENCE_ID);
-      get.addColumn(HBaseneConstants.FAMILY_SEQUENCE,
-          HBaseneConstants.QUALIFIER_SEQUENCE);
-      Result result = table.get(get);
-      numDocs = (int) Bytes.toLong(result
-          .getValue(HBaseneConstants.FAMILY_SEQUENCE,
-              HBaseneConstants.QUALIFIER_SEQUENCE));
-    } catch (IOException e) {
-      LOG.warn("Error in numDocs() ", e);
+      map = table.get(get).getFamilyMap(HBaseneConstants.FAMILY_NORMS);
     } finally {
-      this.getTablePool().putTable(table);
+      this.tablePool.putTable(table);
+    }
+    if (map == null || map.isEmpty()) {
+      if (this.defaultNorms == null) {
+        this.defaultNorms = new byte[this.maxDoc()];
+        Arrays.fill(this.defaultNorms, DEFAULT_NORM);
+      }
+      return this.defaultNorms;
+    }
+    final byte[] norms = new byte[this.maxDoc()];
+    Arrays.fill(norms, DEFAULT_NORM);
+    for (final Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+      final int segment = this.segmentInfos.indexOf(Bytes.toLong(entry
+          .getKey()));
+      if (segment >= 0) {
+        System.arraycopy(entry.getValue(), 0, norms, this.segmentInfos
+            .getDocBase(segment), Math.min(entry.getValue().length,
+            this.segmentInfos.getNumDocs(segment)));
+      }
     }
-    return numDocs;
+    return norms;
+  }
+
+  @Override
+  public int numDocs() {
+    return this.maxDoc() - this.numDeletedDocs;
   }
 
   @Override
@@ -298,6 +488,79 @@ public class HBaseIndexReader extends IndexReader {
     return this.tablePool;
   }
 
+  /**
+   * Segments visible to the reader.
+   * 
+   * @return
+   */
+  public HBaseSegmentInfos getSegmentInfos() {
+    return this.segmentInfos;
+  }
+
+  /**
+   * Deleted documents of the reader, by their ids in the reader.
+   * 
+   * @return
+   */
+  public OpenBitSet getDeletedDocs() {
+    return this.deletedDocs;
+  }
+
+  /**
+   * Whether the field is indexed without the term frequencies and the
+   * positions, in which case every document of a term has a frequency of 1.
+   * 
+   * @param field
+   * @return
+   */
+  public boolean omitsTermFreqAndPositions(final String field) {
+    return this.omitPositionsFields.contains(field);
+  }
+
+  static Set<String> readOmitPositionsFields(final HTable table)
+      throws IOException {
+    final Set<String> fields = new HashSet<String>();
+    Get get = new Get(HBaseneConstants.ROW_FIELD_INFOS);
+    get.addFamily(HBaseneConstants.FAMILY_SEQUENCE);
+    final NavigableMap<byte[], byte[]> map = table.get(get).getFamilyMap(
+        HBaseneConstants.FAMILY_SEQUENCE);
+    if (map != null) {
+      for (final Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+        if ((entry.getValue()[0] & HBaseneConstants.FIELD_OMIT_TERM_FREQ_AND_POSITIONS) != 0) {
+          fields.add(Bytes.toString(entry.getKey()));
+        }
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Read the deletions of the given segments, into a bitset of the documents
+   * of the reader.
+   */
+  static OpenBitSet readDeletions(final HTable table,
+      final HBaseSegmentInfos segmentInfos) throws IOException {
+    final OpenBitSet deletedDocs = new OpenBitSet(segmentInfos.maxDoc());
+    Get get = new Get(HBaseneConstants.ROW_DELETIONS);
+    get.addFamily(HBaseneConstants.FAMILY_SEQUENCE);
+    final KeyValue[] kvs = table.get(get).raw();
+    if (kvs == null) {
+      return deletedDocs;
+    }
+    // the words of the deletions are read in place, out of the KeyValues.
+    for (final KeyValue kv : kvs) {
+      final int segment = segmentInfos.indexOf(Bytes.toLong(kv.getBuffer(), kv
+          .getQualifierOffset()));
+      if (segment < 0) {
+        continue;
+      }
+      HBaseneUtil.orInto(kv.getBuffer(), kv.getValueOffset(), kv
+          .getValueLength(), deletedDocs, segmentInfos.getDocBase(segment),
+          segmentInfos.getNumDocs(segment));
+    }
+    return deletedDocs;
+  }
+
   /**
    * Return the index Name of the given table.
    * 
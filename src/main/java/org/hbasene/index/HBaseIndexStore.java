@@ -21,18 +21,29 @@
 package org.hbasene.index;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTablePool;
@@ -40,16 +51,35 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.hfile.Compression.Algorithm;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.lucene.util.OpenBitSet;
+import org.hbasene.index.util.AbstractDocSetCodec;
 import org.hbasene.index.util.HBaseneUtil;
 
-import com.google.common.collect.Maps;
-
 /**
  * An index formed on-top of HBase.
  * <p>
  * Important:
  * </p>
- * This class is not thread-safe.
+ * This class is not thread-safe. All the public operations are serialized on
+ * the instance. For concurrent ingestion, refer to
+ * {@link ConcurrentHBaseIndexStore} that stripes documents across multiple
+ * instances of this store.
+ * 
+ * A segment is full, once it holds HBaseneConstants#CONF_AUTOCOMMIT_MAXDOCS
+ * documents or its estimated heap reaches
+ * HBaseneConstants#CONF_RAM_BUFFER_SIZE_MB, whichever is earlier.
+ * Segments are committed in the background. Once a segment is full, it is
+ * handed over to a flusher thread, while a fresh segment continues to accept
+ * documents. Errors during the flush are reported on the subsequent
+ * operation on the store.
+ * 
+ * Documents are deleted by their keys, see {@link #deleteDocuments(String...)}.
+ * The deleted documents are recorded as a bitset per segment, in the row
+ * HBaseneConstants#ROW_DELETIONS .
+ * 
+ * The WAL may be turned off per family, for the data that can be rebuilt,
+ * see HBaseneConstants#CONF_WAL_TERMVECTOR and the like. The segments at
+ * risk are then tracked in a {@link CheckpointLog}, if
+ * HBaseneConstants#CONF_CHECKPOINT_DIR is set.
  * 
  * To create a HBase Table, specific to the index schema, refer to
  * {@link #createLuceneIndexTable(String, HBaseConfiguration, boolean)} .
@@ -60,70 +90,279 @@ public class HBaseIndexStore extends AbstractIndexStore implements
   private static final Log LOG = LogFactory.getLog(HBaseIndexStore.class);
 
   /**
-   * Key -> fieldTerm . 
-   * Value -> OpenBitSet for densely populated bitsets,
-   *        List<Integer> for sparsely populated bitsets.
+   * Prefix of the rows of term frequencies, TERM_FREQ_PREFIX + "/" .
    */
-  private final Map<String, Object> termVector = new HashMap<String, Object>();
+  static final byte[] TERM_FREQ_PREFIX_BYTES = Bytes.toBytes(TERM_FREQ_PREFIX
+      + "/");
 
-  
   /**
-   * Key -> fieldTerm + segmentId
-   * Value ->  {  docId, List of Term Frequencies } tuples. 
+   * Number of the documents of a block of term positions between two skip
+   * entries. See HBaseneConstants#FAMILY_TERMFREQUENCIES .
    */
-  private final Map<String, Map<Integer, List<Integer>>> termFrequencies = new HashMap<String, Map<Integer, List<Integer>>>();
+  static final int POSITIONS_SKIP_INTERVAL = 16;
 
-  
-  private long segmentId = 0;
+  /**
+   * Flag set in the number of the documents of a block of term positions
+   * followed by skip entries.
+   */
+  static final int POSITIONS_SKIP_FLAG = 0x80000000;
+
+  /**
+   * Segment currently accepting the documents.
+   */
+  private SegmentBuffer currentSegment;
+
+  /**
+   * Buffers of the segments flushed already, available for re-use.
+   */
+  private final BlockingQueue<SegmentBuffer> freeSegments = new LinkedBlockingQueue<SegmentBuffer>();
+
+  /**
+   * Bounds the number of segments handed over to the flusher, but not flushed
+   * yet. See HBaseneConstants#CONF_MAX_SEGMENTS_IN_FLIGHT .
+   */
+  private final Semaphore segmentsInFlight;
+
+  private final int maxSegmentsInFlight;
+
+  /**
+   * Commits the segments in the background, in the order they were handed
+   * over.
+   */
+  private final ExecutorService flusher;
 
-  private int documentId = -1;
+  /**
+   * First error encountered by the flusher, reported back to the indexing
+   * thread.
+   */
+  private final AtomicReference<IOException> flushError = new AtomicReference<IOException>();
 
   /**
    * See HBaseneConstants#CONF_AUTOCOMMIT_MAXDOCS .
    */
   private final int maxCommitDocs;
 
+  /**
+   * See HBaseneConstants#CONF_RAM_BUFFER_SIZE_MB .
+   */
+  private final long maxRamBytes;
+
   private final int arrayThreshold;
 
-  
+
+  /**
+   * Allocator of the segment ids, possibly shared with other stores of the
+   * index.
+   */
+  private final SegmentIdAllocator segmentIdAllocator;
+
+  private final HTablePool tablePool;
+
+  private final String indexName;
+
+  /**
+   * Encoder of termPositions, recorded with every segment for the readers.
+   * See HBaseneConstants#CONF_POSITIONS_ENCODING .
+   */
+  private final AbstractTermPositionsEncoder termPositionEncoder;
+
+  /**
+   * Encoders of the term positions of the fields configured with an encoding
+   * of their own, recorded with every segment as well.
+   */
+  private final Map<String, AbstractTermPositionsEncoder> fieldPositionEncoders = new HashMap<String, AbstractTermPositionsEncoder>();
+
   /**
-   * For maximum throughput, use a single table, since the .META. of the term
-   * vector is cached in the table as we continue to add more information about
-   * the terms to the table.
+   * Codec of the docsets. See HBaseneConstants#CONF_DOCSET_CODEC .
    */
-  private final HTable table;
+  private final AbstractDocSetCodec docSetCodec;
+
+  /**
+   * Codecs of the docsets of the fields configured with a codec of their own.
+   */
+  private final Map<String, AbstractDocSetCodec> fieldDocSetCodecs = new HashMap<String, AbstractDocSetCodec>();
+
+  // Durability of the families. See HBaseneConstants#CONF_WAL_TERMVECTOR .
+
+  private final boolean walTermVector;
+
+  private final boolean walTermFrequencies;
+
+  private final boolean walFields;
+
+  private final boolean walDocToInt;
 
   /**
-   * Encoder of termPositions
+   * Packs the stored fields of a document into a single cell, null if the
+   * fields are stored a cell per field. See
+   * HBaseneConstants#CONF_PACKED_FIELDS .
    */
-  // TODO: Better encoding rather than the integer form is needed.
-  // Use OpenBitSet preferably again, for term frequencies
-  private final AbstractTermPositionsEncoder termPositionEncoder = new AlphaTermPositionsEncoder();
+  private final StoredFieldsRecord packedFields;
+
+  /**
+   * Flushes the Puts of the segments, in parallel across the regions. null,
+   * if the store writes no table ( see HFileIndexStore ).
+   */
+  private final RegionBatchFlusher regionFlusher;
+
+  /**
+   * Log of the segments handed over and committed, null if not enabled.
+   */
+  private final CheckpointLog checkpointLog;
+
+  /**
+   * Terms of the document bucketed by the term vector field, and the field
+   * of every term, reused across the documents. See
+   * {@link #doStoreTermVectors(SegmentBuffer, byte[], DocumentIndexContext)}.
+   */
+  private int[] termVectorTerms = new int[64];
+
+  private int[] termVectorFieldOf = new int[64];
 
   public HBaseIndexStore(final HTablePool tablePool,
       final Configuration configuration, final String indexName)
       throws IOException {
-    this.table = tablePool.getTable(indexName);
+    this(tablePool, configuration, indexName, new SegmentIdAllocator(
+        tablePool, indexName, configuration.getInt(CONF_SEGMENT_ID_BLOCK_SIZE,
+            DEFAULT_SEGMENT_ID_BLOCK_SIZE)));
+  }
+
+  /**
+   * Create a store with the ids of its segments allocated by the given
+   * allocator.
+   * 
+   * @param tablePool
+   * @param configuration
+   * @param indexName
+   * @param segmentIdAllocator
+   * @throws IOException
+   */
+  public HBaseIndexStore(final HTablePool tablePool,
+      final Configuration configuration, final String indexName,
+      final SegmentIdAllocator segmentIdAllocator) throws IOException {
+    this.tablePool = tablePool;
+    this.indexName = indexName;
+    this.segmentIdAllocator = segmentIdAllocator;
 
-    this.doIncrementSegmentId();
     this.maxCommitDocs = configuration.getInt(CONF_AUTOCOMMIT_MAXDOCS, 1000);
-    this.arrayThreshold = OpenBitSet.bits2words(maxCommitDocs);
+    this.maxRamBytes = (long) (configuration.getFloat(CONF_RAM_BUFFER_SIZE_MB,
+        DEFAULT_RAM_BUFFER_SIZE_MB) * 1024 * 1024);
+    this.arrayThreshold = configuration.getInt(
+        HBaseneConfiguration.CONF_TERM_VECTOR_LIST_THRESHOLD, OpenBitSet
+            .bits2words(Math.min(maxCommitDocs, 1000)));
+    this.maxSegmentsInFlight = configuration.getInt(
+        CONF_MAX_SEGMENTS_IN_FLIGHT, 2);
+    this.segmentsInFlight = new Semaphore(this.maxSegmentsInFlight);
+    this.walTermVector = configuration.getBoolean(CONF_WAL_TERMVECTOR, true);
+    this.walTermFrequencies = configuration.getBoolean(
+        CONF_WAL_TERMFREQUENCIES, true);
+    this.walFields = configuration.getBoolean(CONF_WAL_FIELDS, true);
+    this.walDocToInt = configuration.getBoolean(CONF_WAL_DOC_TO_INT, true);
+    this.termPositionEncoder = AbstractTermPositionsEncoder
+        .forName(configuration.get(CONF_POSITIONS_ENCODING, "vint"));
+    this.docSetCodec = AbstractDocSetCodec.forName(configuration.get(
+        CONF_DOCSET_CODEC, "smallest"));
+    final String positionsPrefix = CONF_POSITIONS_ENCODING + ".";
+    final String docSetPrefix = CONF_DOCSET_CODEC + ".";
+    for (final Map.Entry<String, String> entry : configuration) {
+      final String key = entry.getKey();
+      if (key.startsWith(positionsPrefix)) {
+        this.fieldPositionEncoders.put(key.substring(positionsPrefix
+            .length()), AbstractTermPositionsEncoder.forName(entry.getValue()));
+      } else if (key.startsWith(docSetPrefix)) {
+        this.fieldDocSetCodecs.put(key.substring(docSetPrefix.length()),
+            AbstractDocSetCodec.forName(entry.getValue()));
+      }
+    }
+    if (configuration.getBoolean(CONF_PACKED_FIELDS, false)) {
+      this.packedFields = new StoredFieldsRecord(configuration.getBoolean(
+          CONF_PACKED_FIELDS_COMPRESS, false));
+    } else {
+      this.packedFields = null;
+    }
+    if (tablePool != null) {
+      this.regionFlusher = new RegionBatchFlusher(tablePool, indexName,
+          configuration.getInt(CONF_FLUSH_THREADS, 4), configuration.getLong(
+              "hbase.client.write.buffer", 2 * 1024 * 1024), configuration
+              .getLong(CONF_FLUSH_BATCH_MILLIS, 500));
+    } else {
+      this.regionFlusher = null;
+    }
+    final String checkpointDir = configuration.get(CONF_CHECKPOINT_DIR);
+    if (checkpointDir != null) {
+      final Path checkpointPath = new Path(checkpointDir);
+      this.checkpointLog = new CheckpointLog(checkpointPath
+          .getFileSystem(configuration), checkpointPath, indexName);
+    } else {
+      this.checkpointLog = null;
+    }
+    this.flusher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "HBaseIndexStore-flusher-" + indexName);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.currentSegment = new SegmentBuffer(this.arrayThreshold);
+    this.currentSegment.reset(this.segmentIdAllocator.nextSegmentId());
   }
 
   @Override
   public synchronized void close() throws IOException {
-    commit();
-    this.table.close();
+    try {
+      commit();
+    } finally {
+      this.flusher.shutdown();
+      if (this.regionFlusher != null) {
+        this.regionFlusher.close();
+      }
+      if (this.packedFields != null) {
+        this.packedFields.close();
+      }
+      if (this.checkpointLog != null) {
+        this.checkpointLog.close();
+      }
+    }
   }
 
+  /**
+   * Hands over the current segment, if it contains any document, and waits
+   * for all the segments in flight to be flushed.
+   */
   @Override
   public synchronized void commit() throws IOException {
-    this.doCommit();
+    if (this.currentSegment.getNumDocs() > 0) {
+      this.doHandOff();
+    }
+    this.awaitFlushes();
+  }
+
+  /**
+   * Mark the segments committed so far as persisted in the checkpoint log, if
+   * enabled. To be called after {@link #commit()} and a flush of the table by
+   * the region servers, with no documents indexed in between.
+   */
+  public synchronized void checkpoint() throws IOException {
+    this.awaitFlushes();
+    if (this.checkpointLog != null) {
+      this.checkpointLog.sync();
+    }
   }
 
   public int getMaxCommitDocs() { 
     return this.maxCommitDocs;
   }
+
+  /**
+   * The segment currently accepting documents.
+   * 
+   * @return Id of the current segment.
+   */
+  public synchronized long getSegmentId() {
+    return this.currentSegment.getSegmentId();
+  }
   
   /**
    * Index a given document.
@@ -135,156 +374,753 @@ public class HBaseIndexStore extends AbstractIndexStore implements
    */
   public synchronized SegmentInfo indexDocument(final String key,
       final DocumentIndexContext documentIndexContext) throws IOException {
-    ++this.documentId;
-    final byte[] currentRow = this.getCurrentRow();
-    this.doAddTermVector(documentId, documentIndexContext.termPositionVectors
-        .keySet());
-    this.doAddTermFrequency(documentId,
-        documentIndexContext.termPositionVectors);
-    this.doStoreFields(currentRow, documentIndexContext.storeFields);
-    this.doStoreReverseMapping(key, currentRow);
-    SegmentInfo segmentInfo = new SegmentInfo(this.segmentId, this.documentId);
-    if (this.documentId == this.maxCommitDocs) {
-      doCommit();
+    final SegmentBuffer segment = this.currentSegment;
+    final int documentId = segment.nextDocumentId();
+    final byte[] currentRow = this.getCurrentRow(segment);
+    if (this.checkpointLog != null) {
+      segment.documentKeys.add(key);
+    }
+    segment.addDocumentKey(key);
+    this.doAddPostings(segment, documentId, documentIndexContext);
+    this.doAddNorms(segment, documentId, documentIndexContext);
+    if (!documentIndexContext.omitPositionsFields.isEmpty()) {
+      segment.omitPositionsFields
+          .addAll(documentIndexContext.omitPositionsFields);
+    }
+    this.doStoreFields(segment, currentRow, documentIndexContext.storeFields);
+    this.doStoreTermVectors(segment, currentRow, documentIndexContext);
+    this.doStoreReverseMapping(segment, key, currentRow);
+    SegmentInfo segmentInfo = new SegmentInfo(segment.getSegmentId(),
+        documentId);
+    if (segment.getNumDocs() >= this.maxCommitDocs
+        || segment.ramBytesUsed() >= this.maxRamBytes) {
+      doHandOff();
     }
     return segmentInfo;
 
   }
 
-  void doStoreReverseMapping(final String key, final byte[] currentRow) {
+  /**
+   * Index a batch of documents, holding the store for the whole batch.
+   */
+  @Override
+  public synchronized void indexDocuments(final String[] keys,
+      final DocumentIndexContext[] documentIndexContexts, final int count)
+      throws IOException {
+    for (int i = 0; i < count; ++i) {
+      this.indexDocument(keys[i], documentIndexContexts[i]);
+    }
+  }
+
+  /**
+   * Delete the documents of the given keys. A document of the current
+   * segment is dropped from the segment, before it is committed. The
+   * documents of the committed segments are resolved through the reverse
+   * mapping, once the segments in flight are flushed, and recorded in the
+   * deletions of their segments.
+   */
+  @Override
+  public synchronized void deleteDocuments(final String... keys)
+      throws IOException {
+    this.deleteBufferedDocuments(keys);
+    this.deleteCommittedDocuments(keys);
+  }
+
+  /**
+   * Delete the documents of the given keys from the current segment, and wait
+   * for the segments in flight to be flushed.
+   * 
+   * @param keys
+   * @throws IOException
+   */
+  synchronized void deleteBufferedDocuments(final String[] keys)
+      throws IOException {
+    for (final String key : keys) {
+      this.currentSegment.deleteDocument(key);
+    }
+    this.awaitFlushes();
+  }
+
+  /**
+   * Delete the documents of the given keys from the committed segments.
+   * 
+   * @param keys
+   * @throws IOException
+   */
+  void deleteCommittedDocuments(final String[] keys) throws IOException {
+    final HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      final Map<Long, OpenBitSet> deletions = new HashMap<Long, OpenBitSet>();
+      for (final String key : keys) {
+        Get get = new Get(Bytes.toBytes(key));
+        get.addColumn(FAMILY_DOC_TO_INT, QUALIFIER_INT);
+        final byte[] row = table.get(get).getValue(FAMILY_DOC_TO_INT,
+            QUALIFIER_INT);
+        if (row == null) {
+          continue;
+        }
+        final SegmentInfo document = parseDocumentRow(row);
+        OpenBitSet segmentDeletions = deletions.get(document.getSegmentId());
+        if (segmentDeletions == null) {
+          segmentDeletions = new OpenBitSet(document.getDocumentId() + 1);
+          deletions.put(document.getSegmentId(), segmentDeletions);
+        }
+        segmentDeletions.set(document.getDocumentId());
+      }
+      for (final Map.Entry<Long, OpenBitSet> entry : deletions.entrySet()) {
+        mergeDeletions(table, entry.getKey(), entry.getValue());
+      }
+    } finally {
+      this.tablePool.putTable(table);
+    }
+  }
+
+  void doStoreReverseMapping(final SegmentBuffer segment, final String key,
+      final byte[] currentRow) {
     Put put = new Put(Bytes.toBytes(key));
     put.add(FAMILY_DOC_TO_INT, QUALIFIER_INT, currentRow);
-    put.setWriteToWAL(true);
-    this.table.getWriteBuffer().add(put);
+    put.setWriteToWAL(this.walDocToInt);
+    segment.addReverseMappingPut(key, put, put.getRow().length
+        + QUALIFIER_INT.length + currentRow.length);
   }
 
 
-  void doAddTermFrequency(final int docId,
-      final Map<String, List<Integer>> termFrequencies) throws IOException {
-    for (final Map.Entry<String, List<Integer>> entry : termFrequencies
-        .entrySet()) {
-      if (entry.getValue().size() == 1 && entry.getValue().get(0) == 0) {
-        continue;
+  void doAddPostings(final SegmentBuffer segment, final int docId,
+      final DocumentIndexContext documentIndexContext) throws IOException {
+    for (int i = 0; i < documentIndexContext.numTerms; ++i) {
+      final PostingsBuffer.Postings termPostings = segment.postings.addDoc(
+          documentIndexContext.termKeys[i], documentIndexContext.termHashes[i],
+          docId);
+      final int freq = documentIndexContext.termFreqs[i];
+      if (freq > 0) {
+        segment.postings.addPositions(termPostings, docId,
+            documentIndexContext.termPositions[i], freq);
+        if (documentIndexContext.termPayloadCounts[i] > 0) {
+          segment.postings.addPayloads(termPostings, docId, freq,
+              documentIndexContext.termPayloadLengths[i],
+              documentIndexContext.termPayloadCounts[i],
+              documentIndexContext.termPayloads[i],
+              documentIndexContext.termPayloadBytes[i]);
+        }
       }
-      Map<Integer, List<Integer>> existingFrequencies = this.termFrequencies
-          .get(entry.getKey());
-      if (existingFrequencies == null) {
-        existingFrequencies = Maps.newHashMap();
-        this.termFrequencies.put(entry.getKey(), existingFrequencies);
+    }
+  }
+
+  void doAddNorms(final SegmentBuffer segment, final int docId,
+      final DocumentIndexContext documentIndexContext) {
+    for (int i = 0; i < documentIndexContext.numNorms; ++i) {
+      segment.addNorm(documentIndexContext.normFields[i], docId,
+          documentIndexContext.norms[i]);
+    }
+  }
+
+  /**
+   * Hand over the current segment to the flusher and start a new segment.
+   * Blocks, if there are already
+   * HBaseneConstants#CONF_MAX_SEGMENTS_IN_FLIGHT segments waiting to be
+   * flushed.
+   */
+  private void doHandOff() throws IOException {
+    this.checkFlushError();
+    final SegmentBuffer segment = this.currentSegment;
+    try {
+      this.segmentsInFlight.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while handing over segment "
+          + segment.getSegmentId());
+    }
+    if (this.checkpointLog != null) {
+      try {
+        this.checkpointLog.begin(segment.getSegmentId(), segment.documentKeys);
+      } catch (IOException ex) {
+        this.segmentsInFlight.release();
+        throw ex;
       }
-      existingFrequencies.put(docId, entry.getValue());
     }
+    try {
+      this.flusher.execute(new FlushTask(segment));
+    } catch (RejectedExecutionException ex) {
+      this.segmentsInFlight.release();
+      throw new IOException("Flusher unavailable for segment "
+          + segment.getSegmentId() + " : " + ex);
+    }
+    SegmentBuffer next = this.freeSegments.poll();
+    if (next == null) {
+      next = new SegmentBuffer(this.arrayThreshold);
+    }
+    next.reset(this.segmentIdAllocator.nextSegmentId());
+    this.currentSegment = next;
   }
 
-  void doAddTermVector(final int docId, final Set<String> fieldTerms)
-      throws IOException {
-    for (final String fieldTerm : fieldTerms) {
-      Object bitset = this.termVector.get(fieldTerm);
-      if (bitset == null) {
-        bitset = new ArrayList<Integer>();
-        this.termVector.put(fieldTerm, bitset);
+  /**
+   * Wait for all the segments handed over to be flushed.
+   */
+  private void awaitFlushes() throws IOException {
+    try {
+      this.segmentsInFlight.acquire(this.maxSegmentsInFlight);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for the segments to be flushed");
+    }
+    this.segmentsInFlight.release(this.maxSegmentsInFlight);
+    this.checkFlushError();
+  }
+
+  private void checkFlushError() throws IOException {
+    final IOException ex = this.flushError.getAndSet(null);
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+  /**
+   * Flushes a segment in the background and recycles its buffer.
+   */
+  private final class FlushTask implements Runnable {
+
+    private final SegmentBuffer segment;
+
+    FlushTask(final SegmentBuffer segment) {
+      this.segment = segment;
+    }
+
+    @Override
+    public void run() {
+      try {
+        doCommit(this.segment);
+        doLogCommit(this.segment);
+      } catch (IOException ex) {
+        LOG.error("HBaseIndexStore#Error flushing segment "
+            + this.segment.getSegmentId(), ex);
+        flushError.compareAndSet(null, ex);
+      } finally {
+        this.segment.reset(-1);
+        freeSegments.offer(this.segment);
+        segmentsInFlight.release();
       }
-      if (bitset instanceof List) {
-        List<Integer> impl = (List<Integer>) bitset;
-        impl.add(docId);
-        if (impl.size() >= this.arrayThreshold) {
-          bitset = new OpenBitSet();
-          for (Integer existingDocId : impl) {
-            ((OpenBitSet) bitset).set(existingDocId);
-          }
-          this.termVector.put(fieldTerm, bitset);
+    }
+  }
+
+  /**
+   * Log the segment as committed, if the checkpoint log is enabled. The
+   * segment is in the table by now, hence a failure to log it is not reported
+   * as a failed flush, for the documents not to be indexed twice. The segment
+   * is left begun in the log, to be hidden and re-indexed by a recovery, or
+   * discarded by the next {@link #checkpoint()}.
+   */
+  private void doLogCommit(final SegmentBuffer segment) {
+    if (this.checkpointLog == null) {
+      return;
+    }
+    try {
+      this.checkpointLog.commit(segment.getSegmentId());
+    } catch (IOException ex) {
+      LOG.error("HBaseIndexStore#Error logging the commit of segment "
+          + segment.getSegmentId(), ex);
+    }
+  }
+
+  void doCommit(final SegmentBuffer segment) throws IOException {
+    final int sz = segment.postings.size();
+    final long ramBytes = segment.ramBytesUsed();
+    final long start = System.nanoTime();
+    final RegionBatchFlusher.Batches batches = this.regionFlusher.newBatches();
+    boolean added = false;
+    try {
+      this.doCommitDocuments(batches, segment);
+      this.doCommitTermVector(batches, segment);
+      this.doCommitTermFrequencies(batches, segment);
+      this.doCommitNorms(batches, segment);
+      added = true;
+    } finally {
+      if (!added) {
+        // the batches flushed already are awaited, without masking the error
+        // already propagating.
+        try {
+          batches.await();
+        } catch (IOException ex) {
+          LOG.error("HBaseIndexStore#Error flushing the batches of segment "
+              + segment.getSegmentId() + " after a failed commit", ex);
         }
       }
-      if (bitset instanceof OpenBitSet) {
-        ((OpenBitSet) bitset).set(docId);
+    }
+    batches.await();
+    this.doCommitSegmentInfo(segment);
+    LOG.info("HBaseIndexStore#Flushed " + sz + " terms, "
+        + segment.getNumDocs() + " docs ( ~" + (ramBytes >> 10)
+        + " KB ) of segment " + segment.getSegmentId() + " in "
+        + (double) (System.nanoTime() - start) / (double) 1000000000 + " secs ");
+  }
+
+  void doCommitDocuments(final RegionBatchFlusher.Batches batches,
+      final SegmentBuffer segment) throws IOException {
+    batches.addAll(segment.documentPuts);
+    for (final Put put : segment.reverseMappingPuts.values()) {
+      batches.add(put);
+    }
+  }
+
+  void doCommitTermVector(final RegionBatchFlusher.Batches batches,
+      final SegmentBuffer segment) throws IOException {
+    final byte[] segmentQualifier = Bytes.toBytes(segment.getSegmentId());
+    for (final PostingsBuffer.Postings termPostings : segment.postings
+        .getSlots()) {
+      if (termPostings == null) {
+        continue;
       }
+      batches.add(this.createTermVectorPut(termPostings, segmentQualifier));
     }
   }
 
-  private void doCommit() throws IOException {
-    final int sz = this.termVector.size();
-    final long start = System.nanoTime();
-    this.doCommitTermVector();
-    this.doCommitTermFrequencies();
-    LOG.info("HBaseIndexStore#Flushed " + sz + " terms of " + table + " in "
-        + (double) (System.nanoTime() - start) / (double) 1000000000 + " secs ");
-    this.documentId = 0;
-    this.segmentId = doIncrementSegmentId();
+  /**
+   * Codec of the docsets of the field of the given term key ( field/term ),
+   * the codec of the field if configured, the codec of the store otherwise.
+   * 
+   * @param key
+   * @return
+   */
+  AbstractDocSetCodec getDocSetCodec(final byte[] key) {
+    if (!this.fieldDocSetCodecs.isEmpty()) {
+      final AbstractDocSetCodec fieldCodec = this.fieldDocSetCodecs
+          .get(fieldOf(key));
+      if (fieldCodec != null) {
+        return fieldCodec;
+      }
+    }
+    return this.docSetCodec;
   }
 
-  void doCommitTermVector() throws IOException {
-    for (final Map.Entry<String, Object> entry : this.termVector.entrySet()) {
-      final String key = entry.getKey();
-      final Object value = entry.getValue();
-      Put put = new Put(Bytes.toBytes(key));
-      byte[] docSet = null;
-      if (value instanceof OpenBitSet) {
-        docSet = Bytes.add(Bytes.toBytes('O'), HBaseneUtil
-            .toBytes((OpenBitSet) entry.getValue()));
-      } else if (value instanceof List) {
-        List<Integer> list = (List<Integer>) value;
-        byte[] out = new byte[(list.size() + 1) * Bytes.SIZEOF_INT];
-        Bytes.putInt(out, 0, list.size());
-        for (int i = 0; i < list.size(); ++i) {
-          Bytes.putInt(out, (i + 1) * Bytes.SIZEOF_INT, list.get(i).intValue());
-        }
-        docSet = Bytes.add(Bytes.toBytes('A'), out);
+  /**
+   * Put of the docset of the term in the segment.
+   */
+  Put createTermVectorPut(final PostingsBuffer.Postings termPostings,
+      final byte[] segmentQualifier) {
+    Put put = new Put(termPostings.key);
+    final AbstractDocSetCodec codec = this.getDocSetCodec(termPostings.key);
+    final byte[] docSet;
+    if (termPostings.docSet != null) {
+      docSet = codec.encode(termPostings.docSet);
+    } else {
+      docSet = codec.encode(termPostings.docs, termPostings.numDocs);
+    }
+    put.add(HBaseneConstants.FAMILY_TERMVECTOR, segmentQualifier, docSet);
+    put.setWriteToWAL(this.walTermVector);
+    return put;
+  }
+
+  /**
+   * Commit the term positions of the segment, as a single block per term. See
+   * HBaseneConstants#FAMILY_TERMFREQUENCIES for the layout of the block.
+   */
+  void doCommitTermFrequencies(final RegionBatchFlusher.Batches batches,
+      final SegmentBuffer segment) throws IOException {
+    final byte[] segmentQualifier = Bytes.toBytes(segment.getSegmentId());
+    final List<byte[]> encodedPositions = new ArrayList<byte[]>();
+    for (final PostingsBuffer.Postings termPostings : segment.postings
+        .getSlots()) {
+      if (termPostings == null || termPostings.positions == null) {
+        continue;
       }
-      put.add(HBaseneConstants.FAMILY_TERMVECTOR,
-          Bytes.toBytes(this.segmentId), docSet);
-      put.setWriteToWAL(true);
-      this.table.getWriteBuffer().add(put);
+      batches.add(this.createTermFrequencyPut(termPostings, segmentQualifier,
+          encodedPositions));
     }
-    this.table.flushCommits();
-    this.termVector.clear();
   }
 
-  void doCommitTermFrequencies() throws IOException {
-    List<Put> puts = new ArrayList<Put>();
-    for (Map.Entry<String, Map<Integer, List<Integer>>> entry : termFrequencies
-        .entrySet()) {
-      Put put = new Put(Bytes.toBytes(HBaseneConstants.TERM_FREQ_PREFIX + "/"
-          + entry.getKey() + "/" + this.segmentId));//TODO: Factored out as a function
-      for (final Map.Entry<Integer, List<Integer>> termFrequencyEntry : entry
-          .getValue().entrySet()) {
-        put.add(HBaseneConstants.FAMILY_TERMFREQUENCIES, Bytes
-            .toBytes(termFrequencyEntry.getKey()), Bytes
-            .toBytes(termFrequencyEntry.getValue().size()));
-        //TODO: Rudimentary encoding saves only the term frequencies and not the term vector containing 
-        // the actual positions.
+  /**
+   * Put of the block of the term positions of the term in the segment, along
+   * with the block of its payloads, if any.
+   * 
+   * @param termPostings
+   *          Postings with positions.
+   * @param segmentQualifier
+   * @param encodedPositions
+   *          Scratch list, empty.
+   */
+  Put createTermFrequencyPut(final PostingsBuffer.Postings termPostings,
+      final byte[] segmentQualifier, final List<byte[]> encodedPositions) {
+    AbstractTermPositionsEncoder encoder = this.termPositionEncoder;
+    if (!this.fieldPositionEncoders.isEmpty()) {
+      final AbstractTermPositionsEncoder fieldEncoder = this.fieldPositionEncoders
+          .get(fieldOf(termPostings.key));
+      if (fieldEncoder != null) {
+        encoder = fieldEncoder;
       }
-      puts.add(put);
-      if (puts.size() == 30000) { //TODO: Do not hard-code this
-        this.table.getWriteBuffer().addAll(puts);
-        this.table.flushCommits();
-        puts.clear();
+    }
+    final int[] positions = termPostings.positions;
+    int blockLength = 0;
+    int i = 0;
+    while (i < termPostings.positionsLength) {
+      final int freq = positions[i + 1];
+      final byte[] encoded = encoder.encode(positions, i + 2, freq);
+      encodedPositions.add(encoded);
+      blockLength += 2 * Bytes.SIZEOF_INT + encoded.length;
+      i += freq + 2;
+    }
+    // a skip entry ( docId, offset ) every POSITIONS_SKIP_INTERVAL docs.
+    final int numDocs = encodedPositions.size();
+    final int numSkips = (numDocs - 1) / POSITIONS_SKIP_INTERVAL;
+    final int headerLength = numSkips > 0 ? 2 * Bytes.SIZEOF_INT + numSkips
+        * 2 * Bytes.SIZEOF_INT : Bytes.SIZEOF_INT;
+    final byte[] block = new byte[headerLength + blockLength];
+    int offset;
+    if (numSkips > 0) {
+      offset = Bytes.putInt(block, 0, numDocs | POSITIONS_SKIP_FLAG);
+      Bytes.putInt(block, offset, numSkips);
+    } else {
+      Bytes.putInt(block, 0, numDocs);
+    }
+    int skipOffset = 2 * Bytes.SIZEOF_INT;
+    offset = headerLength;
+    i = 0;
+    for (int doc = 0; doc < numDocs; ++doc) {
+      final byte[] encoded = encodedPositions.get(doc);
+      if (doc > 0 && doc % POSITIONS_SKIP_INTERVAL == 0) {
+        skipOffset = Bytes.putInt(block, skipOffset, positions[i]);
+        skipOffset = Bytes.putInt(block, skipOffset, offset);
       }
+      offset = Bytes.putInt(block, offset, positions[i]);
+      offset = Bytes.putInt(block, offset, encoded.length);
+      offset = Bytes.putBytes(block, offset, encoded, 0, encoded.length);
+      i += positions[i + 1] + 2;
+    }
+    encodedPositions.clear();
+
+    Put put = new Put(Bytes.add(TERM_FREQ_PREFIX_BYTES, termPostings.key));
+    put.add(HBaseneConstants.FAMILY_TERMFREQUENCIES, segmentQualifier, block);
+    if (termPostings.payloads != null) {
+      final byte[] payloadBlock = new byte[Bytes.SIZEOF_INT
+          + termPostings.payloadsLength];
+      Bytes.putBytes(payloadBlock, Bytes.putInt(payloadBlock, 0,
+          termPostings.numPayloadDocs), termPostings.payloads, 0,
+          termPostings.payloadsLength);
+      put.add(FAMILY_PAYLOADS, segmentQualifier, payloadBlock);
+    }
+    put.setWriteToWAL(this.walTermFrequencies);
+    return put;
+  }
+
+  void doCommitNorms(final RegionBatchFlusher.Batches batches,
+      final SegmentBuffer segment) throws IOException {
+    final byte[] segmentQualifier = Bytes.toBytes(segment.getSegmentId());
+    for (final Map.Entry<String, byte[]> entry : segment.norms.entrySet()) {
+      batches.add(this.createNormsPut(entry.getKey(), entry.getValue(),
+          segment.getNumDocs(), segmentQualifier));
     }
-    this.table.getWriteBuffer().addAll(puts);
-    this.table.flushCommits();
-    puts.clear();
-    this.termFrequencies.clear();
   }
 
-  long doIncrementSegmentId() throws IOException {
-    return this.table.incrementColumnValue(ROW_SEGMENT_ID, FAMILY_SEQUENCE,
-        QUALIFIER_SEGMENT, 1, true);
+  /**
+   * Put of the norms of a field in a segment, a byte per document of the
+   * segment.
+   */
+  Put createNormsPut(final String field, final byte[] norms,
+      final int numDocs, final byte[] segmentQualifier) {
+    byte[] value = Arrays.copyOf(norms, numDocs);
+    if (numDocs > norms.length) {
+      Arrays.fill(value, norms.length, numDocs, HBaseIndexReader.DEFAULT_NORM);
+    }
+    Put put = new Put(Bytes.toBytes(field));
+    put.add(FAMILY_NORMS, segmentQualifier, value);
+    put.setWriteToWAL(this.walTermVector);
+    return put;
   }
 
-  void doStoreFields(final byte[] currentRow,
+  /**
+   * Record the segment as committed, once all of its rows are in the table.
+   * Readers only see the segments recorded here.
+   */
+  void doCommitSegmentInfo(final SegmentBuffer segment) throws IOException {
+    final HTable flushTable = this.tablePool.getTable(this.indexName);
+    try {
+      if (segment.deletions != null) {
+        mergeDeletions(flushTable, segment.getSegmentId(), segment.deletions);
+      }
+      final Put fieldInfosPut = this.createFieldInfosPut(segment);
+      if (fieldInfosPut != null) {
+        flushTable.put(fieldInfosPut);
+      }
+      flushTable.put(this.createSegmentInfoPut(segment));
+      flushTable.flushCommits();
+    } finally {
+      this.tablePool.putTable(flushTable);
+    }
+  }
+
+  /**
+   * Put of the options of the fields of the segment, null if all the fields
+   * have the default options.
+   */
+  Put createFieldInfosPut(final SegmentBuffer segment) {
+    if (segment.omitPositionsFields.isEmpty()) {
+      return null;
+    }
+    Put put = new Put(ROW_FIELD_INFOS);
+    for (final String field : segment.omitPositionsFields) {
+      put.add(FAMILY_SEQUENCE, Bytes.toBytes(field),
+          new byte[] { FIELD_OMIT_TERM_FREQ_AND_POSITIONS });
+    }
+    put.setWriteToWAL(true);
+    return put;
+  }
+
+  Put createSegmentInfoPut(final SegmentBuffer segment) {
+    Put put = new Put(ROW_SEGMENT_INFOS);
+    // number of documents, followed by the format of the term positions, and
+    // the format, the length and the name of every field encoded otherwise.
+    int length = Bytes.SIZEOF_INT + 1;
+    for (final String field : this.fieldPositionEncoders.keySet()) {
+      // the format, a vint of at most 5 bytes, and the UTF-8 name.
+      length += 1 + 5 + 3 * field.length();
+    }
+    byte[] value = new byte[length];
+    Bytes.putInt(value, 0, segment.getNumDocs());
+    value[Bytes.SIZEOF_INT] = this.termPositionEncoder.getFormat();
+    int offset = Bytes.SIZEOF_INT + 1;
+    for (final Map.Entry<String, AbstractTermPositionsEncoder> entry : this.fieldPositionEncoders
+        .entrySet()) {
+      final byte[] name = Bytes.toBytes(entry.getKey());
+      value[offset++] = entry.getValue().getFormat();
+      offset = HBaseneUtil.putVInt(value, offset, name.length);
+      offset = Bytes.putBytes(value, offset, name, 0, name.length);
+    }
+    if (offset < value.length) {
+      value = Arrays.copyOf(value, offset);
+    }
+    put.add(FAMILY_SEQUENCE, Bytes.toBytes(segment.getSegmentId()), value);
+    put.setWriteToWAL(true);
+    return put;
+  }
+
+  /**
+   * Field of the given term key ( field/term ).
+   */
+  private static String fieldOf(final byte[] key) {
+    return Bytes.toString(key, 0, separatorOf(key));
+  }
+
+  /**
+   * Index of the first separator of the given term key, the length of the
+   * field. The length of the key, if none.
+   */
+  private static int separatorOf(final byte[] key) {
+    int length = 0;
+    while (length < key.length && key[length] != '/') {
+      ++length;
+    }
+    return length;
+  }
+
+  void doStoreFields(final SegmentBuffer segment, final byte[] currentRow,
       final Map<String, byte[]> fieldsToStore) throws IOException {
+    if (this.packedFields != null) {
+      if (fieldsToStore.isEmpty()) {
+        return;
+      }
+      final byte[] record = this.packedFields.encode(fieldsToStore);
+      Put put = new Put(currentRow);
+      put.add(FAMILY_FIELDS, QUALIFIER_PACKED_FIELDS, record);
+      put.setWriteToWAL(this.walFields);
+      segment.addDocumentPut(put, currentRow.length
+          + QUALIFIER_PACKED_FIELDS.length + record.length);
+      return;
+    }
     for (final Map.Entry<String, byte[]> entry : fieldsToStore.entrySet()) {
       Put put = new Put(currentRow);
-      put.add(FAMILY_FIELDS, Bytes.toBytes(entry.getKey()), entry.getValue());
-      put.setWriteToWAL(true);
-      this.table.getWriteBuffer().add(put);
+      final byte[] qualifier = Bytes.toBytes(entry.getKey());
+      put.add(FAMILY_FIELDS, qualifier, entry.getValue());
+      put.setWriteToWAL(this.walFields);
+      segment.addDocumentPut(put, currentRow.length + qualifier.length
+          + entry.getValue().length);
     }
   }
 
-  byte[] getCurrentRow() {
-    return Bytes.toBytes("s" + this.segmentId + "/" + this.documentId);
+  /**
+   * Store the term vectors of the fields of the document stored with term
+   * vectors, a cell per field in the row of the document.
+   */
+  void doStoreTermVectors(final SegmentBuffer segment,
+      final byte[] currentRow, final DocumentIndexContext documentIndexContext) {
+    if (documentIndexContext.termVectorFields.isEmpty()) {
+      return;
+    }
+    final int numTerms = documentIndexContext.numTerms;
+    final byte[][] keys = documentIndexContext.termKeys;
+    final int numFields = documentIndexContext.termVectorFields.size();
+    final byte[][] names = new byte[numFields][];
+    int f = 0;
+    for (final String field : documentIndexContext.termVectorFields) {
+      names[f++] = Bytes.toBytes(field);
+    }
+    if (this.termVectorTerms.length < numTerms) {
+      final int capacity = Math.max(numTerms, this.termVectorTerms.length << 1);
+      this.termVectorTerms = new int[capacity];
+      this.termVectorFieldOf = new int[capacity];
+    }
+    final int[] terms = this.termVectorTerms;
+    final int[] fieldOf = this.termVectorFieldOf;
+    // bucket the terms by the field, in a single pass.
+    final int[] starts = new int[numFields + 1];
+    int last = 0;
+    for (int i = 0; i < numTerms; ++i) {
+      final byte[] key = keys[i];
+      // the field up to the first separator, as the term enumeration.
+      final int separator = separatorOf(key);
+      int field = -1;
+      if (separator < key.length) {
+        // the terms of a field mostly follow one another.
+        if (isField(key, separator, names[last])) {
+          field = last;
+        } else {
+          for (int j = 0; j < numFields; ++j) {
+            if (isField(key, separator, names[j])) {
+              field = last = j;
+              break;
+            }
+          }
+        }
+      }
+      fieldOf[i] = field;
+      if (field >= 0) {
+        ++starts[field + 1];
+      }
+    }
+    for (f = 0; f < numFields; ++f) {
+      starts[f + 1] += starts[f];
+    }
+    final int[] next = Arrays.copyOf(starts, numFields);
+    for (int i = 0; i < numTerms; ++i) {
+      if (fieldOf[i] >= 0) {
+        terms[next[fieldOf[i]]++] = i;
+      }
+    }
+    Put put = new Put(currentRow);
+    int cellBytes = 0;
+    for (f = 0; f < numFields; ++f) {
+      if (starts[f + 1] > starts[f]) {
+        final byte[] value = HBaseTermFreqVector.encode(keys,
+            names[f].length + 1, documentIndexContext.termFreqs, terms,
+            starts[f], starts[f + 1]);
+        put.add(FAMILY_FORWARD, names[f], value);
+        cellBytes += currentRow.length + names[f].length + value.length;
+      }
+    }
+    if (!put.getFamilyMap().isEmpty()) {
+      put.setWriteToWAL(this.walFields);
+      segment.addDocumentPut(put, cellBytes);
+    }
   }
 
+  /**
+   * Whether the field of the key, up to the given separator, is the given
+   * field.
+   */
+  private static boolean isField(final byte[] key, final int separator,
+      final byte[] name) {
+    return separator == name.length
+        && Bytes.compareTo(key, 0, separator, name, 0, name.length) == 0;
+  }
+
+  byte[] getCurrentRow(final SegmentBuffer segment) {
+    return getDocumentRow(segment.getSegmentId(), segment.getDocumentId());
+  }
+
+  /**
+   * Row of the stored fields of the given document of the segment.
+   * 
+   * @param segmentId
+   * @param documentId
+   * @return
+   */
+  static byte[] getDocumentRow(final long segmentId, final int documentId) {
+    return Bytes.toBytes("s" + segmentId + "/" + documentId);
+  }
+
+  /**
+   * Inverse of {@link #getDocumentRow(long, int)} .
+   * 
+   * @param row
+   * @return the segment and the id of the document within the segment.
+   */
+  static SegmentInfo parseDocumentRow(final byte[] row) {
+    final String value = Bytes.toString(row);
+    final int separator = value.indexOf('/');
+    if (value.charAt(0) != 's' || separator < 0) {
+      throw new IllegalArgumentException("Not a document row " + value);
+    }
+    return new SegmentInfo(Long.parseLong(value.substring(1, separator)),
+        Integer.parseInt(value.substring(separator + 1)));
+  }
+
+  /**
+   * Add the given documents to the deletions of the segment. The deletions
+   * are merged with a check-and-put, so that concurrent writers and readers
+   * deleting documents of the same segment do not lose each other's updates.
+   * 
+   * @param table
+   * @param segmentId
+   * @param deletions
+   *          Ids of the deleted documents, within the segment.
+   * @throws IOException
+   */
+  static void mergeDeletions(final HTable table, final long segmentId,
+      final OpenBitSet deletions) throws IOException {
+    final byte[] qualifier = Bytes.toBytes(segmentId);
+    Get get = new Get(ROW_DELETIONS);
+    get.addColumn(FAMILY_SEQUENCE, qualifier);
+    while (true) {
+      final byte[] current = table.get(get).getValue(FAMILY_SEQUENCE,
+          qualifier);
+      final OpenBitSet merged = (OpenBitSet) deletions.clone();
+      if (current != null) {
+        final OpenBitSet existing = HBaseneUtil.toOpenBitSet(current);
+        if (existing != null) {
+          merged.union(existing);
+        }
+      }
+      Put put = new Put(ROW_DELETIONS);
+      put.add(FAMILY_SEQUENCE, qualifier, HBaseneUtil.toBytes(merged));
+      put.setWriteToWAL(true);
+      if (table.checkAndPut(ROW_DELETIONS, FAMILY_SEQUENCE, qualifier,
+          current, put)) {
+        return;
+      }
+      LOG.debug("HBaseIndexStore#Retrying the deletions of segment "
+          + segmentId);
+    }
+  }
+
+  /**
+   * Clear the deletions of the given segment, by the same protocol as
+   * {@link #mergeDeletions(HTable, long, OpenBitSet)}, leaving those of the
+   * other segments alone. The cleared deletions are left as an empty value.
+   * 
+   * @param table
+   * @param segmentId
+   * @throws IOException
+   */
+  static void clearDeletions(final HTable table, final long segmentId)
+      throws IOException {
+    final byte[] qualifier = Bytes.toBytes(segmentId);
+    Get get = new Get(ROW_DELETIONS);
+    get.addColumn(FAMILY_SEQUENCE, qualifier);
+    while (true) {
+      final byte[] current = table.get(get).getValue(FAMILY_SEQUENCE,
+          qualifier);
+      if (current == null || current.length == 0) {
+        return;
+      }
+      Put put = new Put(ROW_DELETIONS);
+      put.add(FAMILY_SEQUENCE, qualifier, new byte[0]);
+      put.setWriteToWAL(true);
+      if (table.checkAndPut(ROW_DELETIONS, FAMILY_SEQUENCE, qualifier,
+          current, put)) {
+        return;
+      }
+      LOG.debug("HBaseIndexStore#Retrying to clear the deletions of segment "
+          + segmentId);
+    }
+  }
 
   // TABLE MANIPULATION ROUTINES .
 
@@ -353,6 +1189,8 @@ public class HBaseIndexStore extends AbstractIndexStore implements
     tableDescriptor.addFamily(createUniversionLZO(admin, FAMILY_DOC_TO_INT));
     tableDescriptor.addFamily(createUniversionLZO(admin, FAMILY_SEQUENCE));
     tableDescriptor.addFamily(createUniversionLZO(admin, FAMILY_PAYLOADS));
+    tableDescriptor.addFamily(createUniversionLZO(admin, FAMILY_NORMS));
+    tableDescriptor.addFamily(createUniversionLZO(admin, FAMILY_FORWARD));
 
     admin.createTable(tableDescriptor);
     HTableDescriptor descriptor = admin.getTableDescriptor(Bytes
@@ -23,26 +23,37 @@
 package org.hbasene.index;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jsr166y.ForkJoinPool;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.Payload;
+import org.apache.lucene.search.Similarity;
 import org.apache.lucene.store.LockObtainFailedException;
 
-import com.google.common.collect.Lists;
-
 /**
  * Index Writer in the noSQL world.
  * 
@@ -63,10 +74,57 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
 
 
   /**
-   * List of empty term vectors
+   * Number of term keys interned by a thread, beyond which its arena starts
+   * afresh.
+   */
+  static final int MAX_INTERNED_TERM_KEYS = 1 << 18;
+
+  // Prefixes of the stored fields, binary or text.
+
+  private static final byte[] BINARY_PREFIX = Bytes.toBytes('B');
+
+  private static final byte[] TEXT_PREFIX = Bytes.toBytes('T');
+
+  /**
+   * Computes the norms of the fields, see {@link #setSimilarity(Similarity)}.
+   */
+  private volatile Similarity similarity = Similarity.getDefault();
+
+  /**
+   * Analysis state, per indexing thread.
    */
-  static final List<Integer> EMPTY_TERM_POSITIONS = Arrays
-      .asList(new Integer[] { 0 });
+  private final ThreadLocal<AnalysisState> analysisStates = new ThreadLocal<AnalysisState>() {
+
+    @Override
+    protected AnalysisState initialValue() {
+      return new AnalysisState();
+    }
+
+  };
+
+  /**
+   * Batches of {@link #addDocuments(Iterable, Analyzer)}, one being analyzed
+   * while the other is stored.
+   */
+  private final DocumentBatch[] batches = new DocumentBatch[] {
+      new DocumentBatch(), new DocumentBatch() };
+
+  private int nextBatch;
+
+  /**
+   * Batch handed over to the store, but not stored yet.
+   */
+  private Future<Void> pendingBatch;
+
+  /**
+   * Analyzes the batches, created on the first batch.
+   */
+  private ForkJoinPool analysisPool;
+
+  /**
+   * Hands the analyzed batches over to the store, in order.
+   */
+  private ExecutorService storeExecutor;
 
   /**
    * 
@@ -89,8 +147,153 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
     // this.indexStore.init();
   }
 
+  /**
+   * Create a writer for the initial, offline build of an index, that writes
+   * HFiles under the given directory, to be loaded into the index table
+   * afterwards. See {@link HFileIndexStore}. The writer only adds documents,
+   * {@link #deleteDocuments(String...)} and
+   * {@link #updateDocument(Document, Analyzer)} fail with an IOException.
+   * 
+   * @param configuration
+   * @param indexName
+   * @param outputDir
+   * @param primaryKeyField
+   * @return
+   * @throws IOException
+   */
+  public static HBaseIndexWriter createBulkWriter(
+      final Configuration configuration, final String indexName,
+      final Path outputDir, final String primaryKeyField) throws IOException {
+    return new HBaseIndexWriter(new HFileIndexStore(configuration, indexName,
+        outputDir), primaryKeyField);
+  }
+
   public void addDocument(Document doc, Analyzer analyzer)
       throws CorruptIndexException, IOException {
+    String docId = this.getPrimaryKey(doc);
+    final AnalysisState state = this.analysisStates.get();
+    final DocumentIndexContext documentIndexContext = state.context;
+    documentIndexContext.clear();
+    try {
+      this.doAnalyze(doc, analyzer, state, documentIndexContext);
+      indexStore.indexDocument(docId, documentIndexContext);
+    } finally {
+      documentIndexContext.clear();
+    }
+  }
+
+  /**
+   * Add a batch of documents. The documents are analyzed in parallel on a
+   * fork-join pool, and then handed over to the store in a single step, in
+   * the background. The analysis of a batch hence overlaps with the store
+   * work for the previous batch. Errors of the store are reported on the
+   * subsequent call to the writer, once the batch of that call is handed
+   * over all the same.
+   * 
+   * @param docs
+   * @param analyzer
+   * @throws CorruptIndexException
+   * @throws IOException
+   */
+  public synchronized void addDocuments(Iterable<Document> docs,
+      Analyzer analyzer) throws CorruptIndexException, IOException {
+    // not the pending batch, the batches are swapped only once handed over.
+    final DocumentBatch batch = this.batches[this.nextBatch];
+    batch.reset(docs);
+    if (batch.count == 0) {
+      return;
+    }
+    if (this.analysisPool == null) {
+      this.analysisPool = new ForkJoinPool();
+      this.storeExecutor = Executors
+          .newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "HBaseIndexWriter-store");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    this.analysisPool.invoke(new DocumentAnalysisTask(this, analyzer, batch,
+        0, batch.count));
+    final IOException analysisError = batch.error.getAndSet(null);
+    // Wait for the previous batch, before handing over this one.
+    IOException storeError = null;
+    try {
+      this.awaitPendingBatch();
+    } catch (IOException ex) {
+      storeError = ex;
+    }
+    if (analysisError != null) {
+      if (storeError != null) {
+        // both reported, the error of the previous batch as the cause.
+        if (analysisError.getCause() == null) {
+          analysisError.initCause(storeError);
+        } else {
+          LOG.error("HBaseIndexWriter#Error storing the previous batch",
+              storeError);
+        }
+      }
+      Arrays.fill(batch.documents, 0, batch.count, null);
+      throw analysisError;
+    }
+    this.pendingBatch = this.storeExecutor.submit(new Callable<Void>() {
+
+      @Override
+      public Void call() throws IOException {
+        try {
+          indexStore.indexDocuments(batch.keys, batch.contexts, batch.count);
+        } finally {
+          Arrays.fill(batch.documents, 0, batch.count, null);
+        }
+        return null;
+      }
+    });
+    this.nextBatch ^= 1;
+    if (storeError != null) {
+      throw storeError;
+    }
+  }
+
+  /**
+   * Wait for the batch handed over to the store, if any.
+   */
+  private void awaitPendingBatch() throws IOException {
+    if (this.pendingBatch == null) {
+      return;
+    }
+    try {
+      this.pendingBatch.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for the batch to be stored");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException("Error storing the batch " + ex.getCause());
+    } finally {
+      this.pendingBatch = null;
+    }
+  }
+
+  /**
+   * Analyze the document at the given index of the batch, into its context.
+   */
+  void doAnalyze(final DocumentBatch batch, final int index,
+      final Analyzer analyzer) throws IOException {
+    final Document doc = batch.documents[index];
+    batch.keys[index] = this.getPrimaryKey(doc);
+    final DocumentIndexContext documentIndexContext = batch.contexts[index];
+    documentIndexContext.clear();
+    this.doAnalyze(doc, analyzer, this.analysisStates.get(),
+        documentIndexContext);
+  }
+
+  private String getPrimaryKey(final Document doc) {
     String docId = doc.get(this.primaryKeyField);
     if (docId == null) {
       throw new IllegalArgumentException("Primary Key " + this.primaryKeyField
@@ -98,9 +301,18 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
       // TODO: Special type of exception needed ?
 
     }
+    return docId;
+  }
+
+  /**
+   * Analyze the fields of the document into the given context.
+   */
+  void doAnalyze(final Document doc, final Analyzer analyzer,
+      final AnalysisState state,
+      final DocumentIndexContext documentIndexContext) throws IOException {
     int position = 0;
-    Map<String, List<Integer>> termPositions = new HashMap<String, List<Integer>>();
-    Map<String, byte[]> fieldsToStore = new HashMap<String, byte[]>();
+    final TermKeyArena termKeyArena = state.termKeyArena;
+    final Map<String, byte[]> fieldsToStore = documentIndexContext.storeFields;
 
     for (Fieldable field : doc.getFields()) {
 
@@ -109,11 +321,20 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
         TokenStream tokens = field.tokenStreamValue();
 
         if (tokens == null) {
-          tokens = analyzer.tokenStream(field.name(), new StringReader(field
-              .stringValue()));
+          state.reader.init(field.stringValue());
+          tokens = analyzer.reusableTokenStream(field.name(), state.reader);
+          tokens.reset();
+        }
+        state.setAttributes(tokens);
+        final TermAttribute termAttribute = state.termAttribute;
+        final PositionIncrementAttribute positionIncrementAttribute = state.positionIncrementAttribute;
+        final PayloadAttribute payloadAttribute = state.payloadAttribute;
+        final byte[] fieldPrefix = termKeyArena.getFieldPrefix(field.name());
+        // only the docsets, for the fields that omit the positions.
+        final boolean omitPositions = field.getOmitTermFreqAndPositions();
+        if (omitPositions) {
+          documentIndexContext.omitPositionsFields.add(field.name());
         }
-        tokens.addAttribute(TermAttribute.class);
-        tokens.addAttribute(PositionIncrementAttribute.class);
 
         // collect term frequencies per doc
         if (position > 0) {
@@ -121,32 +342,54 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
         }
 
         // Build the termPositions vector for all terms
-        while (tokens.incrementToken()) {
-          String term = createColumnName(field.name(), tokens.getAttribute(
-              TermAttribute.class).term());
-
-          List<Integer> pvec = termPositions.get(term);
+        int length = 0;
+        try {
+          while (tokens.incrementToken()) {
+            ++length;
+            final byte[] key = termKeyArena.intern(fieldPrefix, termAttribute
+                .termBuffer(), 0, termAttribute.termLength());
+            final int term = documentIndexContext.addTerm(key, termKeyArena
+                .getLastHash());
+
+            position += (positionIncrementAttribute.getPositionIncrement() - 1);
+            ++position;
+            if (omitPositions) {
+              continue;
+            }
+            documentIndexContext.addPosition(term, position);
+            if (payloadAttribute != null) {
+              final Payload payload = payloadAttribute.getPayload();
+              if (payload != null && payload.length() > 0) {
+                documentIndexContext.addPayload(term, payload.getData(),
+                    payload.getOffset(), payload.length());
+              }
+            }
 
-          if (pvec == null) {
-            pvec = Lists.newArrayList();
-            termPositions.put(term, pvec);
           }
-
-          position += (tokens.getAttribute(PositionIncrementAttribute.class)
-              .getPositionIncrement() - 1);
-          pvec.add(++position);
-
+          tokens.end();
+        } finally {
+          tokens.close();
+        }
+        if (!field.getOmitNorms()) {
+          documentIndexContext.addFieldLength(field.name(), length, field
+              .getBoost());
         }
-        tokens.close();
 
       }
 
+      if (field.isIndexed() && field.isTermVectorStored()) {
+        documentIndexContext.termVectorFields.add(field.name());
+      }
+
       // Untokenized fields go in without a termPosition
       if (field.isIndexed() && !field.isTokenized()) {
-        String term = this.createColumnName(field.name(), field.stringValue());
-        String key = term;
-        termPositions.put(key, EMPTY_TERM_POSITIONS);
-
+        final byte[] key = termKeyArena.intern(termKeyArena
+            .getFieldPrefix(field.name()), field.stringValue());
+        documentIndexContext.addTerm(key, termKeyArena.getLastHash());
+        if (!field.getOmitNorms()) {
+          documentIndexContext.addFieldLength(field.name(), 1, field
+              .getBoost());
+        }
       }
 
       // Stores each field as a column under this doc key
@@ -156,26 +399,186 @@ public class HBaseIndexWriter { // TODO: extends IndexWriter {
             .toBytes(field.stringValue());
 
         // first byte flags if binary or not
-        final byte[] prefix = Bytes.toBytes((field.isBinary() ? 'B' : 'T'));
+        final byte[] prefix = field.isBinary() ? BINARY_PREFIX : TEXT_PREFIX;
 
         fieldsToStore.put(field.name(), Bytes.add(prefix, value));
       }
     }
-    indexStore.indexDocument(docId, new DocumentIndexContext(termPositions,
-        fieldsToStore));
-    termPositions.clear();
-    fieldsToStore.clear();
+    documentIndexContext.computeNorms(this.similarity, doc.getBoost());
+  }
+
+  /**
+   * Similarity used to compute the norms of the fields of the documents
+   * added subsequently. Needs to match the similarity of the searches.
+   * 
+   * @param similarity
+   */
+  public void setSimilarity(final Similarity similarity) {
+    this.similarity = similarity;
+  }
+
+  public Similarity getSimilarity() {
+    return this.similarity;
   }
 
-  public void commit() throws IOException {
+  /**
+   * Delete the documents of the given primary keys, added before the call.
+   * 
+   * @param keys
+   * @throws IOException
+   */
+  public synchronized void deleteDocuments(final String... keys)
+      throws IOException {
+    this.awaitPendingBatch();
+    this.indexStore.deleteDocuments(keys);
+  }
+
+  /**
+   * Replace the document of the same primary key, if any, with the given
+   * document.
+   * 
+   * @param doc
+   * @param analyzer
+   * @throws CorruptIndexException
+   * @throws IOException
+   */
+  public synchronized void updateDocument(final Document doc,
+      final Analyzer analyzer) throws CorruptIndexException, IOException {
+    this.deleteDocuments(this.getPrimaryKey(doc));
+    this.addDocument(doc, analyzer);
+  }
+
+  public synchronized void commit() throws IOException {
+    this.awaitPendingBatch();
     this.indexStore.commit();
   }
 
-  public void close() throws IOException {
-    this.indexStore.close();
+  public synchronized void close() throws IOException {
+    try {
+      this.awaitPendingBatch();
+      this.indexStore.close();
+    } finally {
+      if (this.analysisPool != null) {
+        this.analysisPool.shutdown();
+        this.storeExecutor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Documents of a batch, along with their keys and contexts. The arrays are
+   * reused across the batches.
+   */
+  static final class DocumentBatch {
+
+    Document[] documents = new Document[16];
+
+    String[] keys = new String[16];
+
+    DocumentIndexContext[] contexts = new DocumentIndexContext[16];
+
+    int count;
+
+    /**
+     * First error encountered by the analysis of the batch.
+     */
+    final AtomicReference<IOException> error = new AtomicReference<IOException>();
+
+    void reset(final Iterable<Document> docs) {
+      this.count = 0;
+      for (final Document doc : docs) {
+        if (this.count == this.documents.length) {
+          final int capacity = this.count << 1;
+          this.documents = Arrays.copyOf(this.documents, capacity);
+          this.keys = Arrays.copyOf(this.keys, capacity);
+          this.contexts = Arrays.copyOf(this.contexts, capacity);
+        }
+        if (this.contexts[this.count] == null) {
+          this.contexts[this.count] = new DocumentIndexContext();
+        }
+        this.documents[this.count++] = doc;
+      }
+    }
+  }
+
+  /**
+   * State of the analysis, reused across the documents indexed by a thread.
+   */
+  static final class AnalysisState {
+
+    final TermKeyArena termKeyArena = new TermKeyArena(MAX_INTERNED_TERM_KEYS);
+
+    final DocumentIndexContext context = new DocumentIndexContext();
+
+    final ReusableStringReader reader = new ReusableStringReader();
+
+    /**
+     * Token stream, the attributes below belong to.
+     */
+    private TokenStream lastTokenStream;
+
+    TermAttribute termAttribute;
+
+    PositionIncrementAttribute positionIncrementAttribute;
+
+    /**
+     * null, if the stream does not produce payloads.
+     */
+    PayloadAttribute payloadAttribute;
+
+    /**
+     * Retrieve the attributes of the given stream, looking them up only if
+     * the stream is not the one of the last field.
+     */
+    void setAttributes(final TokenStream tokens) {
+      if (tokens != this.lastTokenStream) {
+        this.termAttribute = tokens.addAttribute(TermAttribute.class);
+        this.positionIncrementAttribute = tokens
+            .addAttribute(PositionIncrementAttribute.class);
+        if (tokens.hasAttribute(PayloadAttribute.class)) {
+          this.payloadAttribute = tokens.getAttribute(PayloadAttribute.class);
+        } else {
+          this.payloadAttribute = null;
+        }
+        this.lastTokenStream = tokens;
+      }
+    }
   }
 
-  String createColumnName(final String fieldName, final String term) {
-    return fieldName + "/" + term;
+  /**
+   * A StringReader that can be re-initialized with another string.
+   */
+  static final class ReusableStringReader extends Reader {
+
+    private String value;
+
+    private int upto;
+
+    private int left;
+
+    void init(final String value) {
+      this.value = value;
+      this.upto = 0;
+      this.left = value.length();
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) {
+      if (this.left == 0) {
+        this.value = null;
+        return -1;
+      }
+      final int count = Math.min(len, this.left);
+      this.value.getChars(this.upto, this.upto + count, cbuf, off);
+      this.upto += count;
+      this.left -= count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      this.value = null;
+      this.left = 0;
+    }
   }
 }
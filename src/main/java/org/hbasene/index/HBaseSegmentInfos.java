@@ -0,0 +1,247 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbasene.index.util.HBaseneUtil;
+
+/**
+ * Snapshot of the segments committed to the index, as recorded in the row
+ * HBaseneConstants#ROW_SEGMENT_INFOS .
+ * <p>
+ * The segments are laid out one after the other, in the ascending order of
+ * their ids. The document number of a document, as seen by Lucene, is the
+ * doc base of its segment added to its id within the segment.
+ * </p>
+ * Tables written before the segments were recorded, numbered by a single
+ * document counter, have no such row and read as an empty index. Their layout
+ * is not read by this version: the documents of such a table are to be
+ * indexed again into a new table, for instance with
+ * HBaseIndexWriter#createBulkWriter .
+ */
+public class HBaseSegmentInfos {
+
+  private final long[] segmentIds;
+
+  private final int[] docBases;
+
+  private final int[] numDocs;
+
+  /**
+   * Formats of the term positions of the segments, see
+   * AbstractTermPositionsEncoder#forFormat .
+   */
+  private final byte[] positionsFormats;
+
+  /**
+   * Formats of the term positions of the fields encoded other than by the
+   * format of their segment, null for the segments without such fields.
+   */
+  private final Map<String, Byte>[] fieldPositionsFormats;
+
+  private final int maxDoc;
+
+  HBaseSegmentInfos(final long[] segmentIds, final int[] numDocs) {
+    this(segmentIds, numDocs, new byte[segmentIds.length]);
+  }
+
+  HBaseSegmentInfos(final long[] segmentIds, final int[] numDocs,
+      final byte[] positionsFormats) {
+    this(segmentIds, numDocs, positionsFormats,
+        newFieldFormats(segmentIds.length));
+  }
+
+  HBaseSegmentInfos(final long[] segmentIds, final int[] numDocs,
+      final byte[] positionsFormats,
+      final Map<String, Byte>[] fieldPositionsFormats) {
+    this.segmentIds = segmentIds;
+    this.numDocs = numDocs;
+    this.positionsFormats = positionsFormats;
+    this.fieldPositionsFormats = fieldPositionsFormats;
+    this.docBases = new int[segmentIds.length];
+    int docBase = 0;
+    for (int i = 0; i < segmentIds.length; ++i) {
+      this.docBases[i] = docBase;
+      docBase += numDocs[i];
+    }
+    this.maxDoc = docBase;
+  }
+
+  /**
+   * Read the segments committed to the index so far. Empty, for a table
+   * without any segment, including a table of the layout before the segments.
+   * 
+   * @param table
+   * @return
+   * @throws IOException
+   */
+  public static HBaseSegmentInfos read(final HTable table) throws IOException {
+    Get get = new Get(HBaseneConstants.ROW_SEGMENT_INFOS);
+    get.addFamily(HBaseneConstants.FAMILY_SEQUENCE);
+    Result result = table.get(get);
+    NavigableMap<byte[], byte[]> map = result
+        .getFamilyMap(HBaseneConstants.FAMILY_SEQUENCE);
+    if (map == null) {
+      return new HBaseSegmentInfos(new long[0], new int[0]);
+    }
+    // Qualifiers are non-negative longs, hence sorted already.
+    final long[] segmentIds = new long[map.size()];
+    final int[] numDocs = new int[map.size()];
+    final byte[] positionsFormats = new byte[map.size()];
+    final Map<String, Byte>[] fieldPositionsFormats = newFieldFormats(map
+        .size());
+    int i = 0;
+    for (final Map.Entry<byte[], byte[]> entry : map.entrySet()) {
+      segmentIds[i] = Bytes.toLong(entry.getKey());
+      final byte[] value = entry.getValue();
+      numDocs[i] = Bytes.toInt(value);
+      // segments written before the formats have the alpha format.
+      if (value.length > Bytes.SIZEOF_INT) {
+        positionsFormats[i] = value[Bytes.SIZEOF_INT];
+      }
+      // followed by the formats of the fields, if any, see
+      // HBaseIndexStore#createSegmentInfoPut .
+      final int[] offset = new int[] { Bytes.SIZEOF_INT + 1 };
+      while (offset[0] < value.length) {
+        final byte format = value[offset[0]++];
+        final int length = HBaseneUtil.getVInt(value, offset);
+        if (fieldPositionsFormats[i] == null) {
+          fieldPositionsFormats[i] = new HashMap<String, Byte>();
+        }
+        fieldPositionsFormats[i].put(Bytes.toString(value, offset[0], length),
+            format);
+        offset[0] += length;
+      }
+      ++i;
+    }
+    return new HBaseSegmentInfos(segmentIds, numDocs, positionsFormats,
+        fieldPositionsFormats);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Byte>[] newFieldFormats(final int size) {
+    return new Map[size];
+  }
+
+  /**
+   * Number of segments.
+   * 
+   * @return
+   */
+  public int size() {
+    return this.segmentIds.length;
+  }
+
+  /**
+   * Total number of documents across the segments.
+   * 
+   * @return
+   */
+  public int maxDoc() {
+    return this.maxDoc;
+  }
+
+  /**
+   * Index of the given segment.
+   * 
+   * @param segmentId
+   * @return -1, if the segment is not part of the snapshot.
+   */
+  public int indexOf(final long segmentId) {
+    final int index = Arrays.binarySearch(this.segmentIds, segmentId);
+    return index >= 0 ? index : -1;
+  }
+
+  /**
+   * Index of the segment containing the given document number.
+   * 
+   * @param doc
+   * @return
+   */
+  public int segmentOf(final int doc) {
+    if (doc < 0 || doc >= this.maxDoc) {
+      throw new IllegalArgumentException("Document " + doc
+          + " out of range, maxDoc " + this.maxDoc);
+    }
+    int low = 0;
+    int high = this.docBases.length - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (this.docBases[mid] <= doc) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  public long getSegmentId(final int index) {
+    return this.segmentIds[index];
+  }
+
+  public int getDocBase(final int index) {
+    return this.docBases[index];
+  }
+
+  public int getNumDocs(final int index) {
+    return this.numDocs[index];
+  }
+
+  /**
+   * Format of the term positions of the segment, see
+   * AbstractTermPositionsEncoder#forFormat .
+   * 
+   * @param index
+   * @return
+   */
+  public byte getPositionsFormat(final int index) {
+    return this.positionsFormats[index];
+  }
+
+  /**
+   * Format of the term positions of the given field in the segment, the
+   * format of the segment unless the field was encoded otherwise.
+   * 
+   * @param index
+   * @param field
+   * @return
+   */
+  public byte getPositionsFormat(final int index, final String field) {
+    final Map<String, Byte> formats = this.fieldPositionsFormats[index];
+    if (formats != null) {
+      final Byte format = formats.get(field);
+      if (format != null) {
+        return format;
+      }
+    }
+    return this.positionsFormats[index];
+  }
+}
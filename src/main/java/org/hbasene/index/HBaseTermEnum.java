@@ -20,8 +20,9 @@
 package org.hbasene.index;
 
 import java.io.IOException;
-import java.util.NavigableMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Result;
@@ -37,8 +38,12 @@ import org.apache.lucene.index.TermEnum;
  */
 public class HBaseTermEnum extends TermEnum {
 
+  private static final Log LOG = LogFactory.getLog(HBaseTermEnum.class);
+
   private final HTable table;
 
+  private final HBaseSegmentInfos segmentInfos;
+
   private ResultScanner resultScanner;
 
   private Term currentTerm;
@@ -48,6 +53,7 @@ public class HBaseTermEnum extends TermEnum {
   public HBaseTermEnum(final HBaseIndexReader reader) throws IOException {
     this.pool = reader.getTablePool();
     table = pool.getTable(reader.getIndexName());
+    this.segmentInfos = reader.getSegmentInfos();
     this.resultScanner = table.getScanner(HBaseneConstants.FAMILY_TERMVECTOR);
   }
 
@@ -59,27 +65,13 @@ public class HBaseTermEnum extends TermEnum {
 
   @Override
   public int docFreq() {
-
-    Scan get = new Scan(Bytes.toBytes(this.currentTerm.field() + "/"
-        + this.currentTerm.text()));
-    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
-    ResultScanner scanner = null;
     try {
-      scanner = this.table.getScanner(HBaseneConstants.FAMILY_TERMVECTOR);
-      final Result result = scanner.next();
-
-      if (result == null) {
-        return 0;
-      }
-      NavigableMap<byte[], byte[]> map = result
-          .getFamilyMap(HBaseneConstants.FAMILY_TERMVECTOR);
-      return map.size();
-    } catch (Exception ex) {
+      return HBaseIndexReader.docFreq(this.table, this.segmentInfos,
+          this.currentTerm);
+    } catch (IOException ex) {
+      LOG.error("HBaseTermEnum#docFreq of " + this.currentTerm, ex);
       return 0;
-    } finally {
-      scanner.close();
     }
-
   }
 
   @Override
@@ -88,8 +80,10 @@ public class HBaseTermEnum extends TermEnum {
       Result result = resultScanner.next();
       if (result != null) {
         String fieldTerm = Bytes.toString(result.getRow());
-        String[] fieldTerms = fieldTerm.split("/");
-        this.currentTerm = new Term(fieldTerms[0], fieldTerms[1]);
+        // the text may contain the separator, as the numeric trie terms.
+        final int separator = fieldTerm.indexOf('/');
+        this.currentTerm = new Term(fieldTerm.substring(0, separator),
+            fieldTerm.substring(separator + 1));
         return true;
       } else {
         return false;
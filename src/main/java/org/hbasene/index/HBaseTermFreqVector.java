@@ -19,57 +19,215 @@
  */
 package org.hbasene.index;
 
-import org.apache.hadoop.hbase.client.HTablePool;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.lucene.index.TermFreqVector;
+import org.hbasene.index.util.HBaseneUtil;
 
 /**
  * HBase implementation of the Term Frequency Vector
+ * <p>
+ * The vector of a field of a document is kept in a single cell of the family
+ * HBaseneConstants#FAMILY_FORWARD , as the number of the terms followed by
+ * the terms in the order of their code points ( the order of their UTF-8
+ * bytes ), each front-coded against the previous term, along with its
+ * frequency. Every term is encoded as the length of the
+ * prefix ( UTF-8 bytes ) shared with the previous term, the length of the
+ * rest of the term, the rest of the term and the frequency, with all the
+ * lengths and the frequency being variable-length ints.
+ * </p>
  */
 public class HBaseTermFreqVector implements TermFreqVector {
 
-  private HTablePool tablePool;
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  /**
+   * Compares the strings in the order of their code points, the order of the
+   * terms of a vector, which differs from the order of the UTF-16 chars for
+   * the supplementary characters.
+   */
+  private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+
+    @Override
+    public int compare(String left, String right) {
+      final int length = Math.min(left.length(), right.length());
+      for (int i = 0; i < length; ++i) {
+        int c1 = left.charAt(i);
+        int c2 = right.charAt(i);
+        if (c1 != c2) {
+          if (c1 >= 0xd800 && c2 >= 0xd800) {
+            // surrogates after the chars above them.
+            c1 += (c1 >= 0xe000) ? -0x800 : 0x2000;
+            c2 += (c2 >= 0xe000) ? -0x800 : 0x2000;
+          }
+          return c1 - c2;
+        }
+      }
+      return left.length() - right.length();
+    }
+  };
+
+  private final String field;
 
-  private String indexName;
+  /**
+   * Terms, in the order of their code points.
+   */
+  private final String[] terms;
 
-  public HBaseTermFreqVector(final HBaseIndexReader indexReader) {
-    this.tablePool = indexReader.getTablePool();
-    this.indexName = indexReader.getIndexName();
+  private final int[] termFreqs;
+
+  /**
+   * Decode the term vector of the field.
+   * 
+   * @param field
+   * @param encoded
+   *          As returned by
+   *          {@link #encode(byte[][], int, int[], int[], int, int)}.
+   */
+  public HBaseTermFreqVector(final String field, final byte[] encoded) {
+    this.field = field;
+    final int[] offset = new int[1];
+    final int size = HBaseneUtil.getVInt(encoded, offset);
+    this.terms = new String[size];
+    this.termFreqs = new int[size];
+    byte[] term = new byte[16];
+    for (int i = 0; i < size; ++i) {
+      final int prefix = HBaseneUtil.getVInt(encoded, offset);
+      final int suffix = HBaseneUtil.getVInt(encoded, offset);
+      if (prefix + suffix > term.length) {
+        term = Arrays.copyOf(term, Math.max(prefix + suffix, term.length << 1));
+      }
+      System.arraycopy(encoded, offset[0], term, prefix, suffix);
+      offset[0] += suffix;
+      this.terms[i] = Bytes.toString(term, 0, prefix + suffix);
+      this.termFreqs[i] = HBaseneUtil.getVInt(encoded, offset);
+    }
   }
 
   @Override
   public String getField() {
-    // TODO Auto-generated method stub
-    return null;
+    return this.field;
   }
 
   @Override
   public int[] getTermFrequencies() {
-    // TODO Auto-generated method stub
-    return null;
+    return this.termFreqs;
   }
 
   @Override
   public String[] getTerms() {
-    // TODO Auto-generated method stub
-    return null;
+    return this.terms;
   }
 
   @Override
   public int indexOf(String term) {
-    // TODO Auto-generated method stub
-    return 0;
+    final int index = Arrays.binarySearch(this.terms, term, CODE_POINT_ORDER);
+    return index >= 0 ? index : -1;
   }
 
   @Override
   public int[] indexesOf(String[] terms, int start, int len) {
-    // TODO Auto-generated method stub
-    return null;
+    final int[] indexes = new int[len];
+    for (int i = 0; i < len; ++i) {
+      indexes[i] = this.indexOf(terms[start + i]);
+    }
+    return indexes;
   }
 
   @Override
   public int size() {
-    // TODO Auto-generated method stub
-    return 0;
+    return this.terms.length;
+  }
+
+  /**
+   * Encode the term vector of a field, from the keys ( field/term ) of the
+   * terms of a document.
+   * 
+   * @param keys
+   *          Keys of the terms of the document.
+   * @param prefixLength
+   *          Length of the field and the separator, shared by the keys of the
+   *          field.
+   * @param termFreqs
+   *          Frequencies of the terms of the document. Terms without any
+   *          positions occur once.
+   * @param terms
+   *          Indices of the terms of the field in [from, to), sorted in place
+   *          by their keys.
+   * @param from
+   * @param to
+   * @return
+   */
+  static byte[] encode(final byte[][] keys, final int prefixLength,
+      final int[] termFreqs, final int[] terms, final int from, final int to) {
+    sort(keys, terms, from, to);
+    int maxLength = 5;
+    for (int i = from; i < to; ++i) {
+      maxLength += 15 + keys[terms[i]].length - prefixLength;
+    }
+    final byte[] out = new byte[maxLength];
+    int offset = HBaseneUtil.putVInt(out, 0, to - from);
+    byte[] previous = null;
+    for (int i = from; i < to; ++i) {
+      final byte[] term = keys[terms[i]];
+      int prefix = 0;
+      if (previous != null) {
+        final int limit = Math.min(previous.length, term.length)
+            - prefixLength;
+        while (prefix < limit
+            && previous[prefixLength + prefix] == term[prefixLength + prefix]) {
+          ++prefix;
+        }
+      }
+      final int suffix = term.length - prefixLength - prefix;
+      offset = HBaseneUtil.putVInt(out, offset, prefix);
+      offset = HBaseneUtil.putVInt(out, offset, suffix);
+      System.arraycopy(term, prefixLength + prefix, out, offset, suffix);
+      offset += suffix;
+      offset = HBaseneUtil.putVInt(out, offset, Math.max(1,
+          termFreqs[terms[i]]));
+      previous = term;
+    }
+    return Arrays.copyOf(out, offset);
   }
 
+  /**
+   * Sort the indices of the terms by the keys of the terms, in the UTF-8
+   * byte order, that is the order of the code points.
+   */
+  private static void sort(final byte[][] keys, final int[] terms,
+      final int from, final int to) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      for (int i = from + 1; i < to; ++i) {
+        final int term = terms[i];
+        int j = i - 1;
+        while (j >= from && Bytes.compareTo(keys[terms[j]], keys[term]) > 0) {
+          terms[j + 1] = terms[j];
+          --j;
+        }
+        terms[j + 1] = term;
+      }
+      return;
+    }
+    final byte[] pivot = keys[terms[(from + to) >>> 1]];
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      while (Bytes.compareTo(keys[terms[low]], pivot) < 0) {
+        ++low;
+      }
+      while (Bytes.compareTo(keys[terms[high]], pivot) > 0) {
+        --high;
+      }
+      if (low <= high) {
+        final int term = terms[low];
+        terms[low++] = terms[high];
+        terms[high--] = term;
+      }
+    }
+    sort(keys, terms, from, high + 1);
+    sort(keys, terms, low, to);
+  }
 }
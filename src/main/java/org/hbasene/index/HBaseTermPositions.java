@@ -21,12 +21,11 @@
 package org.hbasene.index;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NavigableMap;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTablePool;
@@ -35,11 +34,21 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.util.OpenBitSet;
+import org.hbasene.index.util.HBaseneUtil;
 
 import com.google.common.base.Function;
 
 /**
  * Term Docs implementation for HBase.
+ * <p>
+ * The docsets of the term are read, for all the segments, on
+ * {@link #seek(Term)}. The term positions are read lazily, a block per
+ * segment, the first time the frequency or the positions of a document of the
+ * segment are asked for. So are the payloads, a block per segment, the first
+ * time a payload of the segment is asked for. A payload is copied out of its
+ * block only when retrieved.
+ * </p>
  */
 public class HBaseTermPositions implements TermPositions {
 
@@ -63,11 +72,53 @@ public class HBaseTermPositions implements TermPositions {
   private final HTablePool pool;
 
   /**
-   * List of documents corresponding to the term docs under consideration.
+   * Segments visible to the reader.
    */
-  private List<byte[]> documents;
+  private final HBaseSegmentInfos segmentInfos;
+
+  /**
+   * Deleted documents of the reader, skipped by {@link #next()}.
+   */
+  private final OpenBitSet deletedDocs;
+
+  private final HBaseIndexReader reader;
+
+  /**
+   * Whether the field of the current term has no frequencies and positions.
+   */
+  private boolean omitPositions;
+
+  /**
+   * Indices ( into segmentInfos ) of the segments containing the term, in the
+   * ascending order of the documents.
+   */
+  private int[] segments = new int[0];
+
+  /**
+   * Docsets of the term, one per segment, as views over the buffers of the
+   * KeyValues of the term vector, not copied out.
+   */
+  private byte[][] docSetBuffers = new byte[0][];
+
+  private int[] docSetOffsets = new int[0];
+
+  private int[] docSetLengths = new int[0];
+
+  private int numSegments;
+
+  /**
+   * Current index into the segments of the term.
+   */
+  private int currentSegment;
+
+  /**
+   * Ids ( within the current segment ) of the documents containing the term.
+   */
+  private int[] documents;
   // TODO:WeakRef this and load on demand, if taken away, to save memory.
 
+  private int docBase;
+
   /**
    * Current index into the documents array.
    */
@@ -78,61 +129,298 @@ public class HBaseTermPositions implements TermPositions {
    */
   private byte[] currentRow;
 
+  private String currentField;
+
+  /**
+   * Block of the term positions of the current segment, null if none. See
+   * HBaseneConstants#FAMILY_TERMFREQUENCIES .
+   */
+  private byte[] positionsBlock;
+
+  /**
+   * Offset of the positions block within {@link #positionsBlock}, the buffer
+   * of the KeyValue. All the other offsets into the block are absolute.
+   */
+  private int positionsBlockStart;
+
+  private boolean positionsLoaded;
+
+  /**
+   * Cursor into the positions block. The documents are visited in the
+   * ascending order, hence the cursor only moves forward.
+   */
+  private int blockIndex;
+
+  private int blockOffset;
+
+  /**
+   * Number of the documents of the positions block.
+   */
+  private int positionsBlockDocs;
+
+  /**
+   * Number of the skip entries of the positions block, an entry every
+   * HBaseIndexStore#POSITIONS_SKIP_INTERVAL documents.
+   */
+  private int numPositionsSkips;
+
+  /**
+   * Frequency of the term in the current document, -1 if not known yet.
+   */
+  private int currentFreq;
+
+  private int currentPositionsOffset;
+
+  private int currentPositionsLength;
+
   private int[] currentTermPositions;
 
   private int currentTermPositionIndex;
 
   /**
-   * Encoder of the term positions in the underlying store.
+   * Block of the payloads of the current segment, null if none. See
+   * HBaseneConstants#FAMILY_PAYLOADS . Read the first time a payload of the
+   * segment is asked for.
+   */
+  private byte[] payloadsBlock;
+
+  /**
+   * Offset of the payloads block within {@link #payloadsBlock}.
+   */
+  private int payloadsBlockStart;
+
+  private boolean payloadsLoaded;
+
+  /**
+   * Forward cursor into the payloads block, as for the positions block.
+   */
+  private int payloadsBlockIndex;
+
+  private int payloadsBlockOffset;
+
+  /**
+   * Whether the payloads of the current document are located in the block.
+   */
+  private boolean payloadsLocated;
+
+  /**
+   * Offset of the payload lengths of the current document in the block, -1
+   * if the document has no payloads.
+   */
+  private int currentPayloadLengthsOffset;
+
+  private int currentPayloadsFreq;
+
+  /**
+   * Position ( index ) whose payload starts at currentPayloadOffset .
+   */
+  private int currentPayloadPosition;
+
+  private int currentPayloadOffset;
+
+  private boolean payloadConsumed;
+
+  /**
+   * Encoder of the term positions of the segments without a format.
+   */
+  private final AbstractTermPositionsEncoder defaultEncoder;
+
+  /**
+   * Encoder of the term positions of the current segment.
    */
   private AbstractTermPositionsEncoder termPositionsEncoder;
 
+  /**
+   * Decoded positions, reused across the documents.
+   */
+  private int[] positionsBuffer;
+
   public HBaseTermPositions(final HBaseIndexReader reader,
       final AbstractTermPositionsEncoder termPositionsEncoder)
       throws IOException {
     this.pool = reader.getTablePool();
     this.table = this.pool.getTable(reader.getIndexName());
+    this.segmentInfos = reader.getSegmentInfos();
+    this.deletedDocs = reader.getDeletedDocs();
+    this.reader = reader;
+    this.defaultEncoder = termPositionsEncoder;
     this.termPositionsEncoder = termPositionsEncoder;
   }
 
   @Override
   public void close() throws IOException {
-    this.documents.clear();
-    this.currentIndex = 0;
+    this.numSegments = 0;
+    this.documents = null;
+    this.positionsBlock = null;
     this.pool.putTable(table);
   }
 
   @Override
   public int doc() {
-    return (int) Bytes.toLong(this.documents.get(this.currentIndex));
+    return this.docBase + this.documents[this.currentIndex];
   }
 
   @Override
   public int freq() {
-    return this.currentTermPositions.length;
+    if (this.currentFreq < 0) {
+      try {
+        this.loadTermFrequency();
+      } catch (IOException ex) {
+        throw new RuntimeException("Error reading the positions of "
+            + Bytes.toString(this.currentRow), ex);
+      }
+    }
+    return this.currentFreq;
   }
 
   @Override
   public boolean next() throws IOException {
-    if (currentIndex < (this.documents.size() - 1)) {
+    do {
+      while (this.documents == null
+          || this.currentIndex >= this.documents.length - 1) {
+        if (!this.nextSegment()) {
+          return false;
+        }
+      }
       this.currentIndex++;
-      resetTermPositions();
-      return true;
-    } else {
+    } while (this.deletedDocs.get(this.doc()));
+    resetTermPositions();
+    return true;
+  }
+
+  private boolean nextSegment() {
+    if (this.currentSegment >= this.numSegments - 1) {
       return false;
     }
+    this.currentSegment++;
+    this.documents = HBaseneUtil.toDocIds(
+        this.docSetBuffers[this.currentSegment],
+        this.docSetOffsets[this.currentSegment],
+        this.docSetLengths[this.currentSegment]);
+    this.docBase = this.segmentInfos
+        .getDocBase(this.segments[this.currentSegment]);
+    final byte format = this.segmentInfos.getPositionsFormat(
+        this.segments[this.currentSegment], this.currentField);
+    if (format == AbstractTermPositionsEncoder.FORMAT_ALPHA) {
+      this.termPositionsEncoder = this.defaultEncoder;
+    } else {
+      this.termPositionsEncoder = AbstractTermPositionsEncoder
+          .forFormat(format);
+    }
+    this.currentIndex = -1;
+    this.positionsBlock = null;
+    this.positionsLoaded = false;
+    this.payloadsBlock = null;
+    this.payloadsLoaded = false;
+    return true;
   }
 
-  void resetTermPositions() throws IOException {
-    Get get = new Get(this.currentRow);
-    get.addColumn(HBaseneConstants.FAMILY_TERMVECTOR, this.documents
-        .get(this.currentIndex));
-    Result result = table.get(get);
-    byte[] tfArray = result.getValue(HBaseneConstants.FAMILY_TERMVECTOR,
-        this.documents.get(this.currentIndex));
+  void resetTermPositions() {
+    this.currentFreq = -1;
+    this.currentTermPositions = null;
     this.currentTermPositionIndex = 0;
-    this.currentTermPositions = this.termPositionsEncoder.decode(tfArray);
+    this.payloadsLocated = false;
+    this.payloadConsumed = false;
+  }
+
+  /**
+   * Locate the positions of the current document in the positions block of
+   * the segment, retrieving the block the first time.
+   */
+  private void loadTermFrequency() throws IOException {
+    if (this.omitPositions) {
+      this.currentFreq = 1;
+      this.currentPositionsLength = 0;
+      return;
+    }
+    if (!this.positionsLoaded) {
+      final long segmentId = this.segmentInfos
+          .getSegmentId(this.segments[this.currentSegment]);
+      final byte[] qualifier = Bytes.toBytes(segmentId);
+      Get get = new Get(Bytes.add(HBaseIndexStore.TERM_FREQ_PREFIX_BYTES,
+          this.currentRow));
+      get.addColumn(HBaseneConstants.FAMILY_TERMFREQUENCIES, qualifier);
+      final KeyValue kv = this.table.get(get).getColumnLatest(
+          HBaseneConstants.FAMILY_TERMFREQUENCIES, qualifier);
+      this.positionsLoaded = true;
+      this.blockIndex = 0;
+      this.numPositionsSkips = 0;
+      if (kv != null) {
+        this.positionsBlock = kv.getBuffer();
+        this.positionsBlockStart = kv.getValueOffset();
+        final int header = Bytes.toInt(this.positionsBlock,
+            this.positionsBlockStart);
+        this.positionsBlockDocs = header & ~HBaseIndexStore.POSITIONS_SKIP_FLAG;
+        this.blockOffset = this.positionsBlockStart + Bytes.SIZEOF_INT;
+        if ((header & HBaseIndexStore.POSITIONS_SKIP_FLAG) != 0) {
+          this.numPositionsSkips = Bytes.toInt(this.positionsBlock,
+              this.blockOffset);
+          this.blockOffset += (1 + 2 * this.numPositionsSkips)
+              * Bytes.SIZEOF_INT;
+        }
+      } else {
+        this.positionsBlock = null;
+      }
+    }
+    final int docId = this.documents[this.currentIndex];
+    if (this.positionsBlock != null) {
+      if (this.numPositionsSkips > 0) {
+        this.skipPositions(docId);
+      }
+      while (this.blockIndex < this.positionsBlockDocs) {
+        final int blockDocId = Bytes.toInt(this.positionsBlock,
+            this.blockOffset);
+        final int length = Bytes.toInt(this.positionsBlock, this.blockOffset
+            + Bytes.SIZEOF_INT);
+        if (blockDocId == docId) {
+          this.currentPositionsOffset = this.blockOffset + 2
+              * Bytes.SIZEOF_INT;
+          this.currentPositionsLength = length;
+          this.currentFreq = this.termPositionsEncoder.getTermFrequency(
+              this.positionsBlock, this.currentPositionsOffset, length);
+          return;
+        } else if (blockDocId > docId) {
+          break;
+        }
+        this.blockOffset += 2 * Bytes.SIZEOF_INT + length;
+        this.blockIndex++;
+      }
+    }
+    // Indexed, but not tokenized. Single occurrence, with no positions.
+    this.currentFreq = 1;
+    this.currentPositionsLength = 0;
+  }
+
+  /**
+   * Move the cursor of the positions block forward to the last skip entry
+   * not beyond the given document, if any is ahead of the cursor. The skip
+   * entries are binary searched, the whole block being at hand.
+   * 
+   * @param docId
+   */
+  private void skipPositions(final int docId) {
+    int low = this.blockIndex / HBaseIndexStore.POSITIONS_SKIP_INTERVAL;
+    int high = this.numPositionsSkips - 1;
+    int skip = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (Bytes.toInt(this.positionsBlock, this.skipEntryOffset(mid)) <= docId) {
+        skip = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (skip >= 0) {
+      this.blockIndex = (skip + 1) * HBaseIndexStore.POSITIONS_SKIP_INTERVAL;
+      this.blockOffset = this.positionsBlockStart
+          + Bytes.toInt(this.positionsBlock, this.skipEntryOffset(skip)
+              + Bytes.SIZEOF_INT);
+    }
+  }
 
+  private int skipEntryOffset(final int skip) {
+    return this.positionsBlockStart + (2 + 2 * skip) * Bytes.SIZEOF_INT;
   }
 
   @Override
@@ -154,12 +442,34 @@ public class HBaseTermPositions implements TermPositions {
   public void seek(Term term) throws IOException {
     final String rowKey = term.field() + "/" + term.text();
     this.currentRow = Bytes.toBytes(rowKey);
-    Result result = this.getRowWithTermVectors();
-    NavigableMap<byte[], byte[]> map = result
-        .getFamilyMap(HBaseneConstants.FAMILY_TERMVECTOR);
-
-    this.documents = new ArrayList<byte[]>(map.keySet());
-    this.currentIndex = -1;
+    this.currentField = term.field();
+    this.omitPositions = this.reader.omitsTermFreqAndPositions(term.field());
+    // the docsets are read in place, out of the KeyValues of the result.
+    final KeyValue[] kvs = this.getRowWithTermVectors().raw();
+    this.numSegments = 0;
+    if (kvs != null) {
+      if (this.segments.length < kvs.length) {
+        this.segments = new int[kvs.length];
+        this.docSetBuffers = new byte[kvs.length][];
+        this.docSetOffsets = new int[kvs.length];
+        this.docSetLengths = new int[kvs.length];
+      }
+      // segment ids are sorted, and so are the doc bases.
+      for (final KeyValue kv : kvs) {
+        final int index = this.segmentInfos.indexOf(Bytes.toLong(kv
+            .getBuffer(), kv.getQualifierOffset()));
+        if (index >= 0) {
+          this.segments[this.numSegments] = index;
+          this.docSetBuffers[this.numSegments] = kv.getBuffer();
+          this.docSetOffsets[this.numSegments] = kv.getValueOffset();
+          this.docSetLengths[this.numSegments] = kv.getValueLength();
+          this.numSegments++;
+        }
+      }
+    }
+    this.currentSegment = -1;
+    this.documents = null;
+    this.positionsBlock = null;
   }
 
   Result getRowWithTermVectors() throws IOException {
@@ -173,35 +483,232 @@ public class HBaseTermPositions implements TermPositions {
     seek(termEnum.term());
   }
 
+  /**
+   * Skip to the first document, beyond the current one, not below the target.
+   * The segments ending before the target are passed over without reading
+   * their docsets, and the documents of the segment are galloped over.
+   */
   @Override
   public boolean skipTo(int target) throws IOException {
-    // TODO: Should the starting Index of the loop be 0 or currentIndex ?
-    for (int i = 0; i < this.documents.size(); ++i) {
-      if (Bytes.toLong(this.documents.get(i)) >= target) {
-        currentIndex = i;
-        return true;
+    while (this.documents == null || this.documents.length == 0
+        || this.docBase + this.documents[this.documents.length - 1] < target) {
+      if (!this.skipSegments(target)) {
+        return false;
       }
     }
-    return false;
+    this.currentIndex = gallop(this.documents, this.currentIndex + 1, target
+        - this.docBase) - 1;
+    return next();
+  }
+
+  /**
+   * Move to the first of the following segments holding documents not below
+   * the target, by a galloping search over the doc ranges of the segments.
+   * 
+   * @param target
+   * @return false, if there is no such segment.
+   */
+  private boolean skipSegments(final int target) {
+    int low = this.currentSegment + 1;
+    int high = low;
+    int step = 1;
+    while (high < this.numSegments && this.segmentEnd(high) <= target) {
+      low = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, this.numSegments);
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (this.segmentEnd(mid) <= target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low >= this.numSegments) {
+      this.currentSegment = this.numSegments - 1;
+      this.documents = null;
+      return false;
+    }
+    this.currentSegment = low - 1;
+    return this.nextSegment();
+  }
+
+  /**
+   * Document number past the last document of the given segment of the
+   * term.
+   */
+  private int segmentEnd(final int segment) {
+    final int index = this.segments[segment];
+    return this.segmentInfos.getDocBase(index)
+        + this.segmentInfos.getNumDocs(index);
+  }
+
+  /**
+   * Index of the first of the docs, from the given index onwards, not below
+   * the target, docs.length if none.
+   * 
+   * @param docs
+   *          Ascending.
+   * @param from
+   * @param target
+   * @return
+   */
+  static int gallop(final int[] docs, final int from, final int target) {
+    int low = from;
+    int high = from;
+    int step = 1;
+    while (high < docs.length && docs[high] < target) {
+      low = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, docs.length);
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (docs[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
   }
 
   @Override
   public byte[] getPayload(byte[] data, int offset) throws IOException {
-    return null;
+    final int length = this.locatePayload();
+    if (length == 0) {
+      return null;
+    }
+    if (this.payloadConsumed) {
+      throw new IOException("Payload of the position already retrieved");
+    }
+    this.payloadConsumed = true;
+    final int from = this.currentPayloadOffset;
+    if (data == null || data.length - offset < length) {
+      return Arrays.copyOfRange(this.payloadsBlock, from, from + length);
+    }
+    System.arraycopy(this.payloadsBlock, from, data, offset, length);
+    return data;
   }
 
   @Override
   public int getPayloadLength() {
-    return 0;
+    try {
+      return this.locatePayload();
+    } catch (IOException ex) {
+      throw new RuntimeException("Error reading the payloads of "
+          + Bytes.toString(this.currentRow), ex);
+    }
   }
 
   @Override
   public boolean isPayloadAvailable() {
-    return false;
+    return !this.payloadConsumed && this.getPayloadLength() > 0;
+  }
+
+  /**
+   * Locate the payload of the current position in the payloads block of the
+   * segment, retrieving the block the first time. The payload is left in the
+   * block, until it is asked for.
+   * 
+   * @return the length of the payload, 0 if none.
+   */
+  private int locatePayload() throws IOException {
+    final int position = this.currentTermPositionIndex - 1;
+    if (position < 0) {
+      return 0;
+    }
+    if (!this.payloadsLocated) {
+      this.locateDocumentPayloads();
+    }
+    if (this.currentPayloadLengthsOffset < 0
+        || position >= this.currentPayloadsFreq) {
+      return 0;
+    }
+    // positions are visited in order, hence the offset only moves forward.
+    while (this.currentPayloadPosition < position) {
+      this.currentPayloadOffset += Bytes.toInt(this.payloadsBlock,
+          this.currentPayloadLengthsOffset + this.currentPayloadPosition
+              * Bytes.SIZEOF_INT);
+      this.currentPayloadPosition++;
+    }
+    return Bytes.toInt(this.payloadsBlock, this.currentPayloadLengthsOffset
+        + position * Bytes.SIZEOF_INT);
+  }
+
+  private void locateDocumentPayloads() throws IOException {
+    if (!this.payloadsLoaded) {
+      final long segmentId = this.segmentInfos
+          .getSegmentId(this.segments[this.currentSegment]);
+      final byte[] qualifier = Bytes.toBytes(segmentId);
+      Get get = new Get(Bytes.add(HBaseIndexStore.TERM_FREQ_PREFIX_BYTES,
+          this.currentRow));
+      get.addColumn(HBaseneConstants.FAMILY_PAYLOADS, qualifier);
+      final KeyValue kv = this.table.get(get).getColumnLatest(
+          HBaseneConstants.FAMILY_PAYLOADS, qualifier);
+      if (kv != null) {
+        this.payloadsBlock = kv.getBuffer();
+        this.payloadsBlockStart = kv.getValueOffset();
+      } else {
+        this.payloadsBlock = null;
+      }
+      this.payloadsLoaded = true;
+      this.payloadsBlockIndex = 0;
+      this.payloadsBlockOffset = this.payloadsBlockStart + Bytes.SIZEOF_INT;
+    }
+    this.payloadsLocated = true;
+    this.currentPayloadLengthsOffset = -1;
+    if (this.payloadsBlock == null) {
+      return;
+    }
+    final int docId = this.documents[this.currentIndex];
+    final int blockDocs = Bytes.toInt(this.payloadsBlock,
+        this.payloadsBlockStart);
+    while (this.payloadsBlockIndex < blockDocs) {
+      final int blockDocId = Bytes.toInt(this.payloadsBlock,
+          this.payloadsBlockOffset);
+      final int freq = Bytes.toInt(this.payloadsBlock,
+          this.payloadsBlockOffset + Bytes.SIZEOF_INT);
+      final int lengthsOffset = this.payloadsBlockOffset + 2
+          * Bytes.SIZEOF_INT;
+      if (blockDocId > docId) {
+        return;
+      }
+      int payloadsOffset = lengthsOffset + freq * Bytes.SIZEOF_INT;
+      if (blockDocId == docId) {
+        this.currentPayloadLengthsOffset = lengthsOffset;
+        this.currentPayloadsFreq = freq;
+        this.currentPayloadPosition = 0;
+        this.currentPayloadOffset = payloadsOffset;
+        return;
+      }
+      for (int i = 0; i < freq; ++i) {
+        payloadsOffset += Bytes.toInt(this.payloadsBlock, lengthsOffset + i
+            * Bytes.SIZEOF_INT);
+      }
+      this.payloadsBlockOffset = payloadsOffset;
+      this.payloadsBlockIndex++;
+    }
   }
 
   @Override
   public int nextPosition() throws IOException {
+    if (this.currentTermPositions == null) {
+      if (this.currentFreq < 0) {
+        this.loadTermFrequency();
+      }
+      if (this.currentPositionsLength == 0) {
+        return 0;
+      }
+      this.positionsBuffer = this.termPositionsEncoder.decode(
+          this.positionsBlock, this.currentPositionsOffset,
+          this.currentPositionsLength, this.positionsBuffer);
+      this.currentTermPositions = this.positionsBuffer;
+    }
+    this.payloadConsumed = false;
     return this.currentTermPositions[this.currentTermPositionIndex++];
   }
 }
@@ -38,12 +38,24 @@ public interface HBaseneConstants {
   
   /**
    * Column family representing the term positions for a given document in a given document.
+   * The row is the term prefixed by {@link #TERM_FREQ_PREFIX}, with a column
+   * per segment. The value of a column is the block of the term positions of
+   * the documents of the segment, in the ascending order of the documents, as
+   * <code>numDocs, ( docId, length, encoded positions )*</code> . Blocks of
+   * more than 16 documents have the top bit of numDocs set, and carry skip
+   * entries between numDocs and the documents, as
+   * <code>numSkips, ( docId, offset )*</code> , the offset in the block of
+   * every 16th document.
    */
   static final byte[] FAMILY_TERMFREQUENCIES = Bytes.toBytes("fm.termFrequencies");
   
   /**
    * Column Family representing the payloads associated with a given term for a given document.
-   * 
+   * The payloads are kept in the row of the term positions ( see
+   * {@link #FAMILY_TERMFREQUENCIES} ), with a column per segment id and the
+   * block of the payloads of the segment as the value, as
+   * <code>numDocs, (docId, freq, length<sub>1</sub> .. length<sub>freq</sub>,
+   * payloads)*</code> with the documents without any payload left out.
    */
   static final byte[] FAMILY_PAYLOADS = Bytes.toBytes("fm.payloads");
 
@@ -54,6 +66,28 @@ public interface HBaseneConstants {
    */
   static final byte[] FAMILY_FIELDS = Bytes.toBytes("fm.fields");
 
+  /**
+   * Qualifier belonging to family {@link #FAMILY_FIELDS}, holding all the
+   * stored fields of a document in a single record, see
+   * {@link #CONF_PACKED_FIELDS}.
+   */
+  static final byte[] QUALIFIER_PACKED_FIELDS = Bytes.toBytes("qual.fields");
+
+  /**
+   * Column family that contains the norms of the fields, with a row per field
+   * and a column per segment id, with the norms of the documents of the
+   * segment ( a byte per document ) as the value.
+   */
+  static final byte[] FAMILY_NORMS = Bytes.toBytes("fm.norms");
+
+  /**
+   * Column family that contains the term vectors of the documents ( a forward
+   * index ), in the row of the stored fields of the document, with a column
+   * per field stored with term vectors. See {@link HBaseTermFreqVector} for
+   * the encoding.
+   */
+  static final byte[] FAMILY_FORWARD = Bytes.toBytes("fm.forward");
+
   /**
    * Column family that contains the mapping from the docId to an integer
    */
@@ -101,6 +135,36 @@ public interface HBaseneConstants {
    * Row key representing a sequence.
    */
   static final byte[] ROW_SEGMENT_ID = Bytes.toBytes("segmentId");
+
+  /**
+   * Row Key of the committed segments, in the family {@link #FAMILY_SEQUENCE},
+   * with a column per segment id and the number of documents of the segment
+   * ( an int ) as the value, followed by the format byte of its term
+   * positions.
+   */
+  static final byte[] ROW_SEGMENT_INFOS = Bytes.toBytes("segmentInfos");
+
+  /**
+   * Row Key of the deleted documents, in the family {@link #FAMILY_SEQUENCE},
+   * with a column per segment id and the bitset of the deleted documents of
+   * the segment as the value.
+   */
+  static final byte[] ROW_DELETIONS = Bytes.toBytes("deletions");
+
+  /**
+   * Row Key of the options of the fields, in the family
+   * {@link #FAMILY_SEQUENCE}, with a column per field name and the flags of
+   * the field ( a byte ) as the value. Fields with the default options have no
+   * column.
+   */
+  static final byte[] ROW_FIELD_INFOS = Bytes.toBytes("fieldInfos");
+
+  /**
+   * Flag of a field indexed without the term frequencies and the positions,
+   * see Fieldable#getOmitTermFreqAndPositions() . The flag sticks, once set
+   * for a field.
+   */
+  static final byte FIELD_OMIT_TERM_FREQ_AND_POSITIONS = 0x1;
   
   
   /**
@@ -115,4 +179,126 @@ public interface HBaseneConstants {
    * Auto-Commit frequency of the maxdocs.
    */
   static final String CONF_AUTOCOMMIT_MAXDOCS = "hbasene.autocommit.maxdocs";
+
+  
+  /**
+   * Number of independent segment buffers (stripes) used by
+   * {@link ConcurrentHBaseIndexStore}. Defaults to the number of available
+   * processors.
+   */
+  static final String CONF_INDEX_STRIPES = "hbasene.index.stripes";
+
+  
+  /**
+   * Maximum number of full segments handed over to the background flusher,
+   * but not yet flushed. Indexing blocks once the limit is reached.
+   */
+  static final String CONF_MAX_SEGMENTS_IN_FLIGHT = "hbasene.commit.maxinflight";
+
+  
+  /**
+   * Budget of the heap ( in MB ) held by the postings and the stored fields of
+   * a segment, beyond which the segment is committed, irrespective of
+   * {@link #CONF_AUTOCOMMIT_MAXDOCS}. Segments in flight hold their budget
+   * until they are flushed, hence the heap used by a store is up to
+   * ( 1 + {@link #CONF_MAX_SEGMENTS_IN_FLIGHT} ) times the budget.
+   */
+  static final String CONF_RAM_BUFFER_SIZE_MB = "hbasene.ram.buffer.mb";
+  
+  /**
+   * Default for {@link #CONF_RAM_BUFFER_SIZE_MB}.
+   */
+  static final float DEFAULT_RAM_BUFFER_SIZE_MB = 16.0f;
+
+  
+  /**
+   * Number of segment ids leased at a time from the counter of the index, by
+   * {@link SegmentIdAllocator}.
+   */
+  static final String CONF_SEGMENT_ID_BLOCK_SIZE = "hbasene.segment.id.block";
+
+  /**
+   * Default for {@link #CONF_SEGMENT_ID_BLOCK_SIZE}.
+   */
+  static final int DEFAULT_SEGMENT_ID_BLOCK_SIZE = 1000;
+
+  
+  /**
+   * Whether the Puts of the docsets of the terms ( family
+   * {@link #FAMILY_TERMVECTOR} ), and of the norms ( family
+   * {@link #FAMILY_NORMS} ) are written to the WAL. Defaults to true.
+   */
+  static final String CONF_WAL_TERMVECTOR = "hbasene.wal.termvector";
+
+  /**
+   * Whether the Puts of the term positions ( family
+   * {@link #FAMILY_TERMFREQUENCIES} ) are written to the WAL. Defaults to true.
+   */
+  static final String CONF_WAL_TERMFREQUENCIES = "hbasene.wal.termfrequencies";
+
+  /**
+   * Whether the Puts of the stored fields ( family {@link #FAMILY_FIELDS} ),
+   * and of the term vectors ( family {@link #FAMILY_FORWARD} ) are written to
+   * the WAL. Defaults to true.
+   */
+  static final String CONF_WAL_FIELDS = "hbasene.wal.fields";
+
+  /**
+   * Whether the Puts of the reverse mapping of the documents ( family
+   * {@link #FAMILY_DOC_TO_INT} ) are written to the WAL. Defaults to true.
+   */
+  static final String CONF_WAL_DOC_TO_INT = "hbasene.wal.doc2int";
+
+  /**
+   * Directory ( of the Hadoop FileSystem ) of the {@link CheckpointLog} files
+   * of the stores. No checkpoints are logged, if not set.
+   */
+  static final String CONF_CHECKPOINT_DIR = "hbasene.checkpoint.dir";
+
+  
+  /**
+   * Number of threads flushing the batches of a commit to the regions in
+   * parallel, per store. Defaults to 4. The table pool of the store needs to
+   * hold at least one more table than the threads.
+   */
+  static final String CONF_FLUSH_THREADS = "hbasene.flush.threads";
+
+  /**
+   * Target latency ( in ms ) of the flush of a batch of Puts to a region,
+   * used to adapt the size of the batches. Defaults to 500.
+   */
+  static final String CONF_FLUSH_BATCH_MILLIS = "hbasene.flush.batch.millis";
+
+  /**
+   * Whether the stored fields of a document are packed into a single cell
+   * (qualifier {@link #QUALIFIER_PACKED_FIELDS} ), rather than a cell per
+   * field. Defaults to false. Readers decode both the formats.
+   */
+  static final String CONF_PACKED_FIELDS = "hbasene.fields.packed";
+
+  /**
+   * Whether the packed stored fields of a document are deflated, when that
+   * makes the record smaller. Defaults to false.
+   */
+  static final String CONF_PACKED_FIELDS_COMPRESS = "hbasene.fields.compress";
+
+  /**
+   * Encoding of the term positions of the segments written, alpha ( 4 bytes
+   * per position, see AlphaTermPositionsEncoder ) or vint ( variable-length
+   * deltas, see VIntTermPositionsEncoder ). Defaults to vint. The encoding is
+   * recorded with every segment, hence readers decode the segments of either
+   * encoding. Overridden for a field by the key suffixed by the field, say
+   * hbasene.positions.encoding.title .
+   */
+  static final String CONF_POSITIONS_ENCODING = "hbasene.positions.encoding";
+
+  /**
+   * Codec of the docsets of the segments written, array, bitset, packed,
+   * hybrid or smallest ( the smaller of packed and hybrid ), see
+   * AbstractDocSetCodec#forName . Defaults to smallest. Overridden for a field
+   * by the key suffixed by the field, as for
+   * {@link #CONF_POSITIONS_ENCODING}. Every docset starts with its format,
+   * hence readers decode the docsets of any codec.
+   */
+  static final String CONF_DOCSET_CODEC = "hbasene.docset.codec";
 }
\ No newline at end of file
@@ -0,0 +1,352 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.Compression;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Offline index store, for the initial build of large indices, that writes
+ * the index as HFiles instead of sending Puts to the region servers.
+ * <p>
+ * Segments are buffered and handed over to the flusher, as in
+ * {@link HBaseIndexStore}. The flusher sorts the cells of the segment and
+ * writes them as a sorted run, an HFile per family, under
+ * <code>outputDir/_runs/family</code>. On {@link #close()} the runs of each
+ * family are merged into a single, totally ordered HFile under
+ * <code>outputDir/family</code>, the layout produced by HBase's
+ * HFileOutputFormat. The counter of the segment ids is written along, so
+ * that regular writers continue after the segments of the bulk load.
+ * </p>
+ * The output covers the families fields, termVector, termFrequencies,
+ * doc2int, sequence, norms, payloads and forward, all of which the loaded
+ * table needs. It is loaded into the index table with HBase's
+ * <code>bin/loadtable.rb &lt;indexName&gt; &lt;outputDir&gt;</code>, which
+ * creates the table with the families present in the output. A family without
+ * any cell, such as payloads when no token carries one, is absent from the
+ * output and has to be added to the table after the load. Since there is
+ * no online bulk load in this version of HBase, the table must not be
+ * written to by any other writer until the load completes.
+ * <p>
+ * The HFile block size and compression are configured by the keys used by
+ * HFileOutputFormat, <code>hbase.mapreduce.hfileoutputformat.blocksize</code>
+ * and <code>hfile.compression</code>.
+ * </p>
+ */
+public class HFileIndexStore extends HBaseIndexStore {
+
+  private static final Log LOG = LogFactory.getLog(HFileIndexStore.class);
+
+  /**
+   * Directory of the sorted runs, under the output directory.
+   */
+  static final String RUNS_DIR = "_runs";
+
+  static final byte[][] FAMILIES = new byte[][] { FAMILY_FIELDS,
+      FAMILY_TERMVECTOR, FAMILY_TERMFREQUENCIES, FAMILY_DOC_TO_INT,
+      FAMILY_SEQUENCE, FAMILY_NORMS, FAMILY_PAYLOADS, FAMILY_FORWARD };
+
+  private static final Comparator<HFileScanner> SCANNER_COMPARATOR = new Comparator<HFileScanner>() {
+
+    @Override
+    public int compare(HFileScanner left, HFileScanner right) {
+      return KeyValue.COMPARATOR.compare(left.getKeyValue(), right
+          .getKeyValue());
+    }
+
+  };
+
+  private final FileSystem fs;
+
+  private final Path outputDir;
+
+  private final int hfileBlockSize;
+
+  private final Compression.Algorithm compression;
+
+  /**
+   * Timestamp of all the cells of the load.
+   */
+  private final long timestamp = System.currentTimeMillis();
+
+  private final LocalSegmentIdAllocator segmentIdAllocator;
+
+  /**
+   * 
+   * @param configuration
+   * @param indexName
+   * @param outputDir
+   *          Directory of the HFiles, should not exist already.
+   * @throws IOException
+   */
+  public HFileIndexStore(final Configuration configuration,
+      final String indexName, final Path outputDir) throws IOException {
+    this(configuration, indexName, outputDir, new LocalSegmentIdAllocator(
+        indexName));
+  }
+
+  private HFileIndexStore(final Configuration configuration,
+      final String indexName, final Path outputDir,
+      final LocalSegmentIdAllocator segmentIdAllocator) throws IOException {
+    super(null, configuration, indexName, segmentIdAllocator);
+    this.segmentIdAllocator = segmentIdAllocator;
+    this.fs = outputDir.getFileSystem(configuration);
+    if (this.fs.exists(outputDir)) {
+      throw new IllegalArgumentException("Output directory " + outputDir
+          + " exists already");
+    }
+    this.outputDir = outputDir;
+    this.hfileBlockSize = configuration.getInt(
+        "hbase.mapreduce.hfileoutputformat.blocksize", HFile.DEFAULT_BLOCKSIZE);
+    this.compression = Compression.getCompressionAlgorithmByName(configuration
+        .get("hfile.compression", Compression.Algorithm.GZ.getName()));
+  }
+
+  /**
+   * Commit the pending segments, and merge the sorted runs into the final
+   * HFiles.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    super.close();
+    final List<KeyValue> counter = new ArrayList<KeyValue>(1);
+    counter.add(new KeyValue(ROW_SEGMENT_ID, FAMILY_SEQUENCE,
+        QUALIFIER_SEGMENT, this.timestamp, Bytes
+            .toBytes(this.segmentIdAllocator.getCounter())));
+    this.doWriteRun("counter", counter);
+    for (final byte[] family : FAMILIES) {
+      this.doMergeRuns(family);
+    }
+    this.fs.delete(new Path(this.outputDir, RUNS_DIR), true);
+  }
+
+  /**
+   * Not supported, as the documents of a bulk load are not in the table yet.
+   * 
+   * @throws IOException
+   *           always.
+   */
+  @Override
+  public void deleteDocuments(final String... keys) throws IOException {
+    throw new IOException("Deletes are not supported by a bulk load");
+  }
+
+  @Override
+  void doCommit(final SegmentBuffer segment) throws IOException {
+    final long start = System.nanoTime();
+    final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+    for (final Put put : segment.documentPuts) {
+      this.addKeyValues(put, keyValues);
+    }
+    for (final Put put : segment.reverseMappingPuts.values()) {
+      this.addKeyValues(put, keyValues);
+    }
+    final byte[] segmentQualifier = Bytes.toBytes(segment.getSegmentId());
+    final List<byte[]> encodedPositions = new ArrayList<byte[]>();
+    for (final PostingsBuffer.Postings termPostings : segment.postings
+        .getSlots()) {
+      if (termPostings == null) {
+        continue;
+      }
+      this.addKeyValues(this.createTermVectorPut(termPostings,
+          segmentQualifier), keyValues);
+      if (termPostings.positions != null) {
+        this.addKeyValues(this.createTermFrequencyPut(termPostings,
+            segmentQualifier, encodedPositions), keyValues);
+      }
+    }
+    for (final Map.Entry<String, byte[]> entry : segment.norms.entrySet()) {
+      this.addKeyValues(this.createNormsPut(entry.getKey(), entry.getValue(),
+          segment.getNumDocs(), segmentQualifier), keyValues);
+    }
+    final Put fieldInfosPut = this.createFieldInfosPut(segment);
+    if (fieldInfosPut != null) {
+      this.addKeyValues(fieldInfosPut, keyValues);
+    }
+    this.addKeyValues(this.createSegmentInfoPut(segment), keyValues);
+    Collections.sort(keyValues, KeyValue.COMPARATOR);
+    this.doWriteRun(String.valueOf(segment.getSegmentId()), keyValues);
+    LOG.info("HFileIndexStore#Wrote " + keyValues.size() + " cells of segment "
+        + segment.getSegmentId() + " in "
+        + (double) (System.nanoTime() - start) / (double) 1000000000 + " secs ");
+  }
+
+  private void addKeyValues(final Put put, final List<KeyValue> keyValues) {
+    final byte[] now = Bytes.toBytes(this.timestamp);
+    for (final List<KeyValue> familyKeyValues : put.getFamilyMap().values()) {
+      for (final KeyValue kv : familyKeyValues) {
+        kv.updateLatestStamp(now);
+        keyValues.add(kv);
+      }
+    }
+  }
+
+  /**
+   * Write the sorted cells as a run, a HFile per family.
+   */
+  private void doWriteRun(final String runName,
+      final List<KeyValue> keyValues) throws IOException {
+    final Path runsDir = new Path(this.outputDir, RUNS_DIR);
+    HFile.Writer[] writers = new HFile.Writer[FAMILIES.length];
+    try {
+      for (final KeyValue kv : keyValues) {
+        final int family = familyIndex(kv);
+        if (writers[family] == null) {
+          writers[family] = this.createWriter(new Path(new Path(runsDir, Bytes
+              .toString(FAMILIES[family])), runName));
+        }
+        writers[family].append(kv);
+      }
+    } finally {
+      for (final HFile.Writer writer : writers) {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Merge the runs of the family into a single HFile. The cells of the same
+   * key are written once, failing if their values differ.
+   */
+  private void doMergeRuns(final byte[] family) throws IOException {
+    final Path familyRunsDir = new Path(new Path(this.outputDir, RUNS_DIR),
+        Bytes.toString(family));
+    final FileStatus[] runs = this.fs.listStatus(familyRunsDir);
+    if (runs == null || runs.length == 0) {
+      return;
+    }
+    final long start = System.nanoTime();
+    final List<HFile.Reader> readers = new ArrayList<HFile.Reader>(runs.length);
+    final PriorityQueue<HFileScanner> queue = new PriorityQueue<HFileScanner>(
+        runs.length, SCANNER_COMPARATOR);
+    HFile.Writer writer = null;
+    long numCells = 0;
+    try {
+      for (final FileStatus run : runs) {
+        HFile.Reader reader = new HFile.Reader(this.fs, run.getPath(), null,
+            false);
+        readers.add(reader);
+        reader.loadFileInfo();
+        HFileScanner scanner = reader.getScanner();
+        if (scanner.seekTo()) {
+          queue.add(scanner);
+        }
+      }
+      final Path familyDir = new Path(this.outputDir, Bytes.toString(family));
+      writer = this.createWriter(StoreFile.getUniqueFile(this.fs, familyDir));
+      KeyValue last = null;
+      while (!queue.isEmpty()) {
+        final HFileScanner scanner = queue.poll();
+        final KeyValue kv = scanner.getKeyValue();
+        // cells written by several segments alike, as the field infos.
+        if (last == null || KeyValue.COMPARATOR.compare(last, kv) != 0) {
+          writer.append(kv);
+          last = kv;
+          ++numCells;
+        } else if (Bytes.compareTo(last.getBuffer(), last.getValueOffset(),
+            last.getValueLength(), kv.getBuffer(), kv.getValueOffset(), kv
+                .getValueLength()) != 0) {
+          // as a primary key indexed twice, either of which would be lost.
+          throw new IOException("Conflicting values of the cell "
+              + Bytes.toString(kv.getRow()) + " "
+              + Bytes.toString(kv.getFamily()) + ":"
+              + Bytes.toString(kv.getQualifier()) + " in the runs of "
+              + familyRunsDir);
+        }
+        if (scanner.next()) {
+          queue.add(scanner);
+        }
+      }
+      writer.appendFileInfo(StoreFile.MAX_SEQ_ID_KEY, Bytes
+          .toBytes(this.timestamp));
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+      for (final HFile.Reader reader : readers) {
+        reader.close();
+      }
+    }
+    LOG.info("HFileIndexStore#Merged " + runs.length + " runs, " + numCells
+        + " cells of " + Bytes.toString(family) + " in "
+        + (double) (System.nanoTime() - start) / (double) 1000000000 + " secs ");
+  }
+
+  private HFile.Writer createWriter(final Path path) throws IOException {
+    return new HFile.Writer(this.fs, path, this.hfileBlockSize,
+        this.compression, KeyValue.KEY_COMPARATOR);
+  }
+
+  private static int familyIndex(final KeyValue kv) {
+    for (int i = 0; i < FAMILIES.length; ++i) {
+      if (kv.matchingFamily(FAMILIES[i])) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unexpected family "
+        + Bytes.toString(kv.getFamily()));
+  }
+
+  /**
+   * Allocates the segment ids locally, as the index table is not available
+   * until the load.
+   */
+  private static final class LocalSegmentIdAllocator extends
+      SegmentIdAllocator {
+
+    private long counter = -1;
+
+    LocalSegmentIdAllocator(final String indexName) {
+      super(null, indexName, 1);
+    }
+
+    @Override
+    protected synchronized long doIncrementCounter(final int amount) {
+      this.counter += amount;
+      return this.counter;
+    }
+
+    synchronized long getCounter() {
+      return this.counter;
+    }
+  }
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbasene.index.util.HybridDocSet;
+
+/**
+ * In-memory postings of a segment, before they are committed to the store.
+ * <p>
+ * The terms are kept in an open-addressing table (linear probing) keyed by
+ * their UTF-8 encoded keys ( field/term ), as interned by the writer, with the
+ * postings of each term held in primitive arrays. The documents of a term are
+ * kept in a growable int array, until the array reaches the threshold,
+ * beyond which they are kept in a {@link HybridDocSet} instead, at most 2
+ * bytes a document whatever the density. The term positions of
+ * the documents are appended to a single growable int array per term, as
+ * <code>docId, freq, position<sub>1</sub> .. position<sub>freq</sub></code>
+ * tuples. The payloads of the documents, if any, are appended to a growable
+ * byte array per term, already in the layout of the store.
+ * </p>
+ * The buffer keeps an estimate of the heap held by the postings, see
+ * {@link #ramBytesUsed()}.
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+class PostingsBuffer {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private static final int INITIAL_DOCS = 4;
+
+  private static final int INITIAL_POSITIONS = 8;
+
+  private static final int INITIAL_PAYLOAD_BYTES = 64;
+
+  // Estimates of the heap used, for a 64-bit JVM.
+
+  private static final int BYTES_OBJECT_REF = 8;
+
+  private static final int BYTES_ARRAY_HEADER = 16;
+
+  /**
+   * Postings object with its fields.
+   */
+  private static final int BYTES_POSTINGS = 64;
+
+  /**
+   * Postings of a given term in the segment.
+   */
+  static final class Postings {
+
+    /**
+     * Key of the term ( field/term ), used as is as the row of the term.
+     */
+    final byte[] key;
+
+    final int hash;
+
+    /**
+     * Document ids, in the order of insertion. null, once the docs are
+     * converted to {@link #docSet}.
+     */
+    int[] docs = new int[INITIAL_DOCS];
+
+    int numDocs;
+
+    /**
+     * Document ids, for the terms of many documents.
+     */
+    HybridDocSet docSet;
+
+    /**
+     * docId, freq, positions... tuples.
+     */
+    int[] positions;
+
+    int positionsLength;
+
+    /**
+     * docId, freq, payload lengths, payloads... tuples, of the documents with
+     * at least one payload, null if none. See
+     * HBaseneConstants#FAMILY_PAYLOADS .
+     */
+    byte[] payloads;
+
+    int payloadsLength;
+
+    int numPayloadDocs;
+
+    Postings(final byte[] key, final int hash) {
+      this.key = key;
+      this.hash = hash;
+    }
+
+    /**
+     * @return the number of bytes additionally allocated.
+     */
+    long addDoc(final int docId, final int arrayThreshold) {
+      if (this.docSet != null) {
+        final long bytes = this.docSet.ramBytesUsed();
+        this.docSet.add(docId);
+        return this.docSet.ramBytesUsed() - bytes;
+      }
+      long allocated = 0;
+      if (this.numDocs == this.docs.length) {
+        this.docs = Arrays.copyOf(this.docs, this.numDocs << 1);
+        allocated += this.numDocs * Bytes.SIZEOF_INT;
+      }
+      this.docs[this.numDocs++] = docId;
+      if (this.numDocs >= arrayThreshold) {
+        this.docSet = new HybridDocSet();
+        for (int i = 0; i < this.numDocs; ++i) {
+          this.docSet.add(this.docs[i]);
+        }
+        allocated += this.docSet.ramBytesUsed() - (long) this.docs.length
+            * Bytes.SIZEOF_INT;
+        this.docs = null;
+      }
+      return allocated;
+    }
+
+    /**
+     * @return the number of bytes additionally allocated.
+     */
+    long addPositions(final int docId, final int[] termPositions,
+        final int length) {
+      final int required = this.positionsLength + length + 2;
+      long allocated = 0;
+      if (this.positions == null) {
+        this.positions = new int[Math.max(INITIAL_POSITIONS, required)];
+        allocated = BYTES_ARRAY_HEADER + this.positions.length
+            * Bytes.SIZEOF_INT;
+      } else if (required > this.positions.length) {
+        final int oldLength = this.positions.length;
+        this.positions = Arrays.copyOf(this.positions, Math.max(required,
+            oldLength << 1));
+        allocated = (this.positions.length - oldLength) * Bytes.SIZEOF_INT;
+      }
+      this.positions[this.positionsLength++] = docId;
+      this.positions[this.positionsLength++] = length;
+      System.arraycopy(termPositions, 0, this.positions, this.positionsLength,
+          length);
+      this.positionsLength += length;
+      return allocated;
+    }
+
+    /**
+     * @return the number of bytes additionally allocated.
+     */
+    long addPayloads(final int docId, final int freq, final int[] lengths,
+        final int numLengths, final byte[] bytes, final int numBytes) {
+      final int required = this.payloadsLength + (2 + freq)
+          * Bytes.SIZEOF_INT + numBytes;
+      long allocated = 0;
+      if (this.payloads == null) {
+        this.payloads = new byte[Math.max(INITIAL_PAYLOAD_BYTES, required)];
+        allocated = BYTES_ARRAY_HEADER + this.payloads.length;
+      } else if (required > this.payloads.length) {
+        final int oldLength = this.payloads.length;
+        this.payloads = Arrays.copyOf(this.payloads, Math.max(required,
+            oldLength << 1));
+        allocated = this.payloads.length - oldLength;
+      }
+      int offset = Bytes.putInt(this.payloads, this.payloadsLength, docId);
+      offset = Bytes.putInt(this.payloads, offset, freq);
+      for (int i = 0; i < freq; ++i) {
+        offset = Bytes.putInt(this.payloads, offset, i < numLengths ? lengths[i]
+            : 0);
+      }
+      this.payloadsLength = Bytes.putBytes(this.payloads, offset, bytes, 0,
+          numBytes);
+      this.numPayloadDocs++;
+      return allocated;
+    }
+  }
+
+  private Postings[] slots = new Postings[INITIAL_CAPACITY];
+
+  private int size;
+
+  /**
+   * Estimate of the heap used by the postings.
+   */
+  private long bytesUsed;
+
+  /**
+   * Minimum number of documents beyond which the docs of a term may be kept
+   * in a bitset.
+   */
+  private final int arrayThreshold;
+
+  PostingsBuffer(final int arrayThreshold) {
+    this.arrayThreshold = arrayThreshold;
+    this.bytesUsed = this.slotsBytes();
+  }
+
+  /**
+   * Retrieve the postings of the given term, creating one if it is not present
+   * already.
+   *
+   * @param key
+   * @param hash
+   *          Hash of the key, see TermKeyArena#hash .
+   * @return
+   */
+  Postings getOrAdd(final byte[] key, final int hash) {
+    int mask = this.slots.length - 1;
+    int slot = hash & mask;
+    Postings postings = this.slots[slot];
+    while (postings != null) {
+      if (postings.hash == hash
+          && (postings.key == key || Bytes.equals(postings.key, key))) {
+        return postings;
+      }
+      slot = (slot + 1) & mask;
+      postings = this.slots[slot];
+    }
+    postings = new Postings(key, hash);
+    this.slots[slot] = postings;
+    this.bytesUsed += BYTES_POSTINGS + BYTES_ARRAY_HEADER + key.length
+        + BYTES_ARRAY_HEADER + INITIAL_DOCS * Bytes.SIZEOF_INT;
+    if (++this.size > (this.slots.length >> 1)) {
+      this.rehash();
+    }
+    return postings;
+  }
+
+  /**
+   * Add the given document to the docset of the term.
+   *
+   * @param key
+   * @param hash
+   * @param docId
+   * @return the postings of the term.
+   */
+  Postings addDoc(final byte[] key, final int hash, final int docId) {
+    final Postings postings = this.getOrAdd(key, hash);
+    this.bytesUsed += postings.addDoc(docId, this.arrayThreshold);
+    return postings;
+  }
+
+  /**
+   * Add the positions of the term in the given document.
+   *
+   * @param postings
+   *          Postings of the term, as returned by
+   *          {@link #addDoc(byte[], int, int)}.
+   * @param docId
+   * @param termPositions
+   * @param length
+   *          Number of positions, the term frequency in the document.
+   */
+  void addPositions(final Postings postings, final int docId,
+      final int[] termPositions, final int length) {
+    this.bytesUsed += postings.addPositions(docId, termPositions, length);
+  }
+
+  /**
+   * Add the payloads of the term in the given document.
+   *
+   * @param postings
+   * @param docId
+   * @param freq
+   *          Term frequency in the document.
+   * @param lengths
+   *          Lengths of the payloads of the first numLengths positions, with
+   *          the rest of the positions having no payload.
+   * @param numLengths
+   * @param bytes
+   *          Payloads, concatenated.
+   * @param numBytes
+   */
+  void addPayloads(final Postings postings, final int docId, final int freq,
+      final int[] lengths, final int numLengths, final byte[] bytes,
+      final int numBytes) {
+    this.bytesUsed += postings.addPayloads(docId, freq, lengths, numLengths,
+        bytes, numBytes);
+  }
+
+  /**
+   * Estimate of the heap held by the buffer.
+   *
+   * @return
+   */
+  long ramBytesUsed() {
+    return this.bytesUsed;
+  }
+
+  /**
+   * Number of unique terms in the buffer.
+   *
+   * @return
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Retrieve the postings present in the buffer. The returned array may
+   * contain null elements.
+   *
+   * @return
+   */
+  Postings[] getSlots() {
+    return this.slots;
+  }
+
+  /**
+   * Clear the buffer, retaining the capacity of the table for the next
+   * segment.
+   */
+  void clear() {
+    Arrays.fill(this.slots, null);
+    this.size = 0;
+    this.bytesUsed = this.slotsBytes();
+  }
+
+  private void rehash() {
+    final Postings[] oldSlots = this.slots;
+    final Postings[] newSlots = new Postings[oldSlots.length << 1];
+    final int mask = newSlots.length - 1;
+    for (final Postings postings : oldSlots) {
+      if (postings != null) {
+        int slot = postings.hash & mask;
+        while (newSlots[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        newSlots[slot] = postings;
+      }
+    }
+    this.slots = newSlots;
+    this.bytesUsed += (long) oldSlots.length * BYTES_OBJECT_REF;
+  }
+
+  private long slotsBytes() {
+    return BYTES_ARRAY_HEADER + (long) this.slots.length * BYTES_OBJECT_REF;
+  }
+}
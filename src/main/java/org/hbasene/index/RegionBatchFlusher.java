@@ -0,0 +1,333 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Flushes the Puts of a commit, grouped by the region they belong to, in
+ * parallel.
+ * <p>
+ * The Puts are grouped by region, as located by the (cached) region locations
+ * of a table from the pool. The batch of a region is flushed, with a table of
+ * its own from the pool, once its heap size reaches the batch size. The
+ * batches are flushed by a fixed number of threads, see
+ * HBaseneConstants#CONF_FLUSH_THREADS , so that the commit time depends on the
+ * number of regions ( and region servers ) rather than the volume of the
+ * commit. At most one batch of a region is flushed at a time, the next batch
+ * of the region being flushed once the previous one is done, so that the
+ * Puts to the same cell are applied in the order they were added.
+ * </p>
+ * The batch size adapts to the latency of the flushes. It starts at the write
+ * buffer size of the client ( hbase.client.write.buffer ), and is halved when
+ * a batch takes longer than HBaseneConstants#CONF_FLUSH_BATCH_MILLIS to be
+ * flushed, and doubled when a batch is flushed in under a quarter of the
+ * same.
+ */
+class RegionBatchFlusher {
+
+  private static final Log LOG = LogFactory.getLog(RegionBatchFlusher.class);
+
+  private static final long MIN_BATCH_BYTES = 64 * 1024;
+
+  private final HTablePool tablePool;
+
+  private final String indexName;
+
+  private final ExecutorService executor;
+
+  private final long targetBatchMillis;
+
+  private final long maxBatchBytes;
+
+  private volatile long batchBytes;
+
+  RegionBatchFlusher(final HTablePool tablePool, final String indexName,
+      final int numThreads, final long initialBatchBytes,
+      final long targetBatchMillis) {
+    this.tablePool = tablePool;
+    this.indexName = indexName;
+    this.targetBatchMillis = targetBatchMillis;
+    this.batchBytes = Math.max(MIN_BATCH_BYTES, initialBatchBytes);
+    this.maxBatchBytes = this.batchBytes * 16;
+    this.executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactory() {
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RegionBatchFlusher-" + indexName);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Start a commit.
+   * 
+   * @return
+   */
+  Batches newBatches() {
+    return new Batches();
+  }
+
+  void close() {
+    this.executor.shutdown();
+  }
+
+  long getBatchBytes() {
+    return this.batchBytes;
+  }
+
+  /**
+   * Adapt the batch size to the latency of the last flush.
+   */
+  private void adapt(final long batchBytesUsed, final long millis) {
+    final long current = this.batchBytes;
+    if (millis > this.targetBatchMillis && batchBytesUsed >= current >> 1) {
+      this.batchBytes = Math.max(MIN_BATCH_BYTES, current >> 1);
+    } else if (millis < (this.targetBatchMillis >> 2)
+        && batchBytesUsed >= current) {
+      this.batchBytes = Math.min(this.maxBatchBytes, current << 1);
+    }
+  }
+
+  /**
+   * Puts of a single commit, grouped by region.
+   */
+  final class Batches {
+
+    private final HTable locator = tablePool.getTable(indexName);
+
+    private final Map<byte[], Region> regions = new TreeMap<byte[], Region>(
+        Bytes.BYTES_COMPARATOR);
+
+    private final List<Future<Void>> flushes = new ArrayList<Future<Void>>();
+
+    private boolean done;
+
+    /**
+     * Add a Put, flushing the batch of its region if full.
+     * 
+     * @param put
+     * @throws IOException
+     */
+    void add(final Put put) throws IOException {
+      final byte[] regionName = this.locator.getRegionLocation(put.getRow())
+          .getRegionInfo().getRegionName();
+      Region region = this.regions.get(regionName);
+      if (region == null) {
+        region = new Region();
+        this.regions.put(regionName, region);
+      }
+      if (region.batch == null) {
+        region.batch = new Batch();
+      }
+      final Batch batch = region.batch;
+      batch.puts.add(put);
+      batch.heapSize += put.heapSize();
+      if (batch.heapSize >= batchBytes) {
+        region.batch = null;
+        this.flushes.add(region.flush(batch));
+      }
+    }
+
+    void addAll(final List<Put> puts) throws IOException {
+      for (final Put put : puts) {
+        this.add(put);
+      }
+    }
+
+    /**
+     * Flush the remaining batches and wait for all the batches to be flushed.
+     * 
+     * @throws IOException
+     *           The first error encountered by the flushes.
+     */
+    void await() throws IOException {
+      if (this.done) {
+        return;
+      }
+      this.done = true;
+      tablePool.putTable(this.locator);
+      for (final Region region : this.regions.values()) {
+        if (region.batch != null) {
+          this.flushes.add(region.flush(region.batch));
+          region.batch = null;
+        }
+      }
+      this.regions.clear();
+      IOException firstError = null;
+      for (final Future<Void> flush : this.flushes) {
+        try {
+          flush.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          if (firstError == null) {
+            firstError = new IOException("Interrupted while flushing " + ex);
+          }
+        } catch (ExecutionException ex) {
+          if (firstError == null) {
+            firstError = (ex.getCause() instanceof IOException) ? (IOException) ex
+                .getCause()
+                : new IOException("Error flushing batch " + ex.getCause());
+          }
+        }
+      }
+      this.flushes.clear();
+      if (firstError != null) {
+        throw firstError;
+      }
+    }
+  }
+
+  /**
+   * Batches of a single region, flushed one after the other.
+   */
+  private final class Region {
+
+    /**
+     * Batch being filled, if any.
+     */
+    Batch batch;
+
+    /**
+     * Flushes waiting for the one in progress.
+     */
+    private final LinkedList<Flush> queued = new LinkedList<Flush>();
+
+    private boolean flushing;
+
+    /**
+     * Flush the given batch, once the previous batches of the region are.
+     */
+    synchronized Future<Void> flush(final Batch batch) {
+      final Flush flush = new Flush(this, batch);
+      if (this.flushing) {
+        this.queued.add(flush);
+      } else {
+        this.flushing = true;
+        this.start(flush);
+      }
+      return flush;
+    }
+
+    /**
+     * Start the next flush of the region, if any.
+     */
+    synchronized void flushed() {
+      final Flush next = this.queued.poll();
+      if (next == null) {
+        this.flushing = false;
+      } else {
+        this.start(next);
+      }
+    }
+
+    /**
+     * Hand the flush over to the pool, failing it if the pool rejects it, so
+     * that it does not leave {@link Batches#await()} waiting. A failed flush
+     * hands over to the next flush of the region in turn.
+     */
+    private void start(final Flush flush) {
+      try {
+        executor.execute(flush);
+      } catch (RejectedExecutionException ex) {
+        flush.fail(new IOException("Flusher unavailable for batch : " + ex));
+      }
+    }
+  }
+
+  /**
+   * Flush of a batch, that hands over to the next batch of its region once
+   * done, failed or not.
+   */
+  private static final class Flush extends FutureTask<Void> {
+
+    private final Region region;
+
+    Flush(final Region region, final Batch batch) {
+      super(batch);
+      this.region = region;
+    }
+
+    void fail(final IOException ex) {
+      this.setException(ex);
+    }
+
+    @Override
+    protected void done() {
+      this.region.flushed();
+    }
+  }
+
+  /**
+   * Puts of a single region.
+   */
+  private final class Batch implements Callable<Void> {
+
+    final List<Put> puts = new ArrayList<Put>();
+
+    long heapSize;
+
+    @Override
+    public Void call() throws IOException {
+      final long start = System.currentTimeMillis();
+      final HTable table = tablePool.getTable(indexName);
+      try {
+        table.getWriteBuffer().addAll(this.puts);
+        table.flushCommits();
+      } finally {
+        // the Puts left over by a failed flush are not to be sent along with
+        // the next batch of the table.
+        table.getWriteBuffer().clear();
+        tablePool.putTable(table);
+      }
+      final long millis = System.currentTimeMillis() - start;
+      adapt(this.heapSize, millis);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("RegionBatchFlusher#Flushed " + this.puts.size() + " puts ( "
+            + (this.heapSize >> 10) + " KB ) in " + millis + " ms");
+      }
+      return null;
+    }
+  }
+}
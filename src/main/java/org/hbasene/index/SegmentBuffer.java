@@ -0,0 +1,260 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Documents of a single segment, buffered in memory until the segment is
+ * committed.
+ * <p>
+ * A buffer is filled by the indexing thread and then handed over, as a whole,
+ * to the flusher of {@link HBaseIndexStore}. Once flushed, the buffer is
+ * cleared and recycled for a subsequent segment.
+ * </p>
+ */
+class SegmentBuffer {
+
+  /**
+   * Postings of the terms of the segment.
+   */
+  final PostingsBuffer postings;
+
+  /**
+   * Estimate of the heap used by a Put of a single cell, excluding the row,
+   * the qualifier and the value.
+   */
+  private static final int BYTES_PUT = 160;
+
+  /**
+   * Puts of the stored fields and the term vectors of the documents.
+   */
+  final List<Put> documentPuts = new ArrayList<Put>();
+
+  /**
+   * Puts of the reverse mapping of the documents, by their keys. Only the
+   * last document of a key is mapped, and none if it is deleted before the
+   * segment is committed.
+   */
+  final Map<String, Put> reverseMappingPuts = new HashMap<String, Put>();
+
+  /**
+   * Keys of the documents, kept only if the store logs checkpoints.
+   */
+  final List<String> documentKeys = new ArrayList<String>();
+
+  /**
+   * Estimate of the heap used by an entry of {@link #documentIds}, excluding
+   * the characters of the key.
+   */
+  private static final int BYTES_KEY_ENTRY = 96;
+
+  /**
+   * Ids of the documents of the segment, by their keys, to resolve the
+   * deletes of the documents not committed yet.
+   */
+  private final Map<String, Integer> documentIds = new HashMap<String, Integer>();
+
+  /**
+   * Documents of the segment deleted before the segment is committed, null
+   * if none.
+   */
+  OpenBitSet deletions;
+
+  /**
+   * Estimate of the heap used by an entry of {@link #norms}, excluding the
+   * norms themselves.
+   */
+  private static final int BYTES_NORMS_ENTRY = 96;
+
+  private static final int INITIAL_NORMS = 64;
+
+  /**
+   * Norms of the documents of the segment, by the fields. Documents without
+   * the field have the default norm.
+   */
+  final Map<String, byte[]> norms = new HashMap<String, byte[]>();
+
+  /**
+   * Fields indexed without the term frequencies and the positions, by any
+   * document of the segment.
+   */
+  final Set<String> omitPositionsFields = new HashSet<String>();
+
+  /**
+   * Estimate of the heap held by {@link #documentPuts}.
+   */
+  private long documentBytes;
+
+  private long segmentId;
+
+  private int documentId = -1;
+
+  SegmentBuffer(final int arrayThreshold) {
+    this.postings = new PostingsBuffer(arrayThreshold);
+  }
+
+  /**
+   * Reset the buffer to accept the documents of the given segment.
+   *
+   * @param segmentId
+   */
+  void reset(final long segmentId) {
+    this.segmentId = segmentId;
+    this.documentId = -1;
+    this.postings.clear();
+    this.documentPuts.clear();
+    this.reverseMappingPuts.clear();
+    this.documentKeys.clear();
+    this.documentIds.clear();
+    this.deletions = null;
+    this.norms.clear();
+    this.omitPositionsFields.clear();
+    this.documentBytes = 0;
+  }
+
+  /**
+   * Buffer a Put of a single cell, related to a document of the segment.
+   *
+   * @param put
+   * @param cellBytes
+   *          Length of the row, the qualifier and the value of the cell.
+   */
+  void addDocumentPut(final Put put, final int cellBytes) {
+    this.documentPuts.add(put);
+    this.documentBytes += BYTES_PUT + cellBytes;
+  }
+
+  /**
+   * Buffer the Put of the reverse mapping of a document of the segment, in
+   * place of the one of a previous document of the same key, if any.
+   *
+   * @param key
+   * @param put
+   * @param cellBytes
+   *          Length of the row, the qualifier and the value of the cell.
+   */
+  void addReverseMappingPut(final String key, final Put put,
+      final int cellBytes) {
+    this.reverseMappingPuts.put(key, put);
+    this.documentBytes += BYTES_PUT + cellBytes;
+  }
+
+  /**
+   * Set the norm of the field for the given document of the segment.
+   *
+   * @param field
+   * @param docId
+   * @param norm
+   */
+  void addNorm(final String field, final int docId, final byte norm) {
+    byte[] fieldNorms = this.norms.get(field);
+    if (fieldNorms == null) {
+      fieldNorms = new byte[Math.max(INITIAL_NORMS, docId + 1)];
+      Arrays.fill(fieldNorms, HBaseIndexReader.DEFAULT_NORM);
+      this.norms.put(field, fieldNorms);
+      this.documentBytes += BYTES_NORMS_ENTRY + fieldNorms.length;
+    } else if (docId >= fieldNorms.length) {
+      final int oldLength = fieldNorms.length;
+      fieldNorms = Arrays.copyOf(fieldNorms, Math.max(docId + 1,
+          oldLength << 1));
+      Arrays.fill(fieldNorms, oldLength, fieldNorms.length,
+          HBaseIndexReader.DEFAULT_NORM);
+      this.norms.put(field, fieldNorms);
+      this.documentBytes += fieldNorms.length - oldLength;
+    }
+    fieldNorms[docId] = norm;
+  }
+
+  /**
+   * Record the key of the current document of the segment.
+   * 
+   * @param key
+   */
+  void addDocumentKey(final String key) {
+    this.documentIds.put(key, this.documentId);
+    this.documentBytes += BYTES_KEY_ENTRY + 2 * key.length();
+  }
+
+  /**
+   * Delete the document of the given key, if present in the segment.
+   * 
+   * @param key
+   * @return true, if the document is present in the segment.
+   */
+  boolean deleteDocument(final String key) {
+    this.reverseMappingPuts.remove(key);
+    final Integer docId = this.documentIds.remove(key);
+    if (docId == null) {
+      return false;
+    }
+    if (this.deletions == null) {
+      this.deletions = new OpenBitSet(this.documentId + 1);
+    }
+    this.deletions.set(docId);
+    return true;
+  }
+
+  /**
+   * Estimate of the heap held by the segment, for the postings as well as the
+   * documents.
+   *
+   * @return
+   */
+  long ramBytesUsed() {
+    return this.postings.ramBytesUsed() + this.documentBytes;
+  }
+
+  /**
+   * Allocate the id of the next document in the segment.
+   *
+   * @return
+   */
+  int nextDocumentId() {
+    return ++this.documentId;
+  }
+
+  /**
+   * Number of documents in the segment.
+   *
+   * @return
+   */
+  int getNumDocs() {
+    return this.documentId + 1;
+  }
+
+  long getSegmentId() {
+    return this.segmentId;
+  }
+
+  int getDocumentId() {
+    return this.documentId;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTablePool;
+
+/**
+ * Allocates the ids of the segments of an index.
+ * <p>
+ * Ids are leased from the counter of the index ( HBaseneConstants#ROW_SEGMENT_ID
+ * ) a block at a time, with a single atomic increment of the counter by the
+ * size of the block, and handed out locally thereafter. The increment is
+ * atomic on the region server, hence the blocks leased by the writers across
+ * the processes never overlap. Ids of a block, not used by the time the
+ * writer goes away, are lost, leaving gaps in the sequence of segment ids.
+ * </p>
+ * An allocator is thread-safe, and may be shared by the stores of a process.
+ */
+public class SegmentIdAllocator implements HBaseneConstants {
+
+  private static final Log LOG = LogFactory.getLog(SegmentIdAllocator.class);
+
+  private final HTablePool tablePool;
+
+  private final String indexName;
+
+  private final int blockSize;
+
+  /**
+   * Next id to be handed out from the current block.
+   */
+  private long nextId;
+
+  /**
+   * Last id of the current block.
+   */
+  private long lastId = -1;
+
+  /**
+   * 
+   * @param tablePool
+   * @param indexName
+   * @param blockSize
+   *          Number of ids leased at a time, see
+   *          HBaseneConstants#CONF_SEGMENT_ID_BLOCK_SIZE .
+   */
+  public SegmentIdAllocator(final HTablePool tablePool,
+      final String indexName, final int blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException(CONF_SEGMENT_ID_BLOCK_SIZE
+          + " should be positive, but was " + blockSize);
+    }
+    this.tablePool = tablePool;
+    this.indexName = indexName;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Allocate the id of a new segment.
+   * 
+   * @return
+   * @throws IOException
+   */
+  public synchronized long nextSegmentId() throws IOException {
+    if (this.nextId > this.lastId) {
+      this.doLease();
+    }
+    return this.nextId++;
+  }
+
+  private void doLease() throws IOException {
+    this.lastId = this.doIncrementCounter(this.blockSize);
+    this.nextId = this.lastId - this.blockSize + 1;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("SegmentIdAllocator#Leased segment ids " + this.nextId
+          + " to " + this.lastId + " of " + this.indexName);
+    }
+  }
+
+  /**
+   * Atomically increment the counter of the segment ids.
+   * 
+   * @param amount
+   * @return the value of the counter, after the increment.
+   * @throws IOException
+   */
+  protected long doIncrementCounter(final int amount) throws IOException {
+    final HTable table = this.tablePool.getTable(this.indexName);
+    try {
+      return table.incrementColumnValue(ROW_SEGMENT_ID, FAMILY_SEQUENCE,
+          QUALIFIER_SEGMENT, amount, true);
+    } finally {
+      this.tablePool.putTable(table);
+    }
+  }
+
+  public int getBlockSize() {
+    return this.blockSize;
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hbasene.index.util.HBaseneUtil;
+
+/**
+ * Packs the stored fields of a document into a single record, kept in one
+ * cell of the family HBaseneConstants#FAMILY_FIELDS .
+ * <p>
+ * The record starts with a format byte, 'P' for a plain record and 'Z' for a
+ * deflated one. A plain record is the number of the fields, followed by the
+ * length-prefixed name ( UTF-8 ) and the length-prefixed value of every field,
+ * with the lengths as variable-length ints. A deflated record is the length
+ * of the plain record, followed by the deflated plain record.
+ * </p>
+ * An instance reuses its buffers across the documents and is not thread-safe.
+ * Decoding is stateless, see {@link #decode(byte[])} .
+ */
+final class StoredFieldsRecord {
+
+  static final byte FORMAT_PLAIN = 'P';
+
+  static final byte FORMAT_DEFLATED = 'Z';
+
+  /**
+   * Records smaller than this are not worth deflating.
+   */
+  private static final int MIN_DEFLATE_BYTES = 128;
+
+  private byte[] buffer = new byte[1024];
+
+  private int length;
+
+  /**
+   * Compresses the records, null if not enabled.
+   */
+  private final Deflater deflater;
+
+  StoredFieldsRecord(final boolean compress) {
+    this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+  }
+
+  /**
+   * Encode the given fields into a record.
+   * 
+   * @param fields
+   *          Values of the stored fields, by their names.
+   * @return
+   */
+  byte[] encode(final Map<String, byte[]> fields) {
+    this.length = 0;
+    this.writeByte(FORMAT_PLAIN);
+    this.writeVInt(fields.size());
+    for (final Map.Entry<String, byte[]> entry : fields.entrySet()) {
+      this.writeBytes(Bytes.toBytes(entry.getKey()));
+      this.writeBytes(entry.getValue());
+    }
+    if (this.deflater != null && this.length >= MIN_DEFLATE_BYTES) {
+      final byte[] deflated = this.deflate();
+      if (deflated != null) {
+        return deflated;
+      }
+    }
+    return Arrays.copyOf(this.buffer, this.length);
+  }
+
+  /**
+   * Release the native resources of the compressor.
+   */
+  void close() {
+    if (this.deflater != null) {
+      this.deflater.end();
+    }
+  }
+
+  /**
+   * Deflate the plain record in the buffer.
+   * 
+   * @return the deflated record, or null if it is not smaller than the plain
+   *         one.
+   */
+  private byte[] deflate() {
+    final int plainLength = this.length - 1;
+    final byte[] out = new byte[this.length];
+    out[0] = FORMAT_DEFLATED;
+    int offset = HBaseneUtil.putVInt(out, 1, plainLength);
+    this.deflater.reset();
+    this.deflater.setInput(this.buffer, 1, plainLength);
+    this.deflater.finish();
+    while (!this.deflater.finished()) {
+      if (offset == out.length) {
+        return null;
+      }
+      offset += this.deflater.deflate(out, offset, out.length - offset);
+    }
+    return Arrays.copyOf(out, offset);
+  }
+
+  private void writeByte(final byte b) {
+    this.ensureCapacity(1);
+    this.buffer[this.length++] = b;
+  }
+
+  private void writeVInt(final int value) {
+    this.ensureCapacity(5);
+    this.length = HBaseneUtil.putVInt(this.buffer, this.length, value);
+  }
+
+  private void writeBytes(final byte[] bytes) {
+    this.writeVInt(bytes.length);
+    this.ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+    this.length += bytes.length;
+  }
+
+  private void ensureCapacity(final int required) {
+    if (this.length + required > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(this.length
+          + required, this.buffer.length << 1));
+    }
+  }
+
+  /**
+   * Decode the given record.
+   * 
+   * @param record
+   * @return the values of the stored fields, by their names, in the order
+   *         they were encoded.
+   * @throws IOException
+   *           if the record is corrupt.
+   */
+  static Map<String, byte[]> decode(final byte[] record) throws IOException {
+    if (record.length == 0) {
+      throw new IOException("Empty stored fields record");
+    }
+    switch (record[0]) {
+    case FORMAT_PLAIN:
+      return decodePlain(record, 1);
+    case FORMAT_DEFLATED:
+      final int[] offset = new int[] { 1 };
+      final byte[] plain = new byte[HBaseneUtil.getVInt(record, offset)];
+      final Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(record, offset[0], record.length - offset[0]);
+        int inflated = 0;
+        while (inflated < plain.length && !inflater.finished()) {
+          final int count = inflater.inflate(plain, inflated, plain.length
+              - inflated);
+          if (count == 0 && inflater.needsInput()) {
+            break;
+          }
+          inflated += count;
+        }
+        if (inflated != plain.length) {
+          throw new IOException("Truncated stored fields record, inflated "
+              + inflated + " of " + plain.length + " bytes");
+        }
+      } catch (DataFormatException ex) {
+        throw new IOException("Corrupt stored fields record : " + ex);
+      } finally {
+        inflater.end();
+      }
+      return decodePlain(plain, 0);
+    default:
+      throw new IOException("Unknown stored fields format " + record[0]);
+    }
+  }
+
+  private static Map<String, byte[]> decodePlain(final byte[] bytes,
+      final int start) {
+    final int[] offset = new int[] { start };
+    final int numFields = HBaseneUtil.getVInt(bytes, offset);
+    final Map<String, byte[]> fields = new LinkedHashMap<String, byte[]>(
+        numFields * 2);
+    for (int i = 0; i < numFields; ++i) {
+      final int nameLength = HBaseneUtil.getVInt(bytes, offset);
+      final String name = Bytes.toString(bytes, offset[0], nameLength);
+      offset[0] += nameLength;
+      final int valueLength = HBaseneUtil.getVInt(bytes, offset);
+      fields.put(name, Arrays.copyOfRange(bytes, offset[0], offset[0]
+          + valueLength));
+      offset[0] += valueLength;
+    }
+    return fields;
+  }
+}
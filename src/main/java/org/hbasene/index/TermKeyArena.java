@@ -0,0 +1,254 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Interns the UTF-8 encoded term keys ( field/term ) of the write path.
+ * <p>
+ * A term key is encoded into a scratch buffer, directly from the characters of
+ * the token, behind the shared prefix of the field. The bytes are copied out
+ * of the scratch buffer only the first time the key is seen, into an array of
+ * the exact length. The interned array is carried all the way to the store,
+ * where it is used as is, as the row key of the term.
+ * </p>
+ * The interned keys are immutable and may be shared across threads, but the
+ * arena itself is not thread-safe.
+ */
+class TermKeyArena {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * Separator between the field and the term of a key.
+   */
+  static final byte SEPARATOR = '/';
+
+  private final Map<String, byte[]> fieldPrefixes = new HashMap<String, byte[]>();
+
+  private byte[] scratch = new byte[64];
+
+  private char[] scratchChars = new char[64];
+
+  private byte[][] keys = new byte[INITIAL_CAPACITY][];
+
+  private int[] hashes = new int[INITIAL_CAPACITY];
+
+  private int size;
+
+  /**
+   * Number of keys beyond which the arena starts afresh, to bound the heap
+   * held by a long running writer.
+   */
+  private final int maxKeys;
+
+  private int lastHash;
+
+  TermKeyArena(final int maxKeys) {
+    this.maxKeys = maxKeys;
+  }
+
+  /**
+   * Retrieve the encoded prefix ( field/ ) of the given field.
+   *
+   * @param field
+   * @return
+   */
+  byte[] getFieldPrefix(final String field) {
+    byte[] prefix = this.fieldPrefixes.get(field);
+    if (prefix == null) {
+      prefix = Bytes.add(Bytes.toBytes(field), new byte[] { SEPARATOR });
+      this.fieldPrefixes.put(field, prefix);
+    }
+    return prefix;
+  }
+
+  /**
+   * Intern the key of the given term of the field.
+   *
+   * @param fieldPrefix
+   *          As returned by {@link #getFieldPrefix(String)}.
+   * @param term
+   * @param offset
+   * @param length
+   * @return the interned key.
+   */
+  byte[] intern(final byte[] fieldPrefix, final char[] term, final int offset,
+      final int length) {
+    final int keyLength = this.encode(fieldPrefix, term, offset, length);
+    return this.doIntern(keyLength);
+  }
+
+  /**
+   * Intern the key of the given term of the field.
+   *
+   * @param fieldPrefix
+   *          As returned by {@link #getFieldPrefix(String)}.
+   * @param term
+   * @return the interned key.
+   */
+  byte[] intern(final byte[] fieldPrefix, final String term) {
+    final int length = term.length();
+    if (this.scratchChars.length < length) {
+      this.scratchChars = new char[Math.max(length,
+          this.scratchChars.length << 1)];
+    }
+    term.getChars(0, length, this.scratchChars, 0);
+    return this.intern(fieldPrefix, this.scratchChars, 0, length);
+  }
+
+  /**
+   * Hash of the key returned by the last call to intern.
+   *
+   * @return
+   */
+  int getLastHash() {
+    return this.lastHash;
+  }
+
+  /**
+   * Number of keys interned currently.
+   *
+   * @return
+   */
+  int size() {
+    return this.size;
+  }
+
+  private byte[] doIntern(final int keyLength) {
+    final int hash = hash(this.scratch, 0, keyLength);
+    this.lastHash = hash;
+    final int mask = this.keys.length - 1;
+    int slot = hash & mask;
+    byte[] key = this.keys[slot];
+    while (key != null) {
+      if (this.hashes[slot] == hash
+          && Bytes.compareTo(key, 0, key.length, this.scratch, 0,
+              keyLength) == 0) {
+        return key;
+      }
+      slot = (slot + 1) & mask;
+      key = this.keys[slot];
+    }
+    if (this.size >= this.maxKeys) {
+      this.clear();
+      return this.doIntern(keyLength);
+    }
+    key = Arrays.copyOf(this.scratch, keyLength);
+    this.keys[slot] = key;
+    this.hashes[slot] = hash;
+    if (++this.size > (this.keys.length >> 1)) {
+      this.rehash();
+    }
+    return key;
+  }
+
+  private void clear() {
+    Arrays.fill(this.keys, null);
+    this.size = 0;
+  }
+
+  private void rehash() {
+    final byte[][] oldKeys = this.keys;
+    final int[] oldHashes = this.hashes;
+    this.keys = new byte[oldKeys.length << 1][];
+    this.hashes = new int[oldKeys.length << 1];
+    final int mask = this.keys.length - 1;
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldKeys[i] != null) {
+        int slot = oldHashes[i] & mask;
+        while (this.keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = oldKeys[i];
+        this.hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+
+  /**
+   * UTF-8 encode the prefix and the term into the scratch buffer. Unpaired
+   * surrogates are replaced by '?', as by String#getBytes(String) , hence the
+   * keys match the rows the readers look the terms up by ( Bytes#toBytes ).
+   *
+   * @return the length of the encoded key.
+   */
+  private int encode(final byte[] fieldPrefix, final char[] term,
+      final int offset, final int length) {
+    final int maxLength = fieldPrefix.length + length * 3;
+    if (this.scratch.length < maxLength) {
+      this.scratch = new byte[Math.max(maxLength, this.scratch.length << 1)];
+    }
+    final byte[] out = this.scratch;
+    System.arraycopy(fieldPrefix, 0, out, 0, fieldPrefix.length);
+    int upto = fieldPrefix.length;
+    final int end = offset + length;
+    for (int i = offset; i < end; ++i) {
+      final int code = term[i];
+      if (code < 0x80) {
+        out[upto++] = (byte) code;
+      } else if (code < 0x800) {
+        out[upto++] = (byte) (0xC0 | (code >> 6));
+        out[upto++] = (byte) (0x80 | (code & 0x3F));
+      } else if (code < 0xD800 || code > 0xDFFF) {
+        out[upto++] = (byte) (0xE0 | (code >> 12));
+        out[upto++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+        out[upto++] = (byte) (0x80 | (code & 0x3F));
+      } else if (code < 0xDC00 && i + 1 < end && term[i + 1] >= 0xDC00
+          && term[i + 1] <= 0xDFFF) {
+        // surrogate pair, 4 bytes in place of the 6 reserved.
+        final int utf32 = ((code - 0xD800) << 10) + (term[++i] - 0xDC00)
+            + 0x10000;
+        out[upto++] = (byte) (0xF0 | (utf32 >> 18));
+        out[upto++] = (byte) (0x80 | ((utf32 >> 12) & 0x3F));
+        out[upto++] = (byte) (0x80 | ((utf32 >> 6) & 0x3F));
+        out[upto++] = (byte) (0x80 | (utf32 & 0x3F));
+      } else {
+        out[upto++] = (byte) '?';
+      }
+    }
+    return upto;
+  }
+
+  /**
+   * Hash of the given bytes, as used by the arena and by the postings of the
+   * store.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @return
+   */
+  static int hash(final byte[] bytes, final int offset, final int length) {
+    int h = 1;
+    final int end = offset + length;
+    for (int i = offset; i < end; ++i) {
+      h = 31 * h + bytes[i];
+    }
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+}
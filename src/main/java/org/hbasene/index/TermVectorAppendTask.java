@@ -6,7 +6,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import jsr166y.RecursiveAction;
 
-import org.apache.lucene.util.OpenBitSet;
+import org.hbasene.index.util.HybridDocSet;
 
 public class TermVectorAppendTask extends RecursiveAction {
 
@@ -66,15 +66,15 @@ public class TermVectorAppendTask extends RecursiveAction {
       List<Integer> listImpl = (List<Integer>) docs;
       listImpl.add((int) relativeId);
       if (listImpl.size() > this.termVectorArrayThreshold) {
-        OpenBitSet bitset = new OpenBitSet();
+        HybridDocSet docSet = new HybridDocSet();
         for (Integer value : listImpl) {
-          bitset.set(value);
+          docSet.add(value);
         }
         listImpl.clear();
-        this.termVectorMap.put(fieldTerm, bitset);
+        this.termVectorMap.put(fieldTerm, docSet);
       }
-    } else if (docs instanceof OpenBitSet) {
-      ((OpenBitSet) docs).set(relativeId);
+    } else if (docs instanceof HybridDocSet) {
+      ((HybridDocSet) docs).add((int) relativeId);
     }
   }
 
@@ -31,8 +31,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Put;
 
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.lucene.util.OpenBitSet;
-import org.hbasene.index.util.HBaseneUtil;
+import org.hbasene.index.util.AbstractDocSetCodec;
+import org.hbasene.index.util.HybridDocSet;
 
 /**
  * Recursive task to generate a bunch of puts before inserting in.
@@ -53,17 +53,25 @@ public class TermVectorPutTask extends RecursiveAction {
 
   private final ConcurrentHashMap<String, Object> termVectorMap;
 
+  /**
+   * Store, the codecs of the docsets are configured with, see
+   * HBaseneConstants#CONF_DOCSET_CODEC .
+   */
+  private final HBaseIndexStore store;
+
   //private final BlockingQueue<Put> queuePuts;
 
   public TermVectorPutTask(final String[] inputTerms, int low, int high,
       final ConcurrentHashMap<String, Object> termVectorMap,
-      final long docBase, final BlockingQueue<Put> queuePuts) {
+      final long docBase, final BlockingQueue<Put> queuePuts,
+      final HBaseIndexStore store) {
     //this.inputTerms = inputTerms;
     //this.low = low;
     //this.high = high;
     this.termVectorMap = termVectorMap;
     this.docBase = docBase;
     //this.queuePuts = queuePuts;
+    this.store = store;
   }
 
   @Override
@@ -85,9 +93,9 @@ public class TermVectorPutTask extends RecursiveAction {
       int mid = (low + high) >>> 1;
 
       invokeAll(new TermVectorPutTask(this.inputTerms, low, mid,
-          this.termVectorMap, this.docBase, this.queuePuts),
+          this.termVectorMap, this.docBase, this.queuePuts, this.store),
           new TermVectorPutTask(this.inputTerms, mid, high, this.termVectorMap,
-              this.docBase, this.queuePuts));
+              this.docBase, this.queuePuts, this.store));
 
     }
   }  **/
@@ -96,20 +104,17 @@ public class TermVectorPutTask extends RecursiveAction {
   Put generatePut(final String key) {
     final Object value = this.termVectorMap.get(key);
     Put put = new Put(Bytes.toBytes(key));
+    final AbstractDocSetCodec codec = this.store.getDocSetCodec(put.getRow());
     byte[] docSet = null;
-    if (value instanceof OpenBitSet) {
-      docSet = Bytes.add(Bytes.toBytes('O'), HBaseneUtil
-          .toBytes((OpenBitSet) value));
-      // TODO: Scope for optimization, Avoid the redundant array creation and
-      // copying.
+    if (value instanceof HybridDocSet) {
+      docSet = codec.encode((HybridDocSet) value);
     } else if (value instanceof List) {
       List<Integer> list = (List<Integer>) value;
-      byte[] out = new byte[(list.size() + 1) * Bytes.SIZEOF_INT];
-      Bytes.putInt(out, 0, list.size());
-      for (int i = 0; i < list.size(); ++i) {
-        Bytes.putInt(out, (i + 1) * Bytes.SIZEOF_INT, list.get(i).intValue());
+      final int[] docs = new int[list.size()];
+      for (int i = 0; i < docs.length; ++i) {
+        docs[i] = list.get(i).intValue();
       }
-      docSet = Bytes.add(Bytes.toBytes('A'), out);
+      docSet = codec.encode(docs, docs.length);
     }
     put.add(HBaseneConstants.FAMILY_TERMVECTOR, Bytes.toBytes(this.docBase),
         docSet);
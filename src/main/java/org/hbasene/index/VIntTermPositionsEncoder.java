@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hbasene.index.util.HBaseneUtil;
+
+/**
+ * Encodes the term positions of a document as the deltas between the
+ * consecutive positions, each as a variable-length int ( 7 bits per byte,
+ * see HBaseneUtil#putVInt ). The positions of a document are ascending, so
+ * most of the deltas take a single byte, in place of the 4 bytes of
+ * {@link AlphaTermPositionsEncoder}.
+ * <p>
+ * The term frequency is the number of the bytes that end a value, those
+ * with the high bit unset.
+ * </p>
+ */
+public class VIntTermPositionsEncoder extends AbstractTermPositionsEncoder {
+
+  /**
+   * Maximum length of an int, encoded.
+   */
+  private static final int MAX_VINT_BYTES = 5;
+
+  @Override
+  byte getFormat() {
+    return FORMAT_VINT;
+  }
+
+  @Override
+  byte[] encode(final List<Integer> termPositions) {
+    final byte[] encoded = new byte[termPositions.size() * MAX_VINT_BYTES];
+    int offset = 0;
+    int previous = 0;
+    for (final Integer position : termPositions) {
+      offset = HBaseneUtil.putVInt(encoded, offset, position - previous);
+      previous = position;
+    }
+    return Arrays.copyOf(encoded, offset);
+  }
+
+  @Override
+  byte[] encode(final int[] termPositions, final int offset, final int length) {
+    final byte[] encoded = new byte[length * MAX_VINT_BYTES];
+    int upto = 0;
+    int previous = 0;
+    for (int i = offset; i < offset + length; ++i) {
+      upto = HBaseneUtil.putVInt(encoded, upto, termPositions[i] - previous);
+      previous = termPositions[i];
+    }
+    return Arrays.copyOf(encoded, upto);
+  }
+
+  @Override
+  int[] decode(final byte[] value) {
+    return this.decode(value, 0, value.length, null);
+  }
+
+  @Override
+  int[] decode(final byte[] value, final int offset, final int length) {
+    return this.decode(value, offset, length, null);
+  }
+
+  @Override
+  int[] decode(final byte[] value, final int offset, final int length,
+      final int[] buffer) {
+    final int freq = this.getTermFrequency(value, offset, length);
+    final int[] result = (buffer != null && buffer.length >= freq) ? buffer
+        : new int[freq];
+    final int end = offset + length;
+    int position = 0;
+    int i = 0;
+    for (int upto = offset; upto < end;) {
+      byte b = value[upto++];
+      int delta = b & 0x7F;
+      for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+        b = value[upto++];
+        delta |= (b & 0x7F) << shift;
+      }
+      position += delta;
+      result[i++] = position;
+    }
+    return result;
+  }
+
+  @Override
+  int getTermFrequency(final byte[] termPositions) {
+    return this.getTermFrequency(termPositions, 0, termPositions.length);
+  }
+
+  @Override
+  int getTermFrequency(final byte[] termPositions, final int offset,
+      final int length) {
+    int freq = 0;
+    for (int i = offset; i < offset + length; ++i) {
+      if (termPositions[i] >= 0) {
+        ++freq;
+      }
+    }
+    return freq;
+  }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OpenBitSet;
+import org.hbasene.index.HBaseIndexReader;
+import org.hbasene.index.HBaseSegmentInfos;
+import org.hbasene.index.HBaseneConstants;
+import org.hbasene.index.util.HBaseneUtil;
+
+/**
+ * Filter of the documents whose numeric field, as indexed by
+ * {@link NumericField}, lies within a range.
+ * <p>
+ * A NumericField is indexed as the trie terms of its value, one per precision
+ * step. The range is split into the fewest sub-ranges of the trie terms (see
+ * {@link NumericUtils#splitLongRange}), and the term rows of every sub-range
+ * are read with a single bounded scan of the family
+ * {@link HBaseneConstants#FAMILY_TERMVECTOR}, as the prefix coded terms sort
+ * in the order of their values. Hence a range visits at most a few tens of
+ * rows, whatever the number of distinct values within.
+ * </p>
+ * The precision step should be the one the field is indexed with.
+ */
+public class HBaseNumericRangeFilter extends Filter {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Number of the term rows fetched per RPC.
+   */
+  private static final int SCAN_CACHING = 64;
+
+  private final String field;
+
+  /**
+   * Bounds of the sub-ranges, as the pairs of the prefix coded terms.
+   */
+  private final List<String> bounds = new ArrayList<String>();
+
+  private final String description;
+
+  private HBaseNumericRangeFilter(final String field,
+      final String description) {
+    this.field = field;
+    this.description = description;
+  }
+
+  /**
+   * Filter of the long values within the given range. A null bound leaves
+   * the range open on that side.
+   */
+  public static HBaseNumericRangeFilter newLongRange(final String field,
+      final int precisionStep, final Long min, final Long max,
+      final boolean minInclusive, final boolean maxInclusive) {
+    return newSortableLongRange(field, precisionStep, min, max, minInclusive,
+        maxInclusive, describe(field, min, max, minInclusive, maxInclusive));
+  }
+
+  /**
+   * Filter of the double values within the given range, see
+   * {@link NumericUtils#doubleToSortableLong(double)}.
+   */
+  public static HBaseNumericRangeFilter newDoubleRange(final String field,
+      final int precisionStep, final Double min, final Double max,
+      final boolean minInclusive, final boolean maxInclusive) {
+    return newSortableLongRange(field, precisionStep, min == null ? null
+        : NumericUtils.doubleToSortableLong(min), max == null ? null
+        : NumericUtils.doubleToSortableLong(max), minInclusive, maxInclusive,
+        describe(field, min, max, minInclusive, maxInclusive));
+  }
+
+  private static HBaseNumericRangeFilter newSortableLongRange(
+      final String field, final int precisionStep, final Long min,
+      final Long max, final boolean minInclusive, final boolean maxInclusive,
+      final String description) {
+    final HBaseNumericRangeFilter filter = new HBaseNumericRangeFilter(field,
+        description);
+    long lower = Long.MIN_VALUE;
+    if (min != null) {
+      lower = min;
+      if (!minInclusive) {
+        if (lower == Long.MAX_VALUE) {
+          return filter;
+        }
+        ++lower;
+      }
+    }
+    long upper = Long.MAX_VALUE;
+    if (max != null) {
+      upper = max;
+      if (!maxInclusive) {
+        if (upper == Long.MIN_VALUE) {
+          return filter;
+        }
+        --upper;
+      }
+    }
+    filter.splitLongRange(precisionStep, lower, upper);
+    return filter;
+  }
+
+  /**
+   * Filter of the int values within the given range. A null bound leaves the
+   * range open on that side.
+   */
+  public static HBaseNumericRangeFilter newIntRange(final String field,
+      final int precisionStep, final Integer min, final Integer max,
+      final boolean minInclusive, final boolean maxInclusive) {
+    final HBaseNumericRangeFilter filter = new HBaseNumericRangeFilter(field,
+        describe(field, min, max, minInclusive, maxInclusive));
+    int lower = Integer.MIN_VALUE;
+    if (min != null) {
+      lower = min;
+      if (!minInclusive) {
+        if (lower == Integer.MAX_VALUE) {
+          return filter;
+        }
+        ++lower;
+      }
+    }
+    int upper = Integer.MAX_VALUE;
+    if (max != null) {
+      upper = max;
+      if (!maxInclusive) {
+        if (upper == Integer.MIN_VALUE) {
+          return filter;
+        }
+        --upper;
+      }
+    }
+    filter.splitIntRange(precisionStep, lower, upper);
+    return filter;
+  }
+
+  private void splitLongRange(final int precisionStep, final long lower,
+      final long upper) {
+    if (lower > upper) {
+      return;
+    }
+    NumericUtils.splitLongRange(new NumericUtils.LongRangeBuilder() {
+
+      @Override
+      public void addRange(final String minPrefixCoded,
+          final String maxPrefixCoded) {
+        bounds.add(minPrefixCoded);
+        bounds.add(maxPrefixCoded);
+      }
+
+    }, precisionStep, lower, upper);
+  }
+
+  private void splitIntRange(final int precisionStep, final int lower,
+      final int upper) {
+    if (lower > upper) {
+      return;
+    }
+    NumericUtils.splitIntRange(new NumericUtils.IntRangeBuilder() {
+
+      @Override
+      public void addRange(final String minPrefixCoded,
+          final String maxPrefixCoded) {
+        bounds.add(minPrefixCoded);
+        bounds.add(maxPrefixCoded);
+      }
+
+    }, precisionStep, lower, upper);
+  }
+
+  /**
+   * Number of the sub-ranges, hence of the scans, of the range.
+   * 
+   * @return
+   */
+  public int getNumSubRanges() {
+    return this.bounds.size() / 2;
+  }
+
+  @Override
+  public DocIdSet getDocIdSet(final IndexReader reader) throws IOException {
+    if (!(reader instanceof HBaseIndexReader)) {
+      throw new IllegalArgumentException("Expected an HBaseIndexReader, but "
+          + "was " + reader.getClass().getName());
+    }
+    final HBaseIndexReader hbaseReader = (HBaseIndexReader) reader;
+    final HBaseSegmentInfos segmentInfos = hbaseReader.getSegmentInfos();
+    final OpenBitSet docs = new OpenBitSet(reader.maxDoc());
+    final byte[] fieldPrefix = Bytes.toBytes(this.field + "/");
+    final HTable table = hbaseReader.getTablePool().getTable(
+        hbaseReader.getIndexName());
+    try {
+      for (int i = 0; i < this.bounds.size(); i += 2) {
+        final byte[] startRow = Bytes.add(fieldPrefix, Bytes
+            .toBytes(this.bounds.get(i)));
+        // the stop row is exclusive, hence the trailing 0 of the upper bound.
+        final byte[] stopRow = Bytes.add(fieldPrefix, Bytes
+            .toBytes(this.bounds.get(i + 1)), new byte[] { 0 });
+        Scan scan = new Scan(startRow, stopRow);
+        scan.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
+        scan.setCaching(SCAN_CACHING);
+        final ResultScanner scanner = table.getScanner(scan);
+        try {
+          for (final Result result : scanner) {
+            addDocs(result, segmentInfos, docs);
+          }
+        } finally {
+          scanner.close();
+        }
+      }
+    } finally {
+      hbaseReader.getTablePool().putTable(table);
+    }
+    if (reader.hasDeletions()) {
+      docs.andNot(hbaseReader.getDeletedDocs());
+    }
+    return docs;
+  }
+
+  /**
+   * Add the documents of the term row, of the segments of the reader, to the
+   * given set.
+   */
+  private static void addDocs(final Result result,
+      final HBaseSegmentInfos segmentInfos, final OpenBitSet docs) {
+    final KeyValue[] kvs = result.raw();
+    if (kvs == null) {
+      return;
+    }
+    // the docsets are decoded in place, out of the KeyValues.
+    for (final KeyValue kv : kvs) {
+      final int segment = segmentInfos.indexOf(Bytes.toLong(kv.getBuffer(), kv
+          .getQualifierOffset()));
+      if (segment < 0) {
+        continue;
+      }
+      final int docBase = segmentInfos.getDocBase(segment);
+      for (final int doc : HBaseneUtil.toDocIds(kv.getBuffer(), kv
+          .getValueOffset(), kv.getValueLength())) {
+        docs.fastSet(docBase + doc);
+      }
+    }
+  }
+
+  private static String describe(final String field, final Object min,
+      final Object max, final boolean minInclusive,
+      final boolean maxInclusive) {
+    return field + ":" + (minInclusive ? "[" : "{")
+        + (min == null ? "*" : min.toString()) + " TO "
+        + (max == null ? "*" : max.toString()) + (maxInclusive ? "]" : "}");
+  }
+
+  @Override
+  public String toString() {
+    return this.description;
+  }
+}
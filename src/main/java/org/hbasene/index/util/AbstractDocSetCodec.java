@@ -0,0 +1,319 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ * 
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Encode the docset of a term in a segment, the ids of the documents
+ * containing the term, as bytes.
+ * <p>
+ * Every codec has a format, the first int of the docsets it encodes, hence
+ * the docsets of a term written by different codecs ( say, before and after
+ * a denser codec was configured ) are decoded side by side, see
+ * {@link #forFormat(int)}. Codecs are stateless, and are shared.
+ * </p>
+ */
+public abstract class AbstractDocSetCodec {
+
+  /**
+   * The number of the docs followed by the docs, 4 bytes each.
+   */
+  public static final int FORMAT_ARRAY = 'A';
+
+  /**
+   * The words of a bitset of the docs.
+   */
+  public static final int FORMAT_BITSET = 'O';
+
+  public static final int FORMAT_PACKED = BlockPackedDocSet.FORMAT;
+
+  public static final int FORMAT_HYBRID = HybridDocSet.FORMAT;
+
+  private static final AbstractDocSetCodec ARRAY = new ArrayCodec();
+
+  private static final AbstractDocSetCodec BITSET = new BitSetCodec();
+
+  private static final AbstractDocSetCodec PACKED = new PackedCodec();
+
+  private static final AbstractDocSetCodec HYBRID = new HybridCodec();
+
+  private static final AbstractDocSetCodec SMALLEST = new SmallestCodec();
+
+  private static final Map<String, AbstractDocSetCodec> CODECS = new HashMap<String, AbstractDocSetCodec>();
+
+  static {
+    CODECS.put("array", ARRAY);
+    CODECS.put("bitset", BITSET);
+    CODECS.put("packed", PACKED);
+    CODECS.put("hybrid", HYBRID);
+    CODECS.put("smallest", SMALLEST);
+  }
+
+  /**
+   * Retrieve the codec of the docsets of the given format.
+   * 
+   * @param format
+   * @return
+   */
+  public static AbstractDocSetCodec forFormat(final int format) {
+    switch (format) {
+    case FORMAT_ARRAY:
+      return ARRAY;
+    case FORMAT_BITSET:
+      return BITSET;
+    case FORMAT_PACKED:
+      return PACKED;
+    case FORMAT_HYBRID:
+      return HYBRID;
+    default:
+      throw new IllegalArgumentException("Unknown format of the docset "
+          + format);
+    }
+  }
+
+  /**
+   * Retrieve the codec of the given name, as configured by
+   * HBaseneConstants#CONF_DOCSET_CODEC .
+   * 
+   * @param name
+   *          array, bitset, packed, hybrid or smallest ( the smaller of
+   *          packed and hybrid, docset by docset ).
+   * @return
+   */
+  public static AbstractDocSetCodec forName(final String name) {
+    final AbstractDocSetCodec codec = CODECS.get(name);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unknown docset codec " + name);
+    }
+    return codec;
+  }
+
+  /**
+   * Encode the given docs.
+   * 
+   * @param docs
+   *          Ascending ids of the documents.
+   * @param numDocs
+   * @return
+   */
+  public abstract byte[] encode(final int[] docs, final int numDocs);
+
+  /**
+   * Encode the docs of the given set.
+   * 
+   * @param docSet
+   * @return
+   */
+  public byte[] encode(final HybridDocSet docSet) {
+    return this.encode(docSet.toDocIds(), docSet.cardinality());
+  }
+
+  /**
+   * Decode the docset encoded in the given range of the buffer, in place.
+   * 
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return ids of the documents, ascending.
+   */
+  public abstract int[] decode(final byte[] buffer, final int offset,
+      final int length);
+
+  /**
+   * Number of the docs of the docset encoded in the given range of the
+   * buffer, without decoding the docs where the format allows.
+   * 
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return
+   */
+  public int numDocs(final byte[] buffer, final int offset, final int length) {
+    return this.decode(buffer, offset, length).length;
+  }
+
+  private static final class ArrayCodec extends AbstractDocSetCodec {
+
+    @Override
+    public byte[] encode(final int[] docs, final int numDocs) {
+      final byte[] docSet = new byte[(numDocs + 2) * Bytes.SIZEOF_INT];
+      int offset = Bytes.putInt(docSet, 0, FORMAT_ARRAY);
+      offset = Bytes.putInt(docSet, offset, numDocs);
+      for (int i = 0; i < numDocs; ++i) {
+        offset = Bytes.putInt(docSet, offset, docs[i]);
+      }
+      return docSet;
+    }
+
+    @Override
+    public int[] decode(final byte[] buffer, final int offset,
+        final int length) {
+      final int numDocs = Bytes.toInt(buffer, offset + Bytes.SIZEOF_INT);
+      final int[] docs = new int[numDocs];
+      for (int i = 0; i < numDocs; ++i) {
+        docs[i] = Bytes.toInt(buffer, offset + (i + 2) * Bytes.SIZEOF_INT);
+      }
+      return docs;
+    }
+
+    @Override
+    public int numDocs(final byte[] buffer, final int offset, final int length) {
+      return Bytes.toInt(buffer, offset + Bytes.SIZEOF_INT);
+    }
+  }
+
+  private static final class BitSetCodec extends AbstractDocSetCodec {
+
+    @Override
+    public byte[] encode(final int[] docs, final int numDocs) {
+      final int wlen = numDocs == 0 ? 0 : (docs[numDocs - 1] >>> 6) + 1;
+      final long[] words = new long[wlen];
+      for (int i = 0; i < numDocs; ++i) {
+        words[docs[i] >>> 6] |= 1L << docs[i];
+      }
+      final byte[] docSet = new byte[Bytes.SIZEOF_INT + wlen
+          * Bytes.SIZEOF_LONG];
+      int offset = Bytes.putInt(docSet, 0, FORMAT_BITSET);
+      for (final long word : words) {
+        offset = Bytes.putLong(docSet, offset, word);
+      }
+      return docSet;
+    }
+
+    @Override
+    public int[] decode(final byte[] buffer, final int offset,
+        final int length) {
+      final int wordsOffset = offset + Bytes.SIZEOF_INT;
+      final int wlen = (length - Bytes.SIZEOF_INT) / Bytes.SIZEOF_LONG;
+      int numDocs = 0;
+      for (int i = 0; i < wlen; ++i) {
+        numDocs += Long.bitCount(Bytes.toLong(buffer, wordsOffset + i
+            * Bytes.SIZEOF_LONG));
+      }
+      final int[] docs = new int[numDocs];
+      int upto = 0;
+      for (int i = 0; i < wlen; ++i) {
+        long word = Bytes.toLong(buffer, wordsOffset + i * Bytes.SIZEOF_LONG);
+        while (word != 0) {
+          docs[upto++] = (i << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+        }
+      }
+      return docs;
+    }
+
+    @Override
+    public int numDocs(final byte[] buffer, final int offset, final int length) {
+      final int wordsOffset = offset + Bytes.SIZEOF_INT;
+      final int wlen = (length - Bytes.SIZEOF_INT) / Bytes.SIZEOF_LONG;
+      int numDocs = 0;
+      for (int i = 0; i < wlen; ++i) {
+        numDocs += Long.bitCount(Bytes.toLong(buffer, wordsOffset + i
+            * Bytes.SIZEOF_LONG));
+      }
+      return numDocs;
+    }
+  }
+
+  private static final class PackedCodec extends AbstractDocSetCodec {
+
+    @Override
+    public byte[] encode(final int[] docs, final int numDocs) {
+      return BlockPackedDocSet.encode(docs, numDocs);
+    }
+
+    @Override
+    public int[] decode(final byte[] buffer, final int offset,
+        final int length) {
+      return BlockPackedDocSet.decode(buffer, offset, length);
+    }
+
+    @Override
+    public int numDocs(final byte[] buffer, final int offset, final int length) {
+      return BlockPackedDocSet.numDocs(buffer, offset);
+    }
+  }
+
+  private static final class HybridCodec extends AbstractDocSetCodec {
+
+    @Override
+    public byte[] encode(final int[] docs, final int numDocs) {
+      final HybridDocSet docSet = new HybridDocSet();
+      for (int i = 0; i < numDocs; ++i) {
+        docSet.add(docs[i]);
+      }
+      return docSet.toBytes();
+    }
+
+    @Override
+    public byte[] encode(final HybridDocSet docSet) {
+      return docSet.toBytes();
+    }
+
+    @Override
+    public int[] decode(final byte[] buffer, final int offset,
+        final int length) {
+      return HybridDocSet.fromBytes(buffer, offset, length).toDocIds();
+    }
+
+    @Override
+    public int numDocs(final byte[] buffer, final int offset, final int length) {
+      return HybridDocSet.fromBytes(buffer, offset, length).cardinality();
+    }
+  }
+
+  /**
+   * Packed deltas of the docs, or the hybrid docset if smaller. Few docs are
+   * kept as an array, hence never compared against the hybrid docset.
+   */
+  private static final class SmallestCodec extends AbstractDocSetCodec {
+
+    @Override
+    public byte[] encode(final int[] docs, final int numDocs) {
+      return PACKED.encode(docs, numDocs);
+    }
+
+    @Override
+    public byte[] encode(final HybridDocSet docSet) {
+      final byte[] hybrid = docSet.toBytes();
+      final byte[] packed = PACKED.encode(docSet.toDocIds(), docSet
+          .cardinality());
+      return packed.length < hybrid.length ? packed : hybrid;
+    }
+
+    @Override
+    public int[] decode(final byte[] buffer, final int offset,
+        final int length) {
+      return forFormat(Bytes.toInt(buffer, offset)).decode(buffer, offset,
+          length);
+    }
+
+    @Override
+    public int numDocs(final byte[] buffer, final int offset, final int length) {
+      return forFormat(Bytes.toInt(buffer, offset)).numDocs(buffer, offset,
+          length);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ * 
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Frame of reference encoding of the docset of a term in a segment.
+ * <p>
+ * The ascending doc ids are written as the deltas from the previous doc id
+ * ( the first from 0 ), in blocks of {@link #BLOCK_SIZE} deltas. A block
+ * starts with the bit width of its largest delta ( a byte ), followed by the
+ * deltas packed at that width into 2 * width longs. The deltas left over
+ * after the last full block are written as variable-length ints, so that
+ * sparse docsets do not pay for a block.
+ * </p>
+ * The format is not always smaller than the raw ints of the 'A' format. A
+ * block takes 1 + 16 * width bytes, that is 513 bytes at width 32 against 512
+ * for its docs as ints, and a left-over delta takes up to 5 bytes. Only docsets
+ * of very large deltas come close to that. The size of a docset is bounded by
+ * the smallest codec instead ( see AbstractDocSetCodec#forName ), which keeps
+ * the smaller of this format and the hybrid docset, at most 2 bytes a doc.
+ * 
+ * <pre>
+ * 'F' (int), numDocs (int), (width (byte), long[2 * width])*, vint*
+ * </pre>
+ */
+public class BlockPackedDocSet {
+
+  /**
+   * Format of the docset, written as an int like the other formats of
+   * {@link HBaseneUtil#toDocIds(byte[])}.
+   */
+  public static final int FORMAT = 'F';
+
+  /**
+   * Number of the deltas of a block.
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  private static final int HEADER_LENGTH = 2 * Bytes.SIZEOF_INT;
+
+  /**
+   * Longs of a block of the largest width, and a trailing 0 word read past
+   * the last word of every block.
+   */
+  private static final int MAX_BLOCK_WORDS = 2 * Integer.SIZE + 1;
+
+  private BlockPackedDocSet() {
+  }
+
+  /**
+   * Encode the given ascending doc ids.
+   * 
+   * @param docs
+   * @param numDocs
+   * @return
+   */
+  public static byte[] encode(final int[] docs, final int numDocs) {
+    final int numBlocks = numDocs / BLOCK_SIZE;
+    final byte[] out = new byte[HEADER_LENGTH + numBlocks
+        * (1 + 2 * Integer.SIZE * Bytes.SIZEOF_LONG) + (numDocs % BLOCK_SIZE)
+        * 5];
+    int offset = Bytes.putInt(out, 0, FORMAT);
+    offset = Bytes.putInt(out, offset, numDocs);
+    final int[] deltas = new int[BLOCK_SIZE];
+    final long[] words = new long[MAX_BLOCK_WORDS];
+    int previous = 0;
+    int upto = 0;
+    for (int block = 0; block < numBlocks; ++block) {
+      int or = 0;
+      for (int i = 0; i < BLOCK_SIZE; ++i, ++upto) {
+        deltas[i] = docs[upto] - previous;
+        previous = docs[upto];
+        or |= deltas[i];
+      }
+      final int width = Integer.SIZE - Integer.numberOfLeadingZeros(or);
+      final int numWords = 2 * width;
+      Arrays.fill(words, 0, numWords + 1, 0L);
+      for (int i = 0; i < BLOCK_SIZE; ++i) {
+        final int bit = i * width;
+        final int shift = bit & 63;
+        final long delta = deltas[i] & 0xFFFFFFFFL;
+        words[bit >>> 6] |= delta << shift;
+        words[(bit >>> 6) + 1] |= delta >>> 1 >>> (63 - shift);
+      }
+      out[offset++] = (byte) width;
+      for (int i = 0; i < numWords; ++i) {
+        offset = Bytes.putLong(out, offset, words[i]);
+      }
+    }
+    for (; upto < numDocs; ++upto) {
+      offset = HBaseneUtil.putVInt(out, offset, docs[upto] - previous);
+      previous = docs[upto];
+    }
+    return Arrays.copyOf(out, offset);
+  }
+
+  /**
+   * Number of the docs of the encoded docset.
+   * 
+   * @param docSet
+   * @return
+   */
+  public static int numDocs(final byte[] docSet) {
+    return numDocs(docSet, 0);
+  }
+
+  /**
+   * Number of the docs of the docset encoded at the given offset.
+   * 
+   * @param buffer
+   * @param offset
+   * @return
+   */
+  public static int numDocs(final byte[] buffer, final int offset) {
+    return Bytes.toInt(buffer, offset + Bytes.SIZEOF_INT);
+  }
+
+  /**
+   * Decode the doc ids of the docset, as encoded by
+   * {@link #encode(int[], int)}.
+   * 
+   * @param docSet
+   * @return
+   */
+  public static int[] decode(final byte[] docSet) {
+    return decode(docSet, 0, docSet.length);
+  }
+
+  /**
+   * Decode the doc ids of the docset encoded in the given range of the
+   * buffer, in place.
+   * 
+   * @param docSet
+   * @param start
+   * @param length
+   * @return
+   */
+  public static int[] decode(final byte[] docSet, final int start,
+      final int length) {
+    final int numDocs = numDocs(docSet, start);
+    final int[] docs = new int[numDocs];
+    final long[] words = new long[MAX_BLOCK_WORDS];
+    final int numBlocks = numDocs / BLOCK_SIZE;
+    int offset = start + HEADER_LENGTH;
+    int previous = 0;
+    int upto = 0;
+    for (int block = 0; block < numBlocks; ++block) {
+      final int width = docSet[offset++];
+      final int numWords = 2 * width;
+      for (int i = 0; i < numWords; ++i) {
+        words[i] = Bytes.toLong(docSet, offset);
+        offset += Bytes.SIZEOF_LONG;
+      }
+      words[numWords] = 0L;
+      previous = unpack(words, width, previous, docs, upto);
+      upto += BLOCK_SIZE;
+    }
+    final int[] position = new int[] { offset };
+    for (; upto < numDocs; ++upto) {
+      previous += HBaseneUtil.getVInt(docSet, position);
+      docs[upto] = previous;
+    }
+    return docs;
+  }
+
+  /**
+   * Unpack a block of deltas, adding them up into the doc ids. The value of
+   * a delta straddling two words is the OR of the both words shifted, the
+   * second of which shifts to 0 otherwise, hence the loop has no branches.
+   * 
+   * @return the last doc id of the block.
+   */
+  private static int unpack(final long[] words, final int width,
+      int previous, final int[] docs, final int offset) {
+    final long mask = (1L << width) - 1;
+    for (int i = 0; i < BLOCK_SIZE; ++i) {
+      final int bit = i * width;
+      final int word = bit >>> 6;
+      final int shift = bit & 63;
+      final long value = (words[word] >>> shift)
+          | (words[word + 1] << 1 << (63 - shift));
+      previous += (int) (value & mask);
+      docs[offset + i] = previous;
+    }
+    return previous;
+  }
+}
@@ -60,18 +60,146 @@ public class HBaseneUtil {
    * @return Convert from bytes to OpenBitSet
    **/
   public static OpenBitSet toOpenBitSet(final byte[] bytes) {
-    int wlen = bytes.length / Bytes.SIZEOF_LONG ;
+    return toOpenBitSet(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Convert the given range of the buffer ( as the value of a KeyValue ) to
+   * an open bitset.
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return null, if the range holds no word.
+   **/
+  public static OpenBitSet toOpenBitSet(final byte[] buffer, final int offset,
+      final int length) {
+    int wlen = length / Bytes.SIZEOF_LONG ;
     if (wlen == 0) { 
       return null;
     }
     long [] bits = new long[wlen];
     for (int i = 0; i < wlen ; ++i) {
-      bits[i] = Bytes.toLong(bytes, i * Bytes.SIZEOF_LONG);
+      bits[i] = Bytes.toLong(buffer, offset + i * Bytes.SIZEOF_LONG);
     }
     return new OpenBitSet(bits, wlen);
   }
 
-  
+  /**
+   * Set the bits of the bitset serialized in the given range of the buffer
+   * ( see {@link #toBytes(OpenBitSet)} ) in the given bitset, offset by the
+   * base, reading the words in place. Bits beyond the limit are left out.
+   * @param buffer
+   * @param offset
+   * @param length
+   * @param bits
+   * @param base
+   * @param limit
+   **/
+  public static void orInto(final byte[] buffer, final int offset,
+      final int length, final OpenBitSet bits, final int base, final int limit) {
+    final int wlen = length / Bytes.SIZEOF_LONG;
+    for (int i = 0; i < wlen; ++i) {
+      long word = Bytes.toLong(buffer, offset + i * Bytes.SIZEOF_LONG);
+      while (word != 0) {
+        final int bit = (i << 6) + Long.numberOfTrailingZeros(word);
+        if (bit >= limit) {
+          return;
+        }
+        bits.fastSet(base + bit);
+        word &= word - 1;
+      }
+    }
+  }
+
+  /**
+   * Decode the docset of a term in a segment, as stored in the term vector,
+   * into the ascending ids of the documents.
+   * @param docSet in any of the formats of {@link AbstractDocSetCodec}.
+   * @return ids of the documents within the segment.
+   **/
+  public static int[] toDocIds(final byte[] docSet) {
+    return toDocIds(docSet, 0, docSet.length);
+  }
+
+  /**
+   * Decode the docset held in the given range of the buffer, as the value of
+   * a KeyValue, without copying the value out first.
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return ids of the documents within the segment.
+   **/
+  public static int[] toDocIds(final byte[] buffer, final int offset,
+      final int length) {
+    return AbstractDocSetCodec.forFormat(Bytes.toInt(buffer, offset)).decode(
+        buffer, offset, length);
+  }
+
+  /**
+   * Number of the docs of the docset held in the given range of the buffer,
+   * in any of the formats of {@link #toDocIds(byte[])}.
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return
+   **/
+  public static int numDocs(final byte[] buffer, final int offset,
+      final int length) {
+    return AbstractDocSetCodec.forFormat(Bytes.toInt(buffer, offset)).numDocs(
+        buffer, offset, length);
+  }
+
+  /**
+   * Decode the docset of a term in a segment, in any of the formats of
+   * {@link #toDocIds(byte[])}, as a DocIdSet.
+   * @param docSet
+   * @return
+   **/
+  public static HybridDocSet toDocIdSet(final byte[] docSet) {
+    if (Bytes.toInt(docSet, 0) == HybridDocSet.FORMAT) {
+      return HybridDocSet.fromBytes(docSet);
+    }
+    final HybridDocSet set = new HybridDocSet();
+    for (final int doc : toDocIds(docSet)) {
+      set.add(doc);
+    }
+    return set;
+  }
+
+  /**
+   * Write a non-negative int as a variable-length int, 7 bits per byte.
+   * @param bytes Destination, with room for 5 bytes at the offset.
+   * @param offset
+   * @param value
+   * @return the offset past the encoded value.
+   */
+  public static int putVInt(final byte[] bytes, int offset, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[offset++] = (byte) value;
+    return offset;
+  }
+
+  /**
+   * Read a variable-length int, see {@link #putVInt(byte[], int, int)}.
+   * @param bytes
+   * @param offset Offset of the value, advanced past the value.
+   * @return the decoded int.
+   */
+  public static int getVInt(final byte[] bytes, final int[] offset) {
+    int pos = offset[0];
+    byte b = bytes[pos++];
+    int value = b & 0x7F;
+    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+      b = bytes[pos++];
+      value |= (b & 0x7F) << shift;
+    }
+    offset[0] = pos;
+    return value;
+  }
+
   /**
    * Create the default openBitSet.
    * @return Default openBitSet of a small document size.
@@ -0,0 +1,950 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ * 
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * Compressed set of doc ids, split into chunks of 64K docs by the high 16
+ * bits of the docs.
+ * <p>
+ * The low 16 bits of the docs of a chunk are held by a container, picked by
+ * the density of the chunk: a sorted array of up to {@link #MAX_ARRAY}
+ * values, a bitmap of 1024 words beyond that, or the runs of consecutive
+ * values, when fewer bytes than either. The in-memory operations produce
+ * arrays and bitmaps, the runs being picked when the set is serialized ( see
+ * {@link #toBytes()} ). Hence a set costs at most 2 bytes a doc, and nothing
+ * for the empty chunks.
+ * </p>
+ * The serialized form, as stored in the term vector cells, is
+ * 
+ * <pre>
+ * 'R' (int), numContainers (int), (key (char), type (byte), container)*
+ * array  : cardinality (char), values (char)*
+ * bitmap : words (long[1024])
+ * run    : numRuns (char), (start (char), length - 1 (char))*
+ * </pre>
+ * 
+ * This class is not thread-safe.
+ */
+public class HybridDocSet extends DocIdSet {
+
+  /**
+   * Format of the docset, written as an int like the other formats of
+   * {@link HBaseneUtil#toDocIds(byte[])}.
+   */
+  public static final int FORMAT = 'R';
+
+  /**
+   * Cardinality beyond which a chunk is held by a bitmap.
+   */
+  static final int MAX_ARRAY = 4096;
+
+  private static final int BITMAP_WORDS = 1024;
+
+  private static final byte TYPE_ARRAY = 0;
+
+  private static final byte TYPE_BITMAP = 1;
+
+  private static final byte TYPE_RUN = 2;
+
+  private static final int BYTES_OBJECT = 16;
+
+  private char[] keys;
+
+  private Container[] containers;
+
+  private int size;
+
+  public HybridDocSet() {
+    this(4);
+  }
+
+  private HybridDocSet(final int capacity) {
+    this.keys = new char[capacity];
+    this.containers = new Container[capacity];
+  }
+
+  /**
+   * Add the given doc to the set. Adding the docs in the ascending order is
+   * the cheapest.
+   * 
+   * @param doc
+   */
+  public void add(final int doc) {
+    final char key = (char) (doc >>> 16);
+    int index = this.size - 1;
+    if (index < 0 || this.keys[index] != key) {
+      index = this.indexOf(key);
+      if (index < 0) {
+        index = -index - 1;
+        this.insert(index, key, new ArrayContainer());
+      }
+    }
+    this.containers[index] = this.containers[index].add((char) doc);
+  }
+
+  public boolean contains(final int doc) {
+    final int index = this.indexOf((char) (doc >>> 16));
+    return index >= 0 && this.containers[index].contains((char) doc);
+  }
+
+  /**
+   * Number of the docs of the set.
+   * 
+   * @return
+   */
+  public int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < this.size; ++i) {
+      cardinality += this.containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  /**
+   * Estimate of the heap held by the set.
+   * 
+   * @return
+   */
+  public long ramBytesUsed() {
+    long bytes = 2 * BYTES_OBJECT + this.keys.length * (2 + 8);
+    for (int i = 0; i < this.size; ++i) {
+      bytes += this.containers[i].ramBytesUsed();
+    }
+    return bytes;
+  }
+
+  /**
+   * Intersection of the set and the given set.
+   * 
+   * @param other
+   * @return a new set.
+   */
+  public HybridDocSet and(final HybridDocSet other) {
+    final HybridDocSet result = new HybridDocSet(Math.max(1, Math.min(
+        this.size, other.size)));
+    int i = 0;
+    int j = 0;
+    while (i < this.size && j < other.size) {
+      if (this.keys[i] < other.keys[j]) {
+        ++i;
+      } else if (this.keys[i] > other.keys[j]) {
+        ++j;
+      } else {
+        result.append(this.keys[i], and(this.containers[i],
+            other.containers[j]));
+        ++i;
+        ++j;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Union of the set and the given set.
+   * 
+   * @param other
+   * @return a new set.
+   */
+  public HybridDocSet or(final HybridDocSet other) {
+    final HybridDocSet result = new HybridDocSet(Math.max(1, this.size
+        + other.size));
+    int i = 0;
+    int j = 0;
+    while (i < this.size || j < other.size) {
+      if (j == other.size
+          || (i < this.size && this.keys[i] < other.keys[j])) {
+        result.append(this.keys[i], this.containers[i].copy());
+        ++i;
+      } else if (i == this.size || this.keys[i] > other.keys[j]) {
+        result.append(other.keys[j], other.containers[j].copy());
+        ++j;
+      } else {
+        final long[] words = this.containers[i].toWords();
+        other.containers[j].orInto(words);
+        result.append(this.keys[i], fromWords(words));
+        ++i;
+        ++j;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Docs of the set that are not in the given set.
+   * 
+   * @param other
+   * @return a new set.
+   */
+  public HybridDocSet andNot(final HybridDocSet other) {
+    final HybridDocSet result = new HybridDocSet(Math.max(1, this.size));
+    int j = 0;
+    for (int i = 0; i < this.size; ++i) {
+      while (j < other.size && other.keys[j] < this.keys[i]) {
+        ++j;
+      }
+      if (j < other.size && other.keys[j] == this.keys[i]) {
+        result.append(this.keys[i], andNot(this.containers[i],
+            other.containers[j]));
+      } else {
+        result.append(this.keys[i], this.containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Docs of the set, in the ascending order.
+   * 
+   * @return
+   */
+  public int[] toDocIds() {
+    final int[] docs = new int[this.cardinality()];
+    int offset = 0;
+    for (int i = 0; i < this.size; ++i) {
+      offset = this.containers[i].toArray(docs, offset, this.keys[i] << 16);
+    }
+    return docs;
+  }
+
+  @Override
+  public DocIdSetIterator iterator() {
+    return new Iterator();
+  }
+
+  /**
+   * Serialize the set, picking the runs for the containers they are smaller
+   * for.
+   * 
+   * @return
+   */
+  public byte[] toBytes() {
+    final Container[] optimized = new Container[this.size];
+    int length = 2 * Bytes.SIZEOF_INT;
+    for (int i = 0; i < this.size; ++i) {
+      optimized[i] = this.containers[i].optimize();
+      length += 3 + optimized[i].serializedLength();
+    }
+    final byte[] out = new byte[length];
+    int offset = Bytes.putInt(out, 0, FORMAT);
+    offset = Bytes.putInt(out, offset, this.size);
+    for (int i = 0; i < this.size; ++i) {
+      offset = putChar(out, offset, this.keys[i]);
+      out[offset++] = optimized[i].type();
+      offset = optimized[i].serialize(out, offset);
+    }
+    return out;
+  }
+
+  /**
+   * Read a set serialized by {@link #toBytes()}.
+   * 
+   * @param bytes
+   * @return
+   */
+  public static HybridDocSet fromBytes(final byte[] bytes) {
+    return fromBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Read a set serialized in the given range of the buffer, as the value of
+   * a KeyValue.
+   * 
+   * @param bytes
+   * @param start
+   * @param length
+   * @return
+   */
+  public static HybridDocSet fromBytes(final byte[] bytes, final int start,
+      final int length) {
+    final int numContainers = Bytes.toInt(bytes, start + Bytes.SIZEOF_INT);
+    final HybridDocSet set = new HybridDocSet(Math.max(1, numContainers));
+    int offset = start + 2 * Bytes.SIZEOF_INT;
+    for (int i = 0; i < numContainers; ++i) {
+      final char key = getChar(bytes, offset);
+      final byte type = bytes[offset + 2];
+      offset += 3;
+      final Container container;
+      if (type == TYPE_ARRAY) {
+        container = ArrayContainer.deserialize(bytes, offset);
+      } else if (type == TYPE_BITMAP) {
+        container = BitmapContainer.deserialize(bytes, offset);
+      } else if (type == TYPE_RUN) {
+        container = RunContainer.deserialize(bytes, offset);
+      } else {
+        throw new IllegalArgumentException("Unknown container type " + type);
+      }
+      offset += container.serializedLength();
+      set.append(key, container);
+    }
+    return set;
+  }
+
+  private int indexOf(final char key) {
+    int low = 0;
+    int high = this.size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (this.keys[mid] < key) {
+        low = mid + 1;
+      } else if (this.keys[mid] > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private void insert(final int index, final char key,
+      final Container container) {
+    if (this.size == this.keys.length) {
+      this.keys = Arrays.copyOf(this.keys, this.size << 1);
+      this.containers = Arrays.copyOf(this.containers, this.size << 1);
+    }
+    System.arraycopy(this.keys, index, this.keys, index + 1, this.size
+        - index);
+    System.arraycopy(this.containers, index, this.containers, index + 1,
+        this.size - index);
+    this.keys[index] = key;
+    this.containers[index] = container;
+    this.size++;
+  }
+
+  /**
+   * Append the container of a key larger than the keys of the set, if not
+   * empty.
+   */
+  private void append(final char key, final Container container) {
+    if (container.cardinality() > 0) {
+      this.insert(this.size, key, container);
+    }
+  }
+
+  private static Container and(final Container a, final Container b) {
+    if (a instanceof ArrayContainer) {
+      return ((ArrayContainer) a).filter(b, true);
+    } else if (b instanceof ArrayContainer) {
+      return ((ArrayContainer) b).filter(a, true);
+    }
+    final long[] words = a.toWords();
+    final long[] otherWords = b.toWords();
+    for (int i = 0; i < BITMAP_WORDS; ++i) {
+      words[i] &= otherWords[i];
+    }
+    return fromWords(words);
+  }
+
+  private static Container andNot(final Container a, final Container b) {
+    if (a instanceof ArrayContainer) {
+      return ((ArrayContainer) a).filter(b, false);
+    }
+    final long[] words = a.toWords();
+    final long[] otherWords = b.toWords();
+    for (int i = 0; i < BITMAP_WORDS; ++i) {
+      words[i] &= ~otherWords[i];
+    }
+    return fromWords(words);
+  }
+
+  /**
+   * Array or bitmap container of the given words, by the cardinality.
+   */
+  static Container fromWords(final long[] words) {
+    int cardinality = 0;
+    for (int i = 0; i < BITMAP_WORDS; ++i) {
+      cardinality += Long.bitCount(words[i]);
+    }
+    if (cardinality > MAX_ARRAY) {
+      return new BitmapContainer(words, cardinality);
+    }
+    final ArrayContainer container = new ArrayContainer(cardinality);
+    for (int i = 0; i < BITMAP_WORDS; ++i) {
+      long word = words[i];
+      while (word != 0) {
+        container.values[container.cardinality++] = (char) ((i << 6) + Long
+            .numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return container;
+  }
+
+  static int putChar(final byte[] bytes, final int offset, final char value) {
+    bytes[offset] = (byte) (value >>> 8);
+    bytes[offset + 1] = (byte) value;
+    return offset + 2;
+  }
+
+  static char getChar(final byte[] bytes, final int offset) {
+    return (char) (((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF));
+  }
+
+  /**
+   * Low 16 bits of the docs of a chunk.
+   */
+  abstract static class Container {
+
+    abstract int cardinality();
+
+    abstract boolean contains(char value);
+
+    /**
+     * Add the value, converting the container if need be.
+     * 
+     * @return the container holding the value.
+     */
+    abstract Container add(char value);
+
+    /**
+     * Smallest value of the container not less than the given one.
+     * 
+     * @return -1, if none.
+     */
+    abstract int nextValue(int from);
+
+    /**
+     * Set the bits of the values in the given 1024 words.
+     */
+    abstract void orInto(long[] words);
+
+    /**
+     * Write the values, or-ed with the high bits, from the given offset.
+     * 
+     * @return the offset past the values.
+     */
+    abstract int toArray(int[] docs, int offset, int high);
+
+    abstract long ramBytesUsed();
+
+    abstract byte type();
+
+    abstract int serializedLength();
+
+    abstract int serialize(byte[] out, int offset);
+
+    abstract Container copy();
+
+    /**
+     * Number of the runs of consecutive values.
+     */
+    abstract int numRuns();
+
+    long[] toWords() {
+      final long[] words = new long[BITMAP_WORDS];
+      this.orInto(words);
+      return words;
+    }
+
+    /**
+     * The container of the runs, if smaller when serialized.
+     */
+    Container optimize() {
+      final int numRuns = this.numRuns();
+      if (RunContainer.serializedLength(numRuns) >= this.serializedLength()) {
+        return this;
+      }
+      final RunContainer runs = new RunContainer(numRuns);
+      int value = this.nextValue(0);
+      while (value >= 0) {
+        int end = value;
+        while (end < 0xFFFF && this.contains((char) (end + 1))) {
+          ++end;
+        }
+        runs.addRun(value, end);
+        value = end < 0xFFFF ? this.nextValue(end + 1) : -1;
+      }
+      return runs;
+    }
+  }
+
+  static final class ArrayContainer extends Container {
+
+    char[] values;
+
+    int cardinality;
+
+    ArrayContainer() {
+      this(4);
+    }
+
+    ArrayContainer(final int capacity) {
+      this.values = new char[Math.max(capacity, 1)];
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    @Override
+    boolean contains(final char value) {
+      return Arrays.binarySearch(this.values, 0, this.cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(final char value) {
+      int index = this.cardinality;
+      if (index > 0 && this.values[index - 1] >= value) {
+        index = Arrays.binarySearch(this.values, 0, this.cardinality, value);
+        if (index >= 0) {
+          return this;
+        }
+        index = -index - 1;
+      }
+      if (this.cardinality == MAX_ARRAY) {
+        final long[] words = this.toWords();
+        words[value >>> 6] |= 1L << value;
+        return new BitmapContainer(words, this.cardinality + 1);
+      }
+      if (this.cardinality == this.values.length) {
+        this.values = Arrays.copyOf(this.values, Math.min(MAX_ARRAY,
+            this.cardinality << 1));
+      }
+      System.arraycopy(this.values, index, this.values, index + 1,
+          this.cardinality - index);
+      this.values[index] = value;
+      this.cardinality++;
+      return this;
+    }
+
+    @Override
+    int nextValue(final int from) {
+      if (from > 0xFFFF) {
+        return -1;
+      }
+      int index = Arrays.binarySearch(this.values, 0, this.cardinality,
+          (char) from);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return index < this.cardinality ? this.values[index] : -1;
+    }
+
+    @Override
+    void orInto(final long[] words) {
+      for (int i = 0; i < this.cardinality; ++i) {
+        words[this.values[i] >>> 6] |= 1L << this.values[i];
+      }
+    }
+
+    @Override
+    int toArray(final int[] docs, int offset, final int high) {
+      for (int i = 0; i < this.cardinality; ++i) {
+        docs[offset++] = high | this.values[i];
+      }
+      return offset;
+    }
+
+    /**
+     * Values that are, or are not, in the given container.
+     */
+    ArrayContainer filter(final Container other, final boolean keep) {
+      final ArrayContainer result = new ArrayContainer(this.cardinality);
+      for (int i = 0; i < this.cardinality; ++i) {
+        if (other.contains(this.values[i]) == keep) {
+          result.values[result.cardinality++] = this.values[i];
+        }
+      }
+      return result;
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return 2 * BYTES_OBJECT + 2 * this.values.length;
+    }
+
+    @Override
+    byte type() {
+      return TYPE_ARRAY;
+    }
+
+    @Override
+    int serializedLength() {
+      return 2 + 2 * this.cardinality;
+    }
+
+    @Override
+    int serialize(final byte[] out, int offset) {
+      offset = putChar(out, offset, (char) this.cardinality);
+      for (int i = 0; i < this.cardinality; ++i) {
+        offset = putChar(out, offset, this.values[i]);
+      }
+      return offset;
+    }
+
+    static ArrayContainer deserialize(final byte[] bytes, int offset) {
+      final int cardinality = getChar(bytes, offset);
+      offset += 2;
+      final ArrayContainer container = new ArrayContainer(cardinality);
+      for (int i = 0; i < cardinality; ++i, offset += 2) {
+        container.values[i] = getChar(bytes, offset);
+      }
+      container.cardinality = cardinality;
+      return container;
+    }
+
+    @Override
+    Container copy() {
+      final ArrayContainer container = new ArrayContainer(this.cardinality);
+      System.arraycopy(this.values, 0, container.values, 0, this.cardinality);
+      container.cardinality = this.cardinality;
+      return container;
+    }
+
+    @Override
+    int numRuns() {
+      int numRuns = this.cardinality > 0 ? 1 : 0;
+      for (int i = 1; i < this.cardinality; ++i) {
+        if (this.values[i] != this.values[i - 1] + 1) {
+          ++numRuns;
+        }
+      }
+      return numRuns;
+    }
+  }
+
+  static final class BitmapContainer extends Container {
+
+    final long[] words;
+
+    int cardinality;
+
+    BitmapContainer(final long[] words, final int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    @Override
+    boolean contains(final char value) {
+      return (this.words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(final char value) {
+      final long word = this.words[value >>> 6];
+      final long bit = 1L << value;
+      if ((word & bit) == 0) {
+        this.words[value >>> 6] = word | bit;
+        this.cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    int nextValue(final int from) {
+      if (from > 0xFFFF) {
+        return -1;
+      }
+      int i = from >>> 6;
+      long word = this.words[i] & (-1L << from);
+      while (word == 0) {
+        if (++i == BITMAP_WORDS) {
+          return -1;
+        }
+        word = this.words[i];
+      }
+      return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    void orInto(final long[] words) {
+      for (int i = 0; i < BITMAP_WORDS; ++i) {
+        words[i] |= this.words[i];
+      }
+    }
+
+    @Override
+    long[] toWords() {
+      return Arrays.copyOf(this.words, BITMAP_WORDS);
+    }
+
+    @Override
+    int toArray(final int[] docs, int offset, final int high) {
+      for (int i = 0; i < BITMAP_WORDS; ++i) {
+        long word = this.words[i];
+        while (word != 0) {
+          docs[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return offset;
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return 2 * BYTES_OBJECT + BITMAP_WORDS * Bytes.SIZEOF_LONG;
+    }
+
+    @Override
+    byte type() {
+      return TYPE_BITMAP;
+    }
+
+    @Override
+    int serializedLength() {
+      return BITMAP_WORDS * Bytes.SIZEOF_LONG;
+    }
+
+    @Override
+    int serialize(final byte[] out, int offset) {
+      for (int i = 0; i < BITMAP_WORDS; ++i) {
+        offset = Bytes.putLong(out, offset, this.words[i]);
+      }
+      return offset;
+    }
+
+    static BitmapContainer deserialize(final byte[] bytes, int offset) {
+      final long[] words = new long[BITMAP_WORDS];
+      int cardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; ++i, offset += Bytes.SIZEOF_LONG) {
+        words[i] = Bytes.toLong(bytes, offset);
+        cardinality += Long.bitCount(words[i]);
+      }
+      return new BitmapContainer(words, cardinality);
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(this.toWords(), this.cardinality);
+    }
+
+    @Override
+    int numRuns() {
+      int numRuns = 0;
+      long carry = 0;
+      for (int i = 0; i < BITMAP_WORDS; ++i) {
+        final long word = this.words[i];
+        // bits that start a run, not preceded by a set bit.
+        numRuns += Long.bitCount(word & ~((word << 1) | carry));
+        carry = word >>> 63;
+      }
+      return numRuns;
+    }
+  }
+
+  static final class RunContainer extends Container {
+
+    /**
+     * start, length - 1 pairs.
+     */
+    final char[] runs;
+
+    int numRuns;
+
+    private int cardinality;
+
+    RunContainer(final int numRuns) {
+      this.runs = new char[2 * numRuns];
+    }
+
+    void addRun(final int start, final int end) {
+      this.runs[2 * this.numRuns] = (char) start;
+      this.runs[2 * this.numRuns + 1] = (char) (end - start);
+      this.numRuns++;
+      this.cardinality += end - start + 1;
+    }
+
+    @Override
+    int cardinality() {
+      return this.cardinality;
+    }
+
+    /**
+     * Index of the last run starting at or before the value, -1 if none.
+     */
+    private int runOf(final int value) {
+      int low = 0;
+      int high = this.numRuns - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        if (this.runs[2 * mid] <= value) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    @Override
+    boolean contains(final char value) {
+      final int run = this.runOf(value);
+      return run >= 0 && value <= this.runs[2 * run] + this.runs[2 * run + 1];
+    }
+
+    @Override
+    Container add(final char value) {
+      if (this.contains(value)) {
+        return this;
+      }
+      final long[] words = this.toWords();
+      words[value >>> 6] |= 1L << value;
+      return fromWords(words);
+    }
+
+    @Override
+    int nextValue(final int from) {
+      if (from > 0xFFFF) {
+        return -1;
+      }
+      int run = this.runOf(from);
+      if (run >= 0 && from <= this.runs[2 * run] + this.runs[2 * run + 1]) {
+        return from;
+      }
+      ++run;
+      return run < this.numRuns ? this.runs[2 * run] : -1;
+    }
+
+    @Override
+    void orInto(final long[] words) {
+      for (int i = 0; i < this.numRuns; ++i) {
+        final int start = this.runs[2 * i];
+        final int end = start + this.runs[2 * i + 1];
+        for (int value = start; value <= end; ++value) {
+          words[value >>> 6] |= 1L << value;
+        }
+      }
+    }
+
+    @Override
+    int toArray(final int[] docs, int offset, final int high) {
+      for (int i = 0; i < this.numRuns; ++i) {
+        final int start = this.runs[2 * i];
+        final int end = start + this.runs[2 * i + 1];
+        for (int value = start; value <= end; ++value) {
+          docs[offset++] = high | value;
+        }
+      }
+      return offset;
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return 2 * BYTES_OBJECT + 2 * this.runs.length;
+    }
+
+    @Override
+    byte type() {
+      return TYPE_RUN;
+    }
+
+    static int serializedLength(final int numRuns) {
+      return 2 + 4 * numRuns;
+    }
+
+    @Override
+    int serializedLength() {
+      return serializedLength(this.numRuns);
+    }
+
+    @Override
+    int serialize(final byte[] out, int offset) {
+      offset = putChar(out, offset, (char) this.numRuns);
+      for (int i = 0; i < 2 * this.numRuns; ++i) {
+        offset = putChar(out, offset, this.runs[i]);
+      }
+      return offset;
+    }
+
+    static RunContainer deserialize(final byte[] bytes, int offset) {
+      final int numRuns = getChar(bytes, offset);
+      offset += 2;
+      final RunContainer container = new RunContainer(numRuns);
+      for (int i = 0; i < numRuns; ++i, offset += 4) {
+        final int start = getChar(bytes, offset);
+        container.addRun(start, start + getChar(bytes, offset + 2));
+      }
+      return container;
+    }
+
+    @Override
+    Container copy() {
+      final RunContainer container = new RunContainer(this.numRuns);
+      System.arraycopy(this.runs, 0, container.runs, 0, 2 * this.numRuns);
+      container.numRuns = this.numRuns;
+      container.cardinality = this.cardinality;
+      return container;
+    }
+
+    @Override
+    int numRuns() {
+      return this.numRuns;
+    }
+
+    @Override
+    Container optimize() {
+      return this;
+    }
+  }
+
+  /**
+   * Iterator of the docs of the set, in the ascending order.
+   */
+  private final class Iterator extends DocIdSetIterator {
+
+    private int index;
+
+    private int doc = -1;
+
+    @Override
+    public int docID() {
+      return this.doc;
+    }
+
+    @Override
+    public int nextDoc() {
+      return this.advance(this.doc + 1);
+    }
+
+    @Override
+    public int advance(final int target) {
+      if (this.doc == NO_MORE_DOCS) {
+        return NO_MORE_DOCS;
+      }
+      final int targetKey = target >>> 16;
+      while (this.index < size) {
+        final int key = keys[this.index];
+        if (key >= targetKey) {
+          final int value = containers[this.index]
+              .nextValue(key == targetKey ? target & 0xFFFF : 0);
+          if (value >= 0) {
+            this.doc = (key << 16) | value;
+            return this.doc;
+          }
+        }
+        this.index++;
+      }
+      this.doc = NO_MORE_DOCS;
+      return this.doc;
+    }
+  }
+}
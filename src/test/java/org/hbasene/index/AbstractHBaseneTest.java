@@ -78,6 +78,7 @@ public class AbstractHBaseneTest extends HBaseClusterTestCase {
 
     this.indexWriter = new HBaseIndexWriter(hbaseIndex, PK_FIELD);
     doInitDocs();
+    this.indexWriter.commit();
 
     this.indexReader = new HBaseIndexReader(this.tablePool, TEST_INDEX,
         PK_FIELD);
@@ -139,8 +140,11 @@ public class AbstractHBaseneTest extends HBaseClusterTestCase {
 
   }
 
-  protected void assertDocumentPresent(final long docId) throws IOException {
-    Get get = new Get(Bytes.toBytes(docId));
+  protected void assertDocumentPresent(final int doc) throws IOException {
+    final HBaseSegmentInfos segmentInfos = this.indexReader.getSegmentInfos();
+    final int segment = segmentInfos.segmentOf(doc);
+    Get get = new Get(HBaseIndexStore.getDocumentRow(segmentInfos
+        .getSegmentId(segment), doc - segmentInfos.getDocBase(segment)));
     get.addFamily(HBaseneConstants.FAMILY_FIELDS);
     HTable table = new HTable(conf, TEST_INDEX);
     try {
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCheckpointLog {
+
+  private FileSystem fs;
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = new Path(System.getProperty("java.io.tmpdir"), "hbasene-checkpoint-"
+        + System.nanoTime());
+    fs = FileSystem.getLocal(new Configuration());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    CheckpointLog.clear(fs, dir);
+  }
+
+  @Test
+  public void testRecover() throws IOException {
+    CheckpointLog log = new CheckpointLog(fs, dir, "idx");
+    log.begin(1, Arrays.asList("a", "b"));
+    log.commit(1);
+    log.begin(2, Arrays.asList("c"));
+
+    CheckpointLog.Recovery recovery = CheckpointLog.recover(fs, dir);
+    Assert.assertEquals(Arrays.asList("c"), recovery.getUncommittedSegments()
+        .get(2L));
+    Assert.assertEquals(1, recovery.getUncommittedSegments().size());
+    Assert.assertEquals(Arrays.asList("a", "b"), recovery
+        .getUnsyncedSegments().get(1L));
+    Assert.assertEquals(1, recovery.getUnsyncedSegments().size());
+
+    log.commit(2);
+    log.sync();
+    log.begin(3, Arrays.asList("d"));
+    log.close();
+
+    recovery = CheckpointLog.recover(fs, dir);
+    Assert.assertTrue(recovery.getUnsyncedSegments().isEmpty());
+    Assert.assertEquals(Arrays.asList("d"), recovery.getUncommittedSegments()
+        .get(3L));
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConcurrentHBaseIndexStore extends AbstractHBaseneTest {
+
+  private static final int NUM_THREADS = 4;
+
+  private static final int DOCS_PER_THREAD = 25;
+
+  @Test
+  public void testConcurrentIndexing() throws Exception {
+    conf.setInt(HBaseneConstants.CONF_INDEX_STRIPES, NUM_THREADS);
+    final ConcurrentHBaseIndexStore store = new ConcurrentHBaseIndexStore(
+        this.tablePool, conf, TEST_INDEX);
+    Assert.assertEquals(NUM_THREADS, store.getNumStripes());
+    final HBaseIndexWriter writer = new HBaseIndexWriter(store, PK_FIELD);
+
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    for (int t = 0; t < NUM_THREADS; ++t) {
+      final int threadId = t;
+      executor.submit(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < DOCS_PER_THREAD; ++i) {
+              writer.addDocument(createDocument("doc" + threadId + "_" + i,
+                  "Messi plays for Barcelona"), new StandardAnalyzer(
+                  Version.LUCENE_30));
+            }
+          } catch (Exception ex) {
+            error.set(ex);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+    Assert.assertNull(error.get());
+    writer.commit();
+
+    // Every stripe commits its own segment of the same term.
+    Get get = new Get(Bytes.toBytes("content/messi"));
+    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
+    HTable table = new HTable(conf, TEST_INDEX);
+    try {
+      Result result = table.get(get);
+      NavigableMap<byte[], byte[]> map = result
+          .getFamilyMap(HBaseneConstants.FAMILY_TERMVECTOR);
+      Assert.assertEquals(NUM_THREADS, map.size());
+    } finally {
+      table.close();
+    }
+    writer.close();
+  }
+
+  @Test
+  public void testBatchesAcrossStripes() throws Exception {
+    conf.setInt(HBaseneConstants.CONF_INDEX_STRIPES, NUM_THREADS);
+    final ConcurrentHBaseIndexStore store = new ConcurrentHBaseIndexStore(
+        this.tablePool, conf, TEST_INDEX);
+    final HBaseIndexWriter writer = new HBaseIndexWriter(store, PK_FIELD);
+    final List<Document> docs = new ArrayList<Document>();
+    for (int i = 0; i < NUM_THREADS * DOCS_PER_THREAD; ++i) {
+      docs.add(createDocument("batch" + i, "Ronaldo plays for Madrid"));
+    }
+    // a single thread, whose batch is split across the stripes.
+    writer.addDocuments(docs, new StandardAnalyzer(Version.LUCENE_30));
+    writer.commit();
+
+    Get get = new Get(Bytes.toBytes("content/ronaldo"));
+    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
+    HTable table = new HTable(conf, TEST_INDEX);
+    try {
+      Assert.assertEquals(NUM_THREADS, table.get(get).getFamilyMap(
+          HBaseneConstants.FAMILY_TERMVECTOR).size());
+    } finally {
+      table.close();
+    }
+    writer.close();
+  }
+}
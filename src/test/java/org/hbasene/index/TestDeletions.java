@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ * 
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDeletions extends AbstractHBaseneTest {
+
+  @Test
+  public void testDeleteDocument() throws IOException {
+    Assert.assertFalse(this.indexReader.hasDeletions());
+    this.indexWriter.deleteDocuments("FactTimes");
+    this.indexWriter.commit();
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      Assert.assertTrue(reader.hasDeletions());
+      Assert.assertTrue(reader.isDeleted(0));
+      Assert.assertEquals(4, reader.maxDoc());
+      Assert.assertEquals(3, reader.numDocs());
+      Assert.assertEquals(1, this.countDocs(reader, "messi"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testUpdateDocument() throws IOException {
+    this.indexWriter.updateDocument(this.createDocument("UtopiaTimes",
+        "Lionel Messi plays for Barcelona"), new StandardAnalyzer(
+        Version.LUCENE_30));
+    // Replaces the previous update, before its segment is committed.
+    this.indexWriter.updateDocument(this.createDocument("UtopiaTimes",
+        "Lionel Messi plays for Argentina"), new StandardAnalyzer(
+        Version.LUCENE_30));
+    this.indexWriter.commit();
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      Assert.assertEquals(6, reader.maxDoc());
+      Assert.assertEquals(4, reader.numDocs());
+      Assert.assertTrue(reader.isDeleted(1));
+      Assert.assertTrue(reader.isDeleted(4));
+      Assert.assertEquals(1, this.countDocs(reader, "manchester"));
+      Assert.assertEquals(1, this.countDocs(reader, "barcelona"));
+      Assert.assertEquals(2, this.countDocs(reader, "argentina"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testDeleteBufferedDocument() throws IOException {
+    this.indexWriter.addDocument(this.createDocument("LeagueTimes",
+        "Lionel Messi plays for Barcelona"), new StandardAnalyzer(
+        Version.LUCENE_30));
+    this.indexWriter.deleteDocuments("LeagueTimes");
+    this.indexWriter.commit();
+
+    // No reverse mapping to the deleted document.
+    HTable table = this.tablePool.getTable(TEST_INDEX);
+    try {
+      Get get = new Get(Bytes.toBytes("LeagueTimes"));
+      get.addColumn(HBaseneConstants.FAMILY_DOC_TO_INT,
+          HBaseneConstants.QUALIFIER_INT);
+      Assert.assertTrue(table.get(get).isEmpty());
+    } finally {
+      this.tablePool.putTable(table);
+    }
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      Assert.assertTrue(reader.isDeleted(4));
+      Assert.assertEquals(4, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testDeleteThroughReader() throws IOException {
+    this.indexReader.deleteDocument(2);
+    Assert.assertTrue(this.indexReader.isDeleted(2));
+    Assert.assertEquals(3, this.indexReader.numDocs());
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      Assert.assertTrue(reader.isDeleted(2));
+      Assert.assertEquals(0, this.countDocs(reader, "rooney"));
+      reader.undeleteAll();
+      Assert.assertFalse(reader.hasDeletions());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testUndeleteAllKeepsNewerSegments() throws IOException {
+    this.indexReader.deleteDocument(2);
+    // The deletion of doc 4 falls in a segment committed after the reader.
+    this.indexWriter.updateDocument(this.createDocument("UtopiaTimes",
+        "Lionel Messi plays for Barcelona"), new StandardAnalyzer(
+        Version.LUCENE_30));
+    this.indexWriter.updateDocument(this.createDocument("UtopiaTimes",
+        "Lionel Messi plays for Argentina"), new StandardAnalyzer(
+        Version.LUCENE_30));
+    this.indexWriter.commit();
+    this.indexReader.undeleteAll();
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      // Docs 1 and 2 fall in the segment of the reader.
+      Assert.assertFalse(reader.isDeleted(1));
+      Assert.assertFalse(reader.isDeleted(2));
+      Assert.assertTrue(reader.isDeleted(4));
+      Assert.assertEquals(5, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+  private int countDocs(final HBaseIndexReader reader, final String text)
+      throws IOException {
+    final TermDocs termDocs = reader.termDocs();
+    try {
+      termDocs.seek(new Term("content", text));
+      int count = 0;
+      while (termDocs.next()) {
+        Assert.assertFalse(reader.isDeleted(termDocs.doc()));
+        ++count;
+      }
+      return count;
+    } finally {
+      termDocs.close();
+    }
+  }
+}
@@ -22,12 +22,17 @@ package org.hbasene.index;
 
 import java.io.IOException;
 
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermFreqVector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Similarity;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Version;
 import org.hbasene.index.search.HBaseIndexSearcher;
 import org.junit.Assert;
 import org.junit.Test;
@@ -64,7 +69,87 @@ public class TestHBaseIndexReader extends AbstractHBaseneTest {
       // valid document
     }
     Document doc = this.indexReader.document(docs.scoreDocs[0].doc);
-    Assert.assertEquals("FourthTimesT", doc.get(PK_FIELD));
+    Assert.assertEquals("FourthTimes", doc.get(PK_FIELD));
     // maximum # of plays - hence expecting it to be top-most rank.
   }
+
+  @Test
+  public void testNorms() throws IOException {
+    // content omits the norms.
+    final byte[] norms = this.indexReader.norms("content");
+    Assert.assertEquals(this.indexReader.maxDoc(), norms.length);
+    for (final byte norm : norms) {
+      Assert.assertEquals(HBaseIndexReader.DEFAULT_NORM, norm);
+    }
+    Assert.assertSame(norms, this.indexReader.norms("content"));
+  }
+
+  @Test
+  public void testNormsWithBoosts() throws IOException {
+    // Docs 4 and 5, in a segment each, after the 4 docs of the first one.
+    Document doc = this.createDocument("FifthTimes", "Messi scores");
+    Field title = new Field("title", "Messi scores twice", Field.Store.NO,
+        Field.Index.ANALYZED);
+    title.setBoost(2.0f);
+    doc.add(title);
+    doc.setBoost(1.5f);
+    this.indexWriter.addDocument(doc, new StandardAnalyzer(Version.LUCENE_30));
+    this.indexWriter.commit();
+    doc = this.createDocument("SixthTimes", "Rooney scores");
+    doc.add(new Field("title", "Rooney", Field.Store.NO, Field.Index.ANALYZED));
+    this.indexWriter.addDocument(doc, new StandardAnalyzer(Version.LUCENE_30));
+    this.indexWriter.commit();
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      final Similarity similarity = Similarity.getDefault();
+      final byte[] norms = reader.norms("title");
+      Assert.assertEquals(6, norms.length);
+      for (int i = 0; i < 4; ++i) {
+        Assert.assertEquals(HBaseIndexReader.DEFAULT_NORM, norms[i]);
+      }
+      Assert.assertEquals(Similarity.encodeNorm(1.5f * 2.0f
+          * similarity.lengthNorm("title", 3)), norms[4]);
+      Assert.assertEquals(Similarity.encodeNorm(similarity.lengthNorm(
+          "title", 1)), norms[5]);
+      Assert.assertFalse(norms[4] == norms[5]);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testTermFreqVector() throws IOException {
+    Document doc = this.createDocument("FifthTimes", "Messi scores");
+    doc.add(new Field("title", "Messi scores for Messi", Field.Store.NO,
+        Field.Index.ANALYZED, Field.TermVector.YES));
+    // untokenized, with the separator in the term.
+    doc.add(new Field("path", "sports/2010", Field.Store.NO,
+        Field.Index.NOT_ANALYZED, Field.TermVector.YES));
+    this.indexWriter.addDocument(doc, new StandardAnalyzer(Version.LUCENE_30));
+    this.indexWriter.commit();
+
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      TermFreqVector vector = reader.getTermFreqVector(4, "title");
+      Assert.assertEquals("title", vector.getField());
+      Assert.assertArrayEquals(new String[] { "messi", "scores" }, vector
+          .getTerms());
+      Assert.assertArrayEquals(new int[] { 2, 1 }, vector
+          .getTermFrequencies());
+
+      vector = reader.getTermFreqVector(4, "path");
+      Assert.assertArrayEquals(new String[] { "sports/2010" }, vector
+          .getTerms());
+      Assert.assertArrayEquals(new int[] { 1 }, vector.getTermFrequencies());
+
+      Assert.assertNull(reader.getTermFreqVector(4, "content"));
+      Assert.assertNull(reader.getTermFreqVector(0, "title"));
+      Assert.assertEquals(2, reader.getTermFreqVectors(4).length);
+    } finally {
+      reader.close();
+    }
+  }
 }
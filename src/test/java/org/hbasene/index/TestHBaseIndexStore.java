@@ -22,10 +22,18 @@ package org.hbasene.index;
 
 import java.io.IOException;
 
-
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermPositions;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Version;
+import org.hbasene.index.util.AbstractDocSetCodec;
+import org.junit.Assert;
 import org.junit.Test;
 
 
@@ -45,7 +53,7 @@ public class TestHBaseIndexStore extends AbstractHBaseneTest {
     listFields();
     listSequence();
     
-    for (long i = 0 ; i < 4; ++i) {
+    for (int i = 0 ; i < 4; ++i) {
       assertDocumentPresent(i);
     }
 
@@ -53,4 +61,54 @@ public class TestHBaseIndexStore extends AbstractHBaseneTest {
     assertTermVectorDocumentMapping("content/lionel", 1L);
   }
 
+  @Test
+  public void testFieldCodecs() throws IOException {
+    conf.set(HBaseneConstants.CONF_POSITIONS_ENCODING + ".content", "alpha");
+    conf.set(HBaseneConstants.CONF_DOCSET_CODEC + ".content", "array");
+    final HBaseIndexWriter writer = new HBaseIndexWriter(new HBaseIndexStore(
+        this.tablePool, conf, TEST_INDEX), PK_FIELD);
+    writer.addDocument(this.createDocument("FifthTimes",
+        "Ronaldo plays for Madrid"), new StandardAnalyzer(Version.LUCENE_30));
+    writer.commit();
+
+    final HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    final HBaseSegmentInfos segmentInfos = reader.getSegmentInfos();
+    final int segment = segmentInfos.size() - 1;
+    // the segments written before keep the formats they were written with.
+    Assert.assertEquals(AbstractTermPositionsEncoder.FORMAT_VINT,
+        segmentInfos.getPositionsFormat(0, "content"));
+    Assert.assertEquals(AbstractTermPositionsEncoder.FORMAT_ALPHA,
+        segmentInfos.getPositionsFormat(segment, "content"));
+    Assert.assertEquals(AbstractTermPositionsEncoder.FORMAT_VINT,
+        segmentInfos.getPositionsFormat(segment, "title"));
+
+    Get get = new Get(Bytes.toBytes("content/ronaldo"));
+    get.addFamily(HBaseneConstants.FAMILY_TERMVECTOR);
+    HTable table = new HTable(conf, TEST_INDEX);
+    try {
+      final byte[] docSet = table.get(get).getValue(
+          HBaseneConstants.FAMILY_TERMVECTOR,
+          Bytes.toBytes(segmentInfos.getSegmentId(segment)));
+      Assert.assertEquals(AbstractDocSetCodec.FORMAT_ARRAY, Bytes
+          .toInt(docSet));
+    } finally {
+      table.close();
+    }
+
+    final TermPositions termPositions = reader.termPositions(new Term(
+        "content", "plays"));
+    // vint positions of the first segment, alpha positions of the last one.
+    Assert.assertTrue(termPositions.skipTo(3));
+    Assert.assertEquals(2, termPositions.nextPosition());
+    Assert.assertEquals(8, termPositions.nextPosition());
+    Assert.assertTrue(termPositions.next());
+    Assert.assertEquals(4, termPositions.doc());
+    Assert.assertEquals(1, termPositions.freq());
+    Assert.assertEquals(2, termPositions.nextPosition());
+    Assert.assertFalse(termPositions.next());
+    termPositions.close();
+    reader.close();
+    writer.close();
+  }
 }
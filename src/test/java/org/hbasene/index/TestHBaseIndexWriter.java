@@ -11,6 +11,8 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.search.Similarity;
 import org.apache.lucene.util.Version;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -58,6 +60,255 @@ public class TestHBaseIndexWriter {
     
   }
 
+  @Test
+  public void testAnalysisStateReuse() throws IOException {
+    HBaseIndexWriter.AnalysisState state = new HBaseIndexWriter.AnalysisState();
+    StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
+
+    Document doc = new Document();
+    doc.add(new Field("content", "Quick Brown Fox Jumped over the bridge",
+        Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+    writer.doAnalyze(doc, analyzer, state, state.context);
+    Assert.assertEquals(6, state.context.getNumTerms());
+    state.context.clear();
+
+    doc = new Document();
+    doc.add(new Field("content", "Fox plays fox", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS));
+    writer.doAnalyze(doc, analyzer, state, state.context);
+    Assert.assertEquals(2, state.context.getNumTerms());
+    Assert.assertEquals("content/fox", new String(state.context.termKeys[0],
+        "UTF-8"));
+    Assert.assertEquals(2, state.context.termFreqs[0]);
+    Assert.assertEquals(1, state.context.termPositions[0][0]);
+    Assert.assertEquals(3, state.context.termPositions[0][1]);
+  }
+
+  @Test
+  public void testNorms() throws IOException {
+    HBaseIndexWriter.AnalysisState state = new HBaseIndexWriter.AnalysisState();
+    Document doc = new Document();
+    Field title = new Field("title", "Messi plays", Field.Store.NO,
+        Field.Index.ANALYZED);
+    title.setBoost(2.0f);
+    doc.add(title);
+    doc.add(new Field("title", "for Barcelona", Field.Store.NO,
+        Field.Index.ANALYZED));
+    doc.add(new Field("content", "Messi plays for Barcelona", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS));
+    doc.add(new Field("id", "myrow", Field.Store.YES,
+        Field.Index.NOT_ANALYZED));
+    doc.setBoost(4.0f);
+    writer.doAnalyze(doc, new StandardAnalyzer(Version.LUCENE_30), state,
+        state.context);
+
+    // content omits the norms.
+    Assert.assertEquals(2, state.context.numNorms);
+    Assert.assertEquals("title", state.context.normFields[0]);
+    // 3 tokens, "for" being a stop word.
+    Assert.assertEquals(3, state.context.normLengths[0]);
+    Assert.assertEquals(Similarity.encodeNorm(4.0f * 2.0f
+        * new DefaultSimilarity().lengthNorm("title", 3)),
+        state.context.norms[0]);
+    Assert.assertEquals("id", state.context.normFields[1]);
+    Assert.assertEquals(Similarity.encodeNorm(4.0f), state.context.norms[1]);
+    state.context.clear();
+    Assert.assertEquals(0, state.context.numNorms);
+  }
+
+  @Test
+  public void testPayloads() throws IOException {
+    HBaseIndexWriter.AnalysisState state = new HBaseIndexWriter.AnalysisState();
+    Document doc = new Document();
+    doc.add(new Field("content", "fox Fox jumps", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS));
+    writer.doAnalyze(doc, new TestPayloads.PayloadAnalyzer(), state,
+        state.context);
+    Assert.assertEquals(2, state.context.getNumTerms());
+    // fox, with the payload at its second position only.
+    Assert.assertEquals(2, state.context.termPayloadCounts[0]);
+    Assert.assertEquals(0, state.context.termPayloadLengths[0][0]);
+    Assert.assertEquals(3, state.context.termPayloadLengths[0][1]);
+    Assert.assertEquals("Fox", new String(state.context.termPayloads[0], 0,
+        state.context.termPayloadBytes[0], "UTF-8"));
+    // jumps
+    Assert.assertEquals(0, state.context.termPayloadCounts[1]);
+    state.context.clear();
+  }
+
+  @Test
+  public void testOmitTermFreqAndPositions() throws IOException {
+    HBaseIndexWriter.AnalysisState state = new HBaseIndexWriter.AnalysisState();
+    Document doc = new Document();
+    Field tags = new Field("tags", "fox fox", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS);
+    tags.setOmitTermFreqAndPositions(true);
+    doc.add(tags);
+    doc.add(new Field("content", "fox", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS));
+    writer.doAnalyze(doc, new StandardAnalyzer(Version.LUCENE_30), state,
+        state.context);
+    Assert.assertEquals(2, state.context.getNumTerms());
+    Assert.assertEquals("tags/fox", new String(state.context.termKeys[0],
+        "UTF-8"));
+    Assert.assertEquals(0, state.context.termFreqs[0]);
+    Assert.assertEquals(1, state.context.termFreqs[1]);
+    Assert.assertTrue(state.context.omitPositionsFields.contains("tags"));
+    Assert.assertFalse(state.context.omitPositionsFields.contains("content"));
+    state.context.clear();
+    Assert.assertTrue(state.context.omitPositionsFields.isEmpty());
+  }
+
+  @Test
+  public void testAddDocuments() throws IOException {
+    RecordingIndexStore recordingStore = new RecordingIndexStore();
+    HBaseIndexWriter batchWriter = new HBaseIndexWriter(recordingStore, "id");
+    int id = 0;
+    for (int batch = 0; batch < 3; ++batch) {
+      List<Document> docs = new ArrayList<Document>();
+      for (int i = 0; i < 50; ++i, ++id) {
+        Document doc = new Document();
+        doc.add(new Field("content", "Messi plays for Barcelona " + id,
+            Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+        doc.add(new Field("id", "doc" + id, Field.Store.YES, Field.Index.NO));
+        docs.add(doc);
+      }
+      batchWriter.addDocuments(docs, new StandardAnalyzer(Version.LUCENE_30));
+    }
+    batchWriter.commit();
+    Assert.assertEquals(150, recordingStore.keys.size());
+    for (int i = 0; i < 150; ++i) {
+      Assert.assertEquals("doc" + i, recordingStore.keys.get(i));
+      // messi, plays, barcelona and the number
+      Assert.assertEquals(4, recordingStore.numTerms.get(i).intValue());
+    }
+    batchWriter.close();
+  }
+
+  @Test
+  public void testBatchAfterStoreError() throws IOException {
+    FailingIndexStore failingStore = new FailingIndexStore();
+    HBaseIndexWriter batchWriter = new HBaseIndexWriter(failingStore, "id");
+    batchWriter.addDocuments(createDocuments(0, 10), new StandardAnalyzer(
+        Version.LUCENE_30));
+    try {
+      batchWriter.addDocuments(createDocuments(10, 10), new StandardAnalyzer(
+          Version.LUCENE_30));
+      Assert.fail("Error of the first batch not reported");
+    } catch (IOException ex) {
+      Assert.assertEquals("First batch", ex.getMessage());
+    }
+    batchWriter.commit();
+    // the second batch is handed over, whatever the error of the first.
+    Assert.assertEquals(10, failingStore.keys.size());
+    Assert.assertEquals("doc10", failingStore.keys.get(0));
+    batchWriter.close();
+  }
+
+  @Test
+  public void testBatchAfterAnalysisError() throws IOException {
+    RecordingIndexStore recordingStore = new RecordingIndexStore();
+    HBaseIndexWriter batchWriter = new HBaseIndexWriter(recordingStore, "id");
+    batchWriter.addDocuments(createDocuments(0, 10), new StandardAnalyzer(
+        Version.LUCENE_30));
+    List<Document> docs = createDocuments(10, 10);
+    // no primary key
+    docs.get(5).removeField("id");
+    try {
+      batchWriter.addDocuments(docs, new StandardAnalyzer(Version.LUCENE_30));
+      Assert.fail("Document without a primary key added");
+    } catch (IOException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IllegalArgumentException);
+    }
+    batchWriter.addDocuments(createDocuments(20, 10), new StandardAnalyzer(
+        Version.LUCENE_30));
+    batchWriter.commit();
+    Assert.assertEquals(20, recordingStore.keys.size());
+    Assert.assertEquals("doc9", recordingStore.keys.get(9));
+    Assert.assertEquals("doc20", recordingStore.keys.get(10));
+    batchWriter.close();
+  }
+
+  private static List<Document> createDocuments(final int from,
+      final int count) {
+    List<Document> docs = new ArrayList<Document>();
+    for (int id = from; id < from + count; ++id) {
+      Document doc = new Document();
+      doc.add(new Field("content", "Messi plays for Barcelona",
+          Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+      doc.add(new Field("id", "doc" + id, Field.Store.YES, Field.Index.NO));
+      docs.add(doc);
+    }
+    return docs;
+  }
+
+  /**
+   * Fails the first batch, and records the keys of the others.
+   */
+  static final class FailingIndexStore extends AbstractIndexStore {
+
+    final List<String> keys = new ArrayList<String>();
+
+    private boolean failed;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public void commit() throws IOException {
+    }
+
+    @Override
+    public void indexDocuments(String[] keys,
+        DocumentIndexContext[] documentIndexContexts, int count)
+        throws IOException {
+      if (!this.failed) {
+        this.failed = true;
+        throw new IOException("First batch");
+      }
+      super.indexDocuments(keys, documentIndexContexts, count);
+    }
+
+    @Override
+    public SegmentInfo indexDocument(String key,
+        DocumentIndexContext documentIndexContext) throws IOException {
+      keys.add(key);
+      return null;
+    }
+
+    @Override
+    public void deleteDocuments(String... keys) throws IOException {
+    }
+  }
+
+  static final class RecordingIndexStore extends AbstractIndexStore {
+
+    final List<String> keys = new ArrayList<String>();
+
+    final List<Integer> numTerms = new ArrayList<Integer>();
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public void commit() throws IOException {
+    }
+
+    @Override
+    public SegmentInfo indexDocument(String key,
+        DocumentIndexContext documentIndexContext) throws IOException {
+      keys.add(key);
+      numTerms.add(documentIndexContext.getNumTerms());
+      return null;
+    }
+
+    @Override
+    public void deleteDocuments(String... keys) throws IOException {
+    }
+  }
+
   static final class MyIndexStore extends AbstractIndexStore {
 
     Map<String, List<Long>> tfs = new HashMap<String, List<Long>>();
@@ -84,5 +335,11 @@ public class TestHBaseIndexWriter {
       return null;
     }
 
+    @Override
+    public void deleteDocuments(String... keys) throws IOException {
+      // TODO Auto-generated method stub
+
+    }
+
   }
 }
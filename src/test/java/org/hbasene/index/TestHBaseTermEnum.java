@@ -23,9 +23,11 @@ package org.hbasene.index;
 import java.io.IOException;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Version;
 import org.hbasene.index.HBaseTermEnum;
 import org.junit.After;
 import org.junit.Assert;
@@ -70,4 +72,27 @@ public class TestHBaseTermEnum extends AbstractHBaseneTest {
     }
 
   }
+
+  @Test
+  public void testDocFreq() throws IOException {
+    // the docs of the term, not the segments.
+    termEnum.skipTo(new Term("content", "plays"));
+    Assert.assertTrue(termEnum.next());
+    Assert.assertEquals(new Term("content", "plays"), termEnum.term());
+    Assert.assertEquals(4, termEnum.docFreq());
+    Assert.assertEquals(2, indexReader.docFreq(new Term("content", "messi")));
+
+    indexWriter.addDocument(createDocument("FifthTimes",
+        "Ronaldo plays for Madrid"), new StandardAnalyzer(Version.LUCENE_30));
+    indexWriter.commit();
+    // only the segments of the reader.
+    Assert.assertEquals(4, indexReader.docFreq(new Term("content", "plays")));
+    HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    try {
+      Assert.assertEquals(5, reader.docFreq(new Term("content", "plays")));
+    } finally {
+      reader.close();
+    }
+  }
 }
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHBaseTermFreqVector {
+
+  @Test
+  public void testEncodeDecode() {
+    final String[] terms = new String[] { "plays", "messi", "barcelona",
+        "playstation", "m\u00fcller", "barca" };
+    final int[] termFreqs = new int[] { 3, 1, 2, 1, 4, 200 };
+    final byte[] encoded = encode("content", terms, termFreqs);
+
+    HBaseTermFreqVector vector = new HBaseTermFreqVector("content", encoded);
+    Assert.assertEquals("content", vector.getField());
+    Assert.assertEquals(6, vector.size());
+    Assert.assertArrayEquals(new String[] { "barca", "barcelona", "messi",
+        "m\u00fcller", "plays", "playstation" }, vector.getTerms());
+    Assert.assertArrayEquals(new int[] { 200, 2, 1, 4, 3, 1 }, vector
+        .getTermFrequencies());
+
+    Assert.assertEquals(4, vector.indexOf("plays"));
+    Assert.assertEquals(-1, vector.indexOf("rooney"));
+    Assert.assertArrayEquals(new int[] { 2, -1, 0 }, vector.indexesOf(
+        new String[] { "fox", "messi", "rooney", "barca" }, 1, 3));
+  }
+
+  @Test
+  public void testEmpty() {
+    HBaseTermFreqVector vector = new HBaseTermFreqVector("content", encode(
+        "content", new String[0], new int[0]));
+    Assert.assertEquals(0, vector.size());
+    Assert.assertEquals(-1, vector.indexOf("messi"));
+  }
+
+  @Test
+  public void testSortOrder() {
+    // more terms than sorted by insertion, untokenized terms occur once.
+    final String[] terms = new String[42];
+    final int[] termFreqs = new int[terms.length];
+    for (int i = 0; i < 40; ++i) {
+      terms[i] = "term" + ((i * 7) % 40);
+      termFreqs[i] = (i * 7) % 40;
+    }
+    // a supplementary character sorts after the chars of the BMP.
+    terms[40] = "\ud801\udc00";
+    terms[41] = "\uffe0";
+    HBaseTermFreqVector vector = new HBaseTermFreqVector("content", encode(
+        "content", terms, termFreqs));
+    Assert.assertEquals(terms.length, vector.size());
+    final String[] sorted = vector.getTerms();
+    for (int i = 1; i < sorted.length; ++i) {
+      Assert.assertTrue(Bytes.compareTo(Bytes.toBytes(sorted[i - 1]), Bytes
+          .toBytes(sorted[i])) < 0);
+    }
+    Assert.assertEquals("\ud801\udc00", sorted[sorted.length - 1]);
+    Assert.assertEquals(sorted.length - 1, vector.indexOf("\ud801\udc00"));
+    Assert.assertEquals(sorted.length - 2, vector.indexOf("\uffe0"));
+    Assert.assertEquals(1, vector.getTermFrequencies()[vector
+        .indexOf("term0")]);
+    Assert.assertEquals(14, vector.getTermFrequencies()[vector
+        .indexOf("term14")]);
+    for (final String term : sorted) {
+      Assert.assertEquals(term, sorted[vector.indexOf(term)]);
+    }
+  }
+
+  /**
+   * Encode the terms of the field, as keyed by the writer.
+   */
+  private static byte[] encode(final String field, final String[] terms,
+      final int[] termFreqs) {
+    final byte[][] keys = new byte[terms.length][];
+    final int[] indices = new int[terms.length];
+    for (int i = 0; i < terms.length; ++i) {
+      keys[i] = Bytes.toBytes(field + "/" + terms[i]);
+      indices[i] = i;
+    }
+    return HBaseTermFreqVector.encode(keys, field.length() + 1, termFreqs,
+        indices, 0, terms.length);
+  }
+}
@@ -22,9 +22,17 @@ package org.hbasene.index;
 
 import java.io.IOException;
 
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.util.Version;
 import org.hbasene.index.AbstractTermPositionsEncoder;
 import org.hbasene.index.HBaseTermPositions;
 import org.junit.After;
@@ -76,6 +84,18 @@ public class TestHBaseTermPositions extends AbstractHBaseneTest {
     Assert.assertEquals( 4, count);
   }
 
+  @Test
+  public void testTermPositions() throws IOException {
+    termPositions.seek(new Term("content", "plays"));
+    Assert.assertTrue(termPositions.skipTo(3));
+    Assert.assertEquals(3, termPositions.doc());
+    Assert.assertEquals(3, termPositions.freq());
+    Assert.assertEquals(2, termPositions.nextPosition());
+    Assert.assertEquals(8, termPositions.nextPosition());
+    Assert.assertTrue(termPositions.nextPosition() > 8);
+    Assert.assertFalse(termPositions.next());
+  }
+
   @Test
   public void testReadNormal() throws IOException {
     int[] docs = new int[4];
@@ -128,4 +148,79 @@ public class TestHBaseTermPositions extends AbstractHBaseneTest {
 
   }
 
+  @Test
+  public void testSkipToAcrossSegments() throws IOException {
+    // 3 more segments of 40 docs, at the doc bases 4, 44 and 84, with the
+    // term in every other doc.
+    for (int segment = 0; segment < 3; ++segment) {
+      for (int i = 0; i < 40; ++i) {
+        indexWriter.addDocument(createDocument("skip" + segment + "_" + i,
+            i % 2 == 0 ? "Ronaldo plays for Madrid" : "Ronaldo scores"),
+            new StandardAnalyzer(Version.LUCENE_30));
+      }
+      indexWriter.commit();
+    }
+    final HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    final TermPositions positions = reader.termPositions(new Term("content",
+        "plays"));
+    Assert.assertTrue(positions.skipTo(61));
+    Assert.assertEquals(62, positions.doc());
+    Assert.assertTrue(positions.next());
+    Assert.assertEquals(64, positions.doc());
+    // past the skip entry of the 16th doc of the positions block.
+    Assert.assertTrue(positions.skipTo(117));
+    Assert.assertEquals(118, positions.doc());
+    Assert.assertEquals(1, positions.freq());
+    Assert.assertEquals(2, positions.nextPosition());
+    // not below the current doc.
+    Assert.assertTrue(positions.skipTo(100));
+    Assert.assertEquals(120, positions.doc());
+    Assert.assertFalse(positions.skipTo(123));
+    Assert.assertFalse(positions.next());
+    positions.close();
+    reader.close();
+  }
+
+  @Test
+  public void testOmitTermFreqAndPositions() throws IOException {
+    Document doc = createDocument("FifthTimes", "Ronaldo plays for Madrid");
+    Field tags = new Field("tags", "fox fox", Field.Store.NO,
+        Field.Index.ANALYZED_NO_NORMS);
+    tags.setOmitTermFreqAndPositions(true);
+    doc.add(tags);
+    indexWriter.addDocument(doc, new StandardAnalyzer(Version.LUCENE_30));
+    indexWriter.commit();
+
+    // the docset only, without a positions block.
+    HTable table = new HTable(conf, TEST_INDEX);
+    try {
+      Get get = new Get(Bytes.add(HBaseIndexStore.TERM_FREQ_PREFIX_BYTES,
+          Bytes.toBytes("tags/fox")));
+      Assert.assertTrue(table.get(get).isEmpty());
+    } finally {
+      table.close();
+    }
+
+    final HBaseIndexReader reader = new HBaseIndexReader(this.tablePool,
+        TEST_INDEX, PK_FIELD);
+    final TermPositions positions = reader.termPositions(new Term("tags",
+        "fox"));
+    Assert.assertTrue(positions.next());
+    Assert.assertEquals(4, positions.doc());
+    Assert.assertEquals(1, positions.freq());
+    Assert.assertFalse(positions.next());
+    positions.close();
+    reader.close();
+  }
+
+  @Test
+  public void testGallop() {
+    final int[] docs = new int[] { 1, 3, 5, 8, 13, 21, 34, 55, 89 };
+    Assert.assertEquals(0, HBaseTermPositions.gallop(docs, 0, 0));
+    Assert.assertEquals(3, HBaseTermPositions.gallop(docs, 0, 6));
+    Assert.assertEquals(4, HBaseTermPositions.gallop(docs, 4, 6));
+    Assert.assertEquals(8, HBaseTermPositions.gallop(docs, 2, 89));
+    Assert.assertEquals(docs.length, HBaseTermPositions.gallop(docs, 0, 90));
+  }
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHFileIndexStore {
+
+  private HBaseConfiguration conf;
+
+  private FileSystem fs;
+
+  private Path outputDir;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HBaseConfiguration();
+    conf.setInt(HBaseneConstants.CONF_AUTOCOMMIT_MAXDOCS, 3);
+    outputDir = new Path(System.getProperty("java.io.tmpdir"),
+        "hbasene-bulk-" + System.nanoTime());
+    fs = outputDir.getFileSystem(conf);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.delete(outputDir, true);
+  }
+
+  @Test
+  public void testBulkLoadLayout() throws IOException {
+    HFileIndexStore store = new HFileIndexStore(conf, "idx-bulk", outputDir);
+    HBaseIndexWriter writer = new HBaseIndexWriter(store, "id");
+    // Normed, with term vectors and a payload ( of Messi ), to fill all the
+    // families.
+    for (int i = 0; i < 10; ++i) {
+      Document doc = new Document();
+      doc.add(new Field("content", "Messi plays for Barcelona " + i,
+          Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.YES));
+      doc.add(new Field("id", "doc" + i, Field.Store.YES, Field.Index.NO));
+      writer.addDocument(doc, new TestPayloads.PayloadAnalyzer());
+    }
+    writer.close();
+
+    Assert.assertFalse(fs.exists(new Path(outputDir, HFileIndexStore.RUNS_DIR)));
+    for (final byte[] family : HFileIndexStore.FAMILIES) {
+      FileStatus[] files = fs.listStatus(new Path(outputDir, Bytes
+          .toString(family)));
+      Assert.assertNotNull(Bytes.toString(family), files);
+      Assert.assertEquals(1, files.length);
+    }
+
+    // 4 segments of 3, 3, 3 and 1 docs, sorted by row.
+    FileStatus[] files = fs.listStatus(new Path(outputDir, Bytes
+        .toString(HBaseneConstants.FAMILY_TERMVECTOR)));
+    HFile.Reader reader = new HFile.Reader(fs, files[0].getPath(), null,
+        false);
+    try {
+      reader.loadFileInfo();
+      HFileScanner scanner = reader.getScanner();
+      Assert.assertTrue(scanner.seekTo());
+      KeyValue previous = null;
+      int messiSegments = 0;
+      do {
+        KeyValue kv = scanner.getKeyValue();
+        if (previous != null) {
+          Assert.assertTrue(KeyValue.COMPARATOR.compare(previous, kv) < 0);
+        }
+        if (Bytes.toString(kv.getRow()).equals("content/messi")) {
+          ++messiSegments;
+        }
+        previous = kv;
+      } while (scanner.next());
+      Assert.assertEquals(4, messiSegments);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testConflictingPrimaryKeys() throws IOException {
+    HFileIndexStore store = new HFileIndexStore(conf, "idx-bulk", outputDir);
+    HBaseIndexWriter writer = new HBaseIndexWriter(store, "id");
+    // doc0 in the first and the second segment.
+    for (int i = 0; i < 4; ++i) {
+      Document doc = new Document();
+      doc.add(new Field("content", "Messi plays for Barcelona " + i,
+          Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+      doc.add(new Field("id", "doc" + (i % 3), Field.Store.YES,
+          Field.Index.NO));
+      writer.addDocument(doc, new TestPayloads.PayloadAnalyzer());
+    }
+    try {
+      writer.close();
+      Assert.fail("Merged the conflicting cells of doc0");
+    } catch (IOException ex) {
+      Assert.assertTrue(ex.getMessage().contains("doc0"));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.Payload;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermPositions;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPayloads extends AbstractHBaseneTest {
+
+  @Override
+  protected void doInitDocs() throws CorruptIndexException, IOException {
+    this.addDefaultDocuments();
+    final Analyzer analyzer = new PayloadAnalyzer();
+    this.indexWriter.addDocument(this.createDocument("Payload1",
+        "fox Fox jumps"), analyzer);
+    this.indexWriter.addDocument(this.createDocument("NoPayload", "fox"),
+        analyzer);
+    this.indexWriter.addDocument(this.createDocument("Payload2", "Fox fox"),
+        analyzer);
+  }
+
+  @Test
+  public void testPayloads() throws IOException {
+    TermPositions termPositions = this.indexReader.termPositions();
+    try {
+      termPositions.seek(new Term("content", "fox"));
+
+      Assert.assertTrue(termPositions.next());
+      Assert.assertEquals(4, termPositions.doc());
+      Assert.assertEquals(2, termPositions.freq());
+      Assert.assertEquals(1, termPositions.nextPosition());
+      Assert.assertFalse(termPositions.isPayloadAvailable());
+      Assert.assertEquals(2, termPositions.nextPosition());
+      Assert.assertTrue(termPositions.isPayloadAvailable());
+      Assert.assertEquals(3, termPositions.getPayloadLength());
+      Assert.assertEquals("Fox", Bytes.toString(termPositions.getPayload(
+          null, 0)));
+      Assert.assertFalse(termPositions.isPayloadAvailable());
+
+      Assert.assertTrue(termPositions.next());
+      Assert.assertEquals(5, termPositions.doc());
+      Assert.assertEquals(1, termPositions.nextPosition());
+      Assert.assertFalse(termPositions.isPayloadAvailable());
+
+      Assert.assertTrue(termPositions.next());
+      Assert.assertEquals(6, termPositions.doc());
+      Assert.assertEquals(1, termPositions.nextPosition());
+      final byte[] data = new byte[8];
+      Assert.assertSame(data, termPositions.getPayload(data, 2));
+      Assert.assertEquals("Fox", Bytes.toString(data, 2, 3));
+      Assert.assertEquals(2, termPositions.nextPosition());
+      Assert.assertEquals(0, termPositions.getPayloadLength());
+
+      Assert.assertFalse(termPositions.next());
+    } finally {
+      termPositions.close();
+    }
+  }
+
+  /**
+   * Whitespace tokens, with the capitalized tokens carrying themselves as
+   * the payload, before being lower-cased.
+   */
+  static final class PayloadAnalyzer extends Analyzer {
+
+    @Override
+    public TokenStream tokenStream(String fieldName, Reader reader) {
+      return new LowerCaseFilter(new CapitalizedPayloadFilter(
+          new WhitespaceTokenizer(reader)));
+    }
+  }
+
+  static final class CapitalizedPayloadFilter extends TokenFilter {
+
+    private final TermAttribute termAttribute = addAttribute(TermAttribute.class);
+
+    private final PayloadAttribute payloadAttribute = addAttribute(PayloadAttribute.class);
+
+    CapitalizedPayloadFilter(final TokenStream input) {
+      super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+      if (!this.input.incrementToken()) {
+        return false;
+      }
+      if (Character.isUpperCase(this.termAttribute.termBuffer()[0])) {
+        this.payloadAttribute.setPayload(new Payload(Bytes
+            .toBytes(this.termAttribute.term())));
+      } else {
+        this.payloadAttribute.setPayload(null);
+      }
+      return true;
+    }
+  }
+}
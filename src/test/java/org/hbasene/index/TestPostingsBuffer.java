@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPostingsBuffer {
+
+  @Test
+  public void testLookupAcrossRehash() {
+    PostingsBuffer buffer = new PostingsBuffer(16);
+    for (int i = 0; i < 5000; ++i) {
+      buffer.addDoc(key("content/term" + i), hash("content/term" + i), 0);
+    }
+    Assert.assertEquals(5000, buffer.size());
+    for (int i = 0; i < 5000; ++i) {
+      Assert.assertEquals(1, buffer.getOrAdd(key("content/term" + i),
+          hash("content/term" + i)).numDocs);
+    }
+    Assert.assertEquals(5000, buffer.size());
+  }
+
+  @Test
+  public void testSwitchToDocSet() {
+    PostingsBuffer buffer = new PostingsBuffer(4);
+    final byte[] key = key("content/messi");
+    final int hash = hash("content/messi");
+    for (int i = 0; i < 3; ++i) {
+      buffer.addDoc(key, hash, i);
+    }
+    PostingsBuffer.Postings postings = buffer.getOrAdd(key, hash);
+    Assert.assertNull(postings.docSet);
+    Assert.assertEquals(3, postings.numDocs);
+
+    buffer.addDoc(key, hash, 3);
+    buffer.addDoc(key, hash, 50);
+    Assert.assertNull(postings.docs);
+    Assert.assertEquals(5, postings.docSet.cardinality());
+    Assert.assertTrue(postings.docSet.contains(50));
+  }
+
+  @Test
+  public void testPositions() {
+    PostingsBuffer buffer = new PostingsBuffer(4);
+    PostingsBuffer.Postings postings = buffer.addDoc(key("content/plays"),
+        hash("content/plays"), 0);
+    buffer.addPositions(postings, 0, new int[] { 2, 7, 9, 0 }, 3);
+    buffer.addPositions(postings, 1, new int[] { 1 }, 1);
+    Assert.assertEquals(7, postings.positionsLength);
+    Assert.assertArrayEquals(new int[] { 0, 3, 2, 7, 9, 1, 1 }, Arrays
+        .copyOf(postings.positions, postings.positionsLength));
+
+    final long bytesUsed = buffer.ramBytesUsed();
+    buffer.addDoc(key("content/barcelona"), hash("content/barcelona"), 1);
+    Assert.assertTrue(buffer.ramBytesUsed() > bytesUsed);
+
+    buffer.clear();
+    Assert.assertEquals(0, buffer.size());
+    Assert.assertTrue(buffer.ramBytesUsed() < bytesUsed);
+  }
+
+  @Test
+  public void testPayloads() {
+    PostingsBuffer buffer = new PostingsBuffer(4);
+    PostingsBuffer.Postings postings = buffer.addDoc(key("content/fox"),
+        hash("content/fox"), 3);
+    buffer.addPositions(postings, 3, new int[] { 1, 2, 5 }, 3);
+    // payload at the second position only.
+    buffer.addPayloads(postings, 3, 3, new int[] { 0, 2 }, 2, new byte[] {
+        7, 9 }, 2);
+    Assert.assertEquals(1, postings.numPayloadDocs);
+    Assert.assertEquals(5 * Bytes.SIZEOF_INT + 2, postings.payloadsLength);
+    Assert.assertEquals(3, Bytes.toInt(postings.payloads, 0));
+    Assert.assertEquals(3, Bytes.toInt(postings.payloads, 4));
+    Assert.assertEquals(0, Bytes.toInt(postings.payloads, 8));
+    Assert.assertEquals(2, Bytes.toInt(postings.payloads, 12));
+    Assert.assertEquals(0, Bytes.toInt(postings.payloads, 16));
+    Assert.assertEquals(7, postings.payloads[20]);
+    Assert.assertEquals(9, postings.payloads[21]);
+  }
+
+  private static byte[] key(final String term) {
+    return Bytes.toBytes(term);
+  }
+
+  private static int hash(final String term) {
+    final byte[] key = key(term);
+    return TermKeyArena.hash(key, 0, key.length);
+  }
+}
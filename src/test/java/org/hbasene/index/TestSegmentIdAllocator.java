@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSegmentIdAllocator extends AbstractHBaseneTest {
+
+  @Test
+  public void testBlocksDoNotOverlap() throws IOException {
+    // Two allocators of the same index, as if in different processes.
+    SegmentIdAllocator first = new SegmentIdAllocator(this.tablePool,
+        TEST_INDEX, 10);
+    SegmentIdAllocator second = new SegmentIdAllocator(this.tablePool,
+        TEST_INDEX, 10);
+    Set<Long> ids = new HashSet<Long>();
+    long lastFirst = -1;
+    long lastSecond = -1;
+    for (int i = 0; i < 25; ++i) {
+      final long firstId = first.nextSegmentId();
+      final long secondId = second.nextSegmentId();
+      Assert.assertTrue(firstId > lastFirst);
+      Assert.assertTrue(secondId > lastSecond);
+      Assert.assertTrue(ids.add(firstId));
+      Assert.assertTrue(ids.add(secondId));
+      lastFirst = firstId;
+      lastSecond = secondId;
+    }
+  }
+}
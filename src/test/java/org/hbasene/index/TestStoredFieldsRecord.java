@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStoredFieldsRecord {
+
+  @Test
+  public void testPlainRecord() throws IOException {
+    final Map<String, byte[]> fields = new LinkedHashMap<String, byte[]>();
+    fields.put("id", Bytes.toBytes("FactTimes"));
+    fields.put("title", Bytes.toBytes("Messi plays for Barcelona"));
+    fields.put("empty", new byte[0]);
+    StoredFieldsRecord record = new StoredFieldsRecord(true);
+    try {
+      final byte[] bytes = record.encode(fields);
+      // too small to be deflated.
+      Assert.assertEquals(StoredFieldsRecord.FORMAT_PLAIN, bytes[0]);
+      assertFields(fields, StoredFieldsRecord.decode(bytes));
+    } finally {
+      record.close();
+    }
+  }
+
+  @Test
+  public void testDeflatedRecord() throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      sb.append("Messi plays for Barcelona. ");
+    }
+    final Map<String, byte[]> fields = new LinkedHashMap<String, byte[]>();
+    fields.put("id", Bytes.toBytes("FactTimes"));
+    fields.put("content", Bytes.toBytes(sb.toString()));
+
+    StoredFieldsRecord plain = new StoredFieldsRecord(false);
+    StoredFieldsRecord deflated = new StoredFieldsRecord(true);
+    try {
+      final byte[] plainBytes = plain.encode(fields);
+      final byte[] deflatedBytes = deflated.encode(fields);
+      Assert.assertEquals(StoredFieldsRecord.FORMAT_PLAIN, plainBytes[0]);
+      Assert.assertEquals(StoredFieldsRecord.FORMAT_DEFLATED,
+          deflatedBytes[0]);
+      Assert.assertTrue(deflatedBytes.length < plainBytes.length / 4);
+      assertFields(fields, StoredFieldsRecord.decode(plainBytes));
+      assertFields(fields, StoredFieldsRecord.decode(deflatedBytes));
+      // buffers reused across the documents.
+      fields.remove("content");
+      assertFields(fields, StoredFieldsRecord.decode(deflated.encode(fields)));
+    } finally {
+      plain.close();
+      deflated.close();
+    }
+  }
+
+  private static void assertFields(final Map<String, byte[]> expected,
+      final Map<String, byte[]> actual) {
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      Assert.assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTermKeyArena {
+
+  @Test
+  public void testIntern() {
+    TermKeyArena arena = new TermKeyArena(1000);
+    final byte[] prefix = arena.getFieldPrefix("content");
+    Assert.assertSame(prefix, arena.getFieldPrefix("content"));
+
+    final byte[] key = arena.intern(prefix, "messi".toCharArray(), 0, 5);
+    Assert.assertArrayEquals(Bytes.toBytes("content/messi"), key);
+    Assert.assertEquals(TermKeyArena.hash(key, 0, key.length), arena
+        .getLastHash());
+    Assert.assertSame(key, arena.intern(prefix, "xmessix".toCharArray(), 1, 5));
+    Assert.assertEquals(1, arena.size());
+  }
+
+  @Test
+  public void testUTF8() {
+    TermKeyArena arena = new TermKeyArena(1000);
+    final String term = "caf\u00e9 \u20ac \ud834\udd1e";
+    Assert.assertArrayEquals(Bytes.toBytes("content/" + term), arena.intern(
+        arena.getFieldPrefix("content"), term));
+  }
+
+  @Test
+  public void testUnpairedSurrogates() {
+    TermKeyArena arena = new TermKeyArena(1000);
+    final byte[] prefix = arena.getFieldPrefix("content");
+    for (final String term : new String[] { "a\uD800b", "a\uDC00", "\uD800",
+        "x\uD83D\uDE00\uDE00" }) {
+      Assert.assertArrayEquals(term, Bytes.toBytes("content/" + term), arena
+          .intern(prefix, term));
+    }
+  }
+
+  @Test
+  public void testMaxKeys() {
+    TermKeyArena arena = new TermKeyArena(10);
+    final byte[] prefix = arena.getFieldPrefix("content");
+    for (int i = 0; i < 25; ++i) {
+      arena.intern(prefix, "term" + i);
+    }
+    Assert.assertTrue(arena.size() <= 10);
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test case for the variable-length delta encoder.
+ */
+public class VIntTermPositionsEncoderTest extends
+    AbstractTermPositionsEncoderTest {
+
+  protected AbstractTermPositionsEncoder createEncoder() {
+    return new VIntTermPositionsEncoder();
+  }
+
+  @Test
+  public void testEncodeDecode() {
+    this.assertEncodeDecode(termPositions);
+    this.assertEncodeDecode(new int[] { 0, 0, 127, 128, 20000, 3000000 });
+  }
+
+  @Test
+  public void testRange() {
+    final int[] positions = new int[] { 7, 1, 3, 4, 300, 9 };
+    final byte[] encoded = this.encoder.encode(positions, 1, 4);
+    // 1, 2, 1 and 296 ( 2 bytes ).
+    Assert.assertEquals(5, encoded.length);
+    final byte[] block = new byte[encoded.length + 3];
+    System.arraycopy(encoded, 0, block, 2, encoded.length);
+    Assert.assertEquals(4, this.encoder.getTermFrequency(block, 2,
+        encoded.length));
+
+    final int[] buffer = new int[8];
+    Assert.assertSame(buffer, this.encoder.decode(block, 2, encoded.length,
+        buffer));
+    Assert.assertArrayEquals(new int[] { 1, 3, 4, 300 }, Arrays.copyOf(
+        buffer, 4));
+    Assert.assertArrayEquals(new int[] { 1, 3, 4, 300 }, this.encoder
+        .decode(block, 2, encoded.length, new int[2]));
+  }
+
+  @Test
+  public void testFormats() {
+    Assert.assertSame(VIntTermPositionsEncoder.class,
+        AbstractTermPositionsEncoder.forFormat(
+            AbstractTermPositionsEncoder.FORMAT_VINT).getClass());
+    Assert.assertEquals(AbstractTermPositionsEncoder.FORMAT_ALPHA,
+        AbstractTermPositionsEncoder.forName("alpha").getFormat());
+  }
+}
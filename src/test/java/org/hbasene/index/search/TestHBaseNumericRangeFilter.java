@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.Version;
+import org.hbasene.index.AbstractHBaseneTest;
+import org.junit.Test;
+
+public class TestHBaseNumericRangeFilter extends AbstractHBaseneTest {
+
+  private static final int NUM_DOCS = 200;
+
+  private HBaseIndexSearcher indexSearcher;
+
+  @Override
+  protected void doInitDocs() throws CorruptIndexException, IOException {
+    for (int i = 0; i < NUM_DOCS; ++i) {
+      Document doc = new Document();
+      doc.add(new Field("id", "doc" + i, Field.Store.YES, Field.Index.NO));
+      // timestamps, 1000 apart.
+      doc.add(new NumericField("timestamp").setLongValue(1000L * i));
+      doc.add(new NumericField("price").setDoubleValue(i / 4.0));
+      indexWriter.addDocument(doc, new StandardAnalyzer(Version.LUCENE_30));
+    }
+  }
+
+  @Override
+  protected void doSetupDerived() throws CorruptIndexException, IOException {
+    this.indexSearcher = new HBaseIndexSearcher(this.indexReader);
+  }
+
+  @Test
+  public void testLongRange() throws IOException {
+    HBaseNumericRangeFilter filter = HBaseNumericRangeFilter.newLongRange(
+        "timestamp", NumericUtils.PRECISION_STEP_DEFAULT, 10000L, 150000L,
+        true, false);
+    // 10 .. 149
+    assertEquals(140, count(filter));
+    assertTrue(filter.getNumSubRanges() < 20);
+
+    filter = HBaseNumericRangeFilter.newLongRange("timestamp",
+        NumericUtils.PRECISION_STEP_DEFAULT, null, 4500L, true, true);
+    assertEquals(5, count(filter));
+
+    filter = HBaseNumericRangeFilter.newLongRange("timestamp",
+        NumericUtils.PRECISION_STEP_DEFAULT, 5000L, 5000L, true, false);
+    assertEquals(0, count(filter));
+  }
+
+  @Test
+  public void testDoubleRange() throws IOException {
+    HBaseNumericRangeFilter filter = HBaseNumericRangeFilter.newDoubleRange(
+        "price", NumericUtils.PRECISION_STEP_DEFAULT, 2.5, 5.0, false, true);
+    // 11 / 4.0 .. 20 / 4.0
+    assertEquals(10, count(filter));
+  }
+
+  @Test
+  public void testFilteredSearch() throws IOException {
+    HBaseNumericRangeFilter filter = HBaseNumericRangeFilter.newLongRange(
+        "timestamp", NumericUtils.PRECISION_STEP_DEFAULT, 0L, 19999L, true,
+        true);
+    TopDocs docs = this.indexSearcher.search(new MatchAllDocsQuery(), filter,
+        NUM_DOCS);
+    assertEquals(20, docs.totalHits);
+  }
+
+  @Test
+  public void testNumericRangeQuery() throws IOException {
+    // through the term enum of the reader, as by Lucene.
+    TopDocs docs = this.indexSearcher.search(NumericRangeQuery.newLongRange(
+        "timestamp", 10000L, 150000L, true, false), NUM_DOCS);
+    assertEquals(140, docs.totalHits);
+  }
+
+  private int count(final HBaseNumericRangeFilter filter) throws IOException {
+    final DocIdSetIterator iterator = filter.getDocIdSet(this.indexReader)
+        .iterator();
+    int count = 0;
+    while (iterator.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+      ++count;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAbstractDocSetCodec {
+
+  private static final String[] NAMES = new String[] { "array", "bitset",
+      "packed", "hybrid", "smallest" };
+
+  @Test
+  public void testRoundTrip() {
+    final int[] docs = new int[300];
+    for (int i = 0; i < docs.length; ++i) {
+      docs[i] = 7 * i + (i % 3);
+    }
+    final HybridDocSet docSet = new HybridDocSet();
+    for (final int doc : docs) {
+      docSet.add(doc);
+    }
+    for (final String name : NAMES) {
+      final AbstractDocSetCodec codec = AbstractDocSetCodec.forName(name);
+      final byte[] encoded = codec.encode(docs, docs.length);
+      // decoded by the codec of the format, whichever codec wrote it.
+      Assert.assertArrayEquals(name, docs, HBaseneUtil.toDocIds(encoded));
+      Assert.assertArrayEquals(name, docs, HBaseneUtil.toDocIds(codec
+          .encode(docSet)));
+    }
+  }
+
+  @Test
+  public void testFormats() {
+    final int[] docs = new int[] { 1, 64, 130 };
+    Assert.assertEquals(AbstractDocSetCodec.FORMAT_ARRAY, Bytes
+        .toInt(AbstractDocSetCodec.forName("array").encode(docs, 3)));
+    Assert.assertEquals(AbstractDocSetCodec.FORMAT_BITSET, Bytes
+        .toInt(AbstractDocSetCodec.forName("bitset").encode(docs, 3)));
+    Assert.assertEquals(AbstractDocSetCodec.FORMAT_PACKED, Bytes
+        .toInt(AbstractDocSetCodec.forName("smallest").encode(docs, 3)));
+
+    // a dense set is smaller as a hybrid docset.
+    final HybridDocSet docSet = new HybridDocSet();
+    for (int doc = 0; doc < 10000; ++doc) {
+      docSet.add(doc);
+    }
+    Assert.assertEquals(AbstractDocSetCodec.FORMAT_HYBRID, Bytes
+        .toInt(AbstractDocSetCodec.forName("smallest").encode(docSet)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownName() {
+    AbstractDocSetCodec.forName("unknown");
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.lucene.util.OpenBitSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBlockPackedDocSet {
+
+  @Test
+  public void testSparse() {
+    final int[] docs = new int[] { 0, 5, 900, 3000 };
+    final byte[] docSet = BlockPackedDocSet.encode(docs, docs.length);
+    // header and the vints, smaller than the 4 bytes a doc of 'A'.
+    Assert.assertEquals(8 + 1 + 1 + 2 + 2, docSet.length);
+    Assert.assertEquals(4, BlockPackedDocSet.numDocs(docSet));
+    Assert.assertArrayEquals(docs, HBaseneUtil.toDocIds(docSet));
+  }
+
+  @Test
+  public void testBlocks() {
+    final Random random = new Random(42);
+    for (final int gap : new int[] { 1, 3, 100, 70000 }) {
+      final int numDocs = 2 * BlockPackedDocSet.BLOCK_SIZE + 17;
+      final int[] docs = new int[numDocs];
+      int doc = random.nextInt(gap);
+      for (int i = 0; i < numDocs; ++i) {
+        docs[i] = doc;
+        doc += 1 + random.nextInt(gap);
+      }
+      final byte[] docSet = BlockPackedDocSet.encode(docs, numDocs);
+      Assert.assertArrayEquals(docs, BlockPackedDocSet.decode(docSet));
+      Assert.assertTrue(docSet.length < (numDocs + 2) * Bytes.SIZEOF_INT);
+    }
+  }
+
+  @Test
+  public void testWidths() {
+    // a block of consecutive docs, and a block with a 31 bit delta.
+    final int[] docs = new int[2 * BlockPackedDocSet.BLOCK_SIZE];
+    for (int i = 0; i < BlockPackedDocSet.BLOCK_SIZE; ++i) {
+      docs[i] = i;
+      docs[BlockPackedDocSet.BLOCK_SIZE + i] = Integer.MAX_VALUE
+          - BlockPackedDocSet.BLOCK_SIZE + i;
+    }
+    final byte[] docSet = BlockPackedDocSet.encode(docs, docs.length);
+    Assert.assertEquals(1, docSet[8]);
+    Assert.assertArrayEquals(docs, BlockPackedDocSet.decode(docSet));
+  }
+
+  @Test
+  public void testInPlace() {
+    final int[] docs = new int[BlockPackedDocSet.BLOCK_SIZE + 3];
+    for (int i = 0; i < docs.length; ++i) {
+      docs[i] = 3 * i + 1;
+    }
+    final byte[] docSet = BlockPackedDocSet.encode(docs, docs.length);
+    // the value of a KeyValue, within a larger buffer.
+    final byte[] buffer = new byte[docSet.length + 20];
+    Bytes.putBytes(buffer, 7, docSet, 0, docSet.length);
+    Assert.assertEquals(docs.length, BlockPackedDocSet.numDocs(buffer, 7));
+    Assert.assertArrayEquals(docs, HBaseneUtil.toDocIds(buffer, 7,
+        docSet.length));
+
+    // 'A' and 'O' docsets of 1, 64 and 130.
+    final byte[] array = new byte[5 * Bytes.SIZEOF_INT + 9];
+    int offset = Bytes.putInt(array, 9, 'A');
+    offset = Bytes.putInt(array, offset, 3);
+    for (final int doc : new int[] { 1, 64, 130 }) {
+      offset = Bytes.putInt(array, offset, doc);
+    }
+    Assert.assertArrayEquals(new int[] { 1, 64, 130 }, HBaseneUtil.toDocIds(
+        array, 9, 5 * Bytes.SIZEOF_INT));
+    final byte[] bits = new byte[Bytes.SIZEOF_INT + 3 * Bytes.SIZEOF_LONG + 9];
+    offset = Bytes.putInt(bits, 9, 'O');
+    offset = Bytes.putLong(bits, offset, 1L << 1);
+    offset = Bytes.putLong(bits, offset, 1L);
+    Bytes.putLong(bits, offset, 1L << 2);
+    Assert.assertArrayEquals(new int[] { 1, 64, 130 }, HBaseneUtil.toDocIds(
+        bits, 9, bits.length - 9));
+
+    // words of the bitset set in place, offset and bounded.
+    final OpenBitSet deletions = new OpenBitSet(300);
+    HBaseneUtil.orInto(bits, 13, 3 * Bytes.SIZEOF_LONG, deletions, 100, 130);
+    Assert.assertEquals(2, deletions.cardinality());
+    Assert.assertTrue(deletions.get(101));
+    Assert.assertTrue(deletions.get(164));
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 Karthik Kumar
+ *
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hbasene.index.util;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.OpenBitSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHybridDocSet {
+
+  @Test
+  public void testContainers() {
+    final HybridDocSet set = new HybridDocSet();
+    // sparse chunk, a run, and a dense chunk.
+    set.add(3);
+    set.add(70);
+    for (int doc = 65536; doc < 65536 + 20000; ++doc) {
+      set.add(doc);
+    }
+    final Random random = new Random(7);
+    final OpenBitSet expected = new OpenBitSet();
+    expected.set(3);
+    expected.set(70);
+    expected.set(65536, 65536 + 20000);
+    for (int i = 0; i < 10000; ++i) {
+      final int doc = 2 * 65536 + random.nextInt(65536);
+      set.add(doc);
+      expected.set(doc);
+    }
+    Assert.assertEquals(expected.cardinality(), set.cardinality());
+    assertDocs(expected, set.toDocIds());
+
+    final byte[] bytes = set.toBytes();
+    // 2 values, a single run in place of a bitmap, and a bitmap.
+    Assert.assertEquals(8 + 3 * 3 + (2 + 2 * 2) + (2 + 4) + 8192,
+        bytes.length);
+    assertDocs(expected, HBaseneUtil.toDocIds(bytes));
+    assertDocs(expected, HybridDocSet.fromBytes(bytes).toDocIds());
+
+    // in place, as the value of a KeyValue within a larger buffer.
+    final byte[] buffer = new byte[bytes.length + 11];
+    System.arraycopy(bytes, 0, buffer, 5, bytes.length);
+    assertDocs(expected, HBaseneUtil.toDocIds(buffer, 5, bytes.length));
+  }
+
+  @Test
+  public void testOperations() {
+    final Random random = new Random(42);
+    final HybridDocSet a = new HybridDocSet();
+    final HybridDocSet b = new HybridDocSet();
+    final OpenBitSet bitsA = new OpenBitSet();
+    final OpenBitSet bitsB = new OpenBitSet();
+    for (int i = 0; i < 30000; ++i) {
+      final int docA = random.nextInt(200000);
+      final int docB = random.nextInt(i < 20000 ? 70000 : 200000);
+      a.add(docA);
+      bitsA.set(docA);
+      b.add(docB);
+      bitsB.set(docB);
+    }
+    assertDocs(OpenBitSet.intersection(bitsA, bitsB), a.and(b).toDocIds());
+    assertDocs(OpenBitSet.union(bitsA, bitsB), a.or(b).toDocIds());
+    final OpenBitSet andNot = (OpenBitSet) bitsA.clone();
+    andNot.andNot(bitsB);
+    assertDocs(andNot, a.andNot(b).toDocIds());
+    // the operands are left as is.
+    Assert.assertEquals(bitsA.cardinality(), a.cardinality());
+  }
+
+  @Test
+  public void testIterator() throws IOException {
+    final HybridDocSet set = new HybridDocSet();
+    for (final int doc : new int[] { 5, 9, 65535, 65536, 300000 }) {
+      set.add(doc);
+    }
+    final DocIdSetIterator iterator = set.iterator();
+    Assert.assertEquals(-1, iterator.docID());
+    Assert.assertEquals(5, iterator.nextDoc());
+    Assert.assertEquals(65535, iterator.advance(10));
+    Assert.assertEquals(65536, iterator.nextDoc());
+    Assert.assertEquals(300000, iterator.advance(65537));
+    Assert.assertEquals(DocIdSetIterator.NO_MORE_DOCS, iterator.nextDoc());
+  }
+
+  private static void assertDocs(final OpenBitSet expected, final int[] docs) {
+    Assert.assertEquals(expected.cardinality(), docs.length);
+    int i = 0;
+    for (int doc = expected.nextSetBit(0); doc >= 0; doc = expected
+        .nextSetBit(doc + 1)) {
+      Assert.assertEquals(doc, docs[i++]);
+    }
+  }
+}